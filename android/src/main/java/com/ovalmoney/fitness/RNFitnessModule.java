@@ -9,8 +9,10 @@ import java.util.Map;
 
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
 import com.google.android.gms.fitness.FitnessOptions;
 import com.google.android.gms.fitness.FitnessActivities;
+import com.ovalmoney.fitness.job.PreAggregationTaskService;
 import com.ovalmoney.fitness.manager.Manager;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
@@ -27,6 +29,17 @@ public class RNFitnessModule extends ReactContextBaseJavaModule{
 
   private final static String ERROR_KEY = "Error";
 
+  private final static String EVENTS_KEY = "Events";
+  private final static String HISTORY_PAGE_KEY = "HistoryPage";
+  private final static String HISTORY_COMPLETE_KEY = "HistoryComplete";
+  private final static String LIVE_FRAME_KEY = "LiveFrame";
+  private final static String METRICS_KEY = "Metrics";
+  private final static String GOAL_KEY = "Goal";
+  private final static String EXPORT_PROGRESS_KEY = "ExportProgress";
+
+  private final static String TASKS_KEY = "Tasks";
+  private final static String PRE_AGGREGATION_KEY = "PreAggregation";
+
   private final static String PERMISSIONS_KEY = "PermissionKind";
   private final static String STEP_KEY = "Step";
   private final static String ACTIVITY_KEY = "Activity";
@@ -53,6 +66,8 @@ public class RNFitnessModule extends ReactContextBaseJavaModule{
   private final static Map<String, Integer> PERMISSIONS = new HashMap<>();
   private final static Map<String, Integer> ACCESSES = new HashMap<>();
   private final static Map<String, String> ACTIVITIES = new HashMap<>();
+  private final static Map<String, String> EVENTS = new HashMap<>();
+  private final static Map<String, String> TASKS = new HashMap<>();
 
   private final Manager manager;
 
@@ -61,7 +76,10 @@ public class RNFitnessModule extends ReactContextBaseJavaModule{
     feedPermissionsMap();
     feedAccessesTypeMap();
     feedActivitiesMap();
-    this.manager = new Manager();
+    feedEventsMap();
+    feedTasksMap();
+    this.manager = new Manager(reactContext);
+    Manager.setShared(this.manager);
     reactContext.addActivityEventListener(this.manager);
   }
 
@@ -91,6 +109,19 @@ public class RNFitnessModule extends ReactContextBaseJavaModule{
     ACTIVITIES.put(WEIGHTLIFTING_KEY, FitnessActivities.WEIGHTLIFTING);
   }
 
+  private void feedEventsMap(){
+    EVENTS.put(HISTORY_PAGE_KEY, Manager.HISTORY_PAGE_EVENT);
+    EVENTS.put(HISTORY_COMPLETE_KEY, Manager.HISTORY_COMPLETE_EVENT);
+    EVENTS.put(LIVE_FRAME_KEY, Manager.LIVE_FRAME_EVENT);
+    EVENTS.put(METRICS_KEY, Manager.METRICS_EVENT);
+    EVENTS.put(GOAL_KEY, Manager.GOAL_EVENT);
+    EVENTS.put(EXPORT_PROGRESS_KEY, Manager.EXPORT_PROGRESS_EVENT);
+  }
+
+  private void feedTasksMap(){
+    TASKS.put(PRE_AGGREGATION_KEY, PreAggregationTaskService.TASK_NAME);
+  }
+
   @Override
   public String getName() {
     return "Fitness";
@@ -104,9 +135,22 @@ public class RNFitnessModule extends ReactContextBaseJavaModule{
     constants.put(ACCESS_TYPE_KEY, ACCESSES);
     constants.put(ACTIVITIES_KEY, ACTIVITIES);
     constants.put(ERROR_KEY, new HashMap<>());
+    constants.put(EVENTS_KEY, EVENTS);
+    constants.put(TASKS_KEY, TASKS);
     return constants;
   }
 
+  @ReactMethod
+  public void configure(ReadableMap options, Promise promise){
+    try {
+      manager.configure(options, promise);
+    }catch(RuntimeException e){
+      promise.reject(e);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
   @ReactMethod
   public void isAuthorized(ReadableArray permissions, Promise promise){
     promise.resolve(manager.isAuthorized(getCurrentActivity(), createRequestFromReactArray(permissions)));
@@ -141,36 +185,113 @@ public class RNFitnessModule extends ReactContextBaseJavaModule{
   }
 
   @ReactMethod
-  public void getSteps(double startDate, double endDate, String interval, Promise promise){
+  public void startLiveUpdates(ReadableArray kinds, ReadableMap options, Promise promise){
+    try {
+      manager.startLiveUpdates(getCurrentActivity(), createKindsFromReactArray(kinds), options, promise);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void stopLiveUpdates(Promise promise){
+    try {
+      manager.stopLiveUpdates(promise);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void acknowledgeLiveFrame(int frameId){
+    manager.acknowledgeLiveFrame(frameId);
+  }
+
+  @ReactMethod
+  public void getSteps(double startDate, double endDate, String interval, ReadableMap options, Promise promise){
+    try {
+      manager.getSteps(getCurrentActivity(), startDate, endDate, interval, options, promise);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void getDistance(double startDate, double endDate, String interval, ReadableMap options, Promise promise){
+    try {
+      manager.getDistance(getCurrentActivity(), startDate, endDate, interval, options, promise);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void getCalories(double startDate, double endDate, String interval, ReadableMap options, Promise promise){
+    try {
+      manager.getCalories(getCurrentActivity(), startDate, endDate, interval, options, promise);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void getHeartRate(double startDate, double endDate, String interval, ReadableMap options, Promise promise){
     try {
-      manager.getSteps(getCurrentActivity(), startDate, endDate, interval, promise);
+      manager.getHeartRate(getCurrentActivity(), startDate, endDate, interval, options, promise);
     }catch(Error e){
       promise.reject(e);
     }
   }
 
   @ReactMethod
-  public void getDistance(double startDate, double endDate, String interval, Promise promise){
+  public void getSummary(double startDate, double endDate, String interval, ReadableArray metrics, ReadableMap options, Promise promise){
     try {
-      manager.getDistance(getCurrentActivity(), startDate, endDate, interval, promise);
+      manager.getSummary(getCurrentActivity(), startDate, endDate, interval, createKindsFromReactArray(metrics), options, promise);
     }catch(Error e){
       promise.reject(e);
     }
   }
 
   @ReactMethod
-  public void getCalories(double startDate, double endDate, String interval, Promise promise){
+  public void exportHistory(double startDate, double endDate, String interval, ReadableArray metrics, ReadableMap options, Promise promise){
     try {
-      manager.getCalories(getCurrentActivity(), startDate, endDate, interval, promise);
+      manager.exportHistory(getReactApplicationContext(), createKindsFromReactArray(metrics), startDate, endDate, interval, options, promise);
     }catch(Error e){
       promise.reject(e);
     }
   }
 
   @ReactMethod
-  public void getHeartRate(double startDate, double endDate, String interval, Promise promise){
+  public void getRollUps(int kind, double startDate, double endDate, String interval, ReadableArray intervals, ReadableMap options, Promise promise){
     try {
-      manager.getHeartRate(getCurrentActivity(), startDate, endDate, interval, promise);
+      manager.getRollUps(getCurrentActivity(), kind, startDate, endDate, interval, createStringsFromReactArray(intervals), options, promise);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void syncSince(int kind, String interval, String token, ReadableMap options, Promise promise){
+    try {
+      manager.syncSince(getCurrentActivity(), kind, interval, token, options, promise);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void readSamples(int kind, double startDate, double endDate, ReadableMap options, Promise promise){
+    try {
+      manager.readSamples(getCurrentActivity(), kind, startDate, endDate, options, promise);
+    }catch(Error e){
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void readSessions(double startDate, double endDate, ReadableArray kinds, ReadableMap options, Promise promise){
+    try {
+      manager.readSessions(getCurrentActivity(), startDate, endDate, createKindsFromReactArray(kinds), options, promise);
     }catch(Error e){
       promise.reject(e);
     }
@@ -194,6 +315,192 @@ public class RNFitnessModule extends ReactContextBaseJavaModule{
     }
   }
 
+  @ReactMethod
+  public void saveActivities(ReadableArray activities, Promise promise){
+    try {
+      manager.saveActivities(getCurrentActivity(), activities, promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void saveSteps(ReadableArray steps, Promise promise){
+    try {
+      manager.saveSteps(getCurrentActivity(), steps, promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void saveHeartRates(ReadableArray heartRates, Promise promise){
+    try {
+      manager.saveHeartRates(getCurrentActivity(), heartRates, promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void saveWeights(ReadableArray weights, Promise promise){
+    try {
+      manager.saveWeights(getCurrentActivity(), weights, promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void cancel(String queryId, Promise promise){
+    try {
+      manager.cancel(queryId, promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public double getTodaySteps(){
+    try {
+      return manager.getToday(Permission.STEP);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Could not read today's total", e);
+      return 0;
+    }
+  }
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public double getTodayDistance(){
+    try {
+      return manager.getToday(Permission.DISTANCE);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Could not read today's total", e);
+      return 0;
+    }
+  }
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public double getTodayCalories(){
+    try {
+      return manager.getToday(Permission.CALORIES);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Could not read today's total", e);
+      return 0;
+    }
+  }
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public WritableMap getToday(){
+    try {
+      return manager.getTodaySnapshot();
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Could not read today's totals", e);
+      return null;
+    }
+  }
+
+  @ReactMethod
+  public void refreshToday(Promise promise){
+    try {
+      manager.refreshToday(promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void setGoals(ReadableArray goals, Promise promise){
+    try {
+      manager.setGoals(goals, promise);
+    } catch (RuntimeException e) {
+      promise.reject(e);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void getGoals(Promise promise){
+    try {
+      manager.getGoals(promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void invalidateCache(Promise promise){
+    try {
+      manager.invalidateCache(promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void getMetrics(Promise promise){
+    try {
+      manager.getMetrics(promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void resetMetrics(Promise promise){
+    try {
+      manager.resetMetrics(promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void schedulePreAggregation(ReadableArray kinds, ReadableMap options, Promise promise){
+    try {
+      manager.schedulePreAggregation(createKindsFromReactArray(kinds), options, promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void cancelPreAggregation(Promise promise){
+    try {
+      manager.cancelPreAggregation(promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  @ReactMethod
+  public void getPreAggregated(Promise promise){
+    try {
+      manager.getPreAggregated(promise);
+    } catch (Error e) {
+      promise.reject(e);
+    }
+  }
+
+  private int[] createKindsFromReactArray(ReadableArray kinds){
+    int size = kinds.size();
+    int[] kindsArray = new int[size];
+    for(int i = 0; i < size; i++) {
+      kindsArray[i] = kinds.getInt(i);
+    }
+    return kindsArray;
+  }
+
+  private String[] createStringsFromReactArray(ReadableArray strings){
+    int size = strings.size();
+    String[] stringsArray = new String[size];
+    for(int i = 0; i < size; i++) {
+      stringsArray[i] = strings.getString(i);
+    }
+    return stringsArray;
+  }
+
   private ArrayList<Request> createRequestFromReactArray(ReadableArray permissions){
     ArrayList<Request> requestPermissions = new ArrayList<>();
     int size = permissions.size();
@@ -0,0 +1,123 @@
+package com.ovalmoney.fitness.aggregation;
+
+/**
+ * Shape-preserving reduction of a series to a bounded number of points, so the size of what
+ * crosses the bridge doesn't depend on the length of the range.
+ */
+public class Downsample {
+
+    private Downsample() {}
+
+    /**
+     * Largest-Triangle-Three-Buckets: keep the first and last points and, from each of the
+     * buckets in between, the point forming the largest triangle with its neighbours, so peaks
+     * and troughs survive. Kept points are returned unchanged.
+     */
+    public static SampleSeries lttb(SampleSeries series, int maxPoints) {
+        if (maxPoints >= series.size || series.size < 3) {
+            return series;
+        }
+        if (maxPoints < 3) {
+            return select(series, maxPoints == 2 ? new int[]{ 0, series.size - 1 } : new int[]{ 0 });
+        }
+
+        final int[] indices = new int[maxPoints];
+        final double every = (double) (series.size - 2) / (maxPoints - 2);
+        int selected = 0;
+        indices[0] = 0;
+        for (int i = 0; i < maxPoints - 2; i++) {
+            final int nextStart = (int) Math.floor((i + 1) * every) + 1;
+            final int nextEnd = Math.min((int) Math.floor((i + 2) * every) + 1, series.size);
+            double averageX = 0;
+            double averageY = 0;
+            for (int j = nextStart; j < nextEnd; j++) {
+                averageX += series.startDates[j];
+                averageY += series.quantities[j];
+            }
+            final int nextLength = nextEnd - nextStart;
+            if (nextLength > 0) {
+                averageX /= nextLength;
+                averageY /= nextLength;
+            } else {
+                averageX = series.startDates[series.size - 1];
+                averageY = series.quantities[series.size - 1];
+            }
+
+            final int rangeStart = (int) Math.floor(i * every) + 1;
+            final int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+            final double pointX = series.startDates[selected];
+            final double pointY = series.quantities[selected];
+            double maxArea = -1;
+            int maxIndex = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                final double area = Math.abs((pointX - averageX) * (series.quantities[j] - pointY)
+                        - (pointX - series.startDates[j]) * (averageY - pointY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = j;
+                }
+            }
+            indices[i + 1] = maxIndex;
+            selected = maxIndex;
+        }
+        indices[maxPoints - 1] = series.size - 1;
+        return select(series, indices);
+    }
+
+    /**
+     * Merge runs of consecutive points into at most {@code maxPoints} points, keeping the lowest
+     * min and highest max of each run and combining quantities as {@link RollUp} does.
+     */
+    public static SampleSeries envelope(SampleSeries series, int maxPoints, int mode) {
+        if (maxPoints >= series.size || maxPoints < 1) {
+            return series;
+        }
+        final long[] startDates = new long[maxPoints];
+        final long[] endDates = new long[maxPoints];
+        final double[] quantities = new double[maxPoints];
+        final double[] mins = new double[maxPoints];
+        final double[] maxs = new double[maxPoints];
+        for (int i = 0; i < maxPoints; i++) {
+            final int from = (int) ((long) i * series.size / maxPoints);
+            final int to = (int) ((long) (i + 1) * series.size / maxPoints);
+            double quantity = 0;
+            double weight = 0;
+            double min = series.mins[from];
+            double max = series.maxs[from];
+            for (int j = from; j < to; j++) {
+                if (mode == RollUp.AVERAGE) {
+                    final double duration = Math.max(1, series.endDates[j] - series.startDates[j]);
+                    quantity += series.quantities[j] * duration;
+                    weight += duration;
+                } else {
+                    quantity += series.quantities[j];
+                }
+                min = Math.min(min, series.mins[j]);
+                max = Math.max(max, series.maxs[j]);
+            }
+            startDates[i] = series.startDates[from];
+            endDates[i] = series.endDates[to - 1];
+            quantities[i] = mode == RollUp.AVERAGE && weight > 0 ? quantity / weight : quantity;
+            mins[i] = mode == RollUp.AVERAGE ? min : quantities[i];
+            maxs[i] = mode == RollUp.AVERAGE ? max : quantities[i];
+        }
+        return new SampleSeries(startDates, endDates, quantities, mins, maxs, maxPoints);
+    }
+
+    private static SampleSeries select(SampleSeries series, int[] indices) {
+        final int size = indices.length;
+        final long[] startDates = new long[size];
+        final long[] endDates = new long[size];
+        final double[] quantities = new double[size];
+        final double[] mins = new double[size];
+        final double[] maxs = new double[size];
+        for (int i = 0; i < size; i++) {
+            startDates[i] = series.startDates[indices[i]];
+            endDates[i] = series.endDates[indices[i]];
+            quantities[i] = series.quantities[indices[i]];
+            mins[i] = series.mins[indices[i]];
+            maxs[i] = series.maxs[indices[i]];
+        }
+        return new SampleSeries(startDates, endDates, quantities, mins, maxs, size);
+    }
+}
@@ -0,0 +1,149 @@
+package com.ovalmoney.fitness.aggregation;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Derive coarse buckets from finer ones in a single pass, without going back to Google Fit.
+ * Fixed-duration buckets are aligned on the start of the range, like the buckets Google Fit
+ * returns, calendar months on the first day of the month in the given time zone. Each fine
+ * bucket is assigned to the coarse bucket its start falls in.
+ */
+public class RollUp {
+    /**
+     * Quantities are added up: steps, distance, calories.
+     */
+    public final static int SUM = 0;
+    /**
+     * Quantities are averaged, weighted by the duration each fine bucket covers, while min and
+     * max are carried over: heart rate.
+     */
+    public final static int AVERAGE = 1;
+
+    private RollUp() {}
+
+    private interface Bucketing {
+        /**
+         * Start of the coarse bucket {@code time} falls in, after which {@link #getEnd()} is its end.
+         */
+        long getStart(long time);
+
+        long getEnd();
+    }
+
+    private static class FixedBucketing implements Bucketing {
+        private final long start;
+        private final long bucketSize;
+        private long end;
+
+        FixedBucketing(long start, long bucketSize) {
+            this.start = start;
+            this.bucketSize = bucketSize;
+        }
+
+        @Override
+        public long getStart(long time) {
+            final long bucketStart = start + ((time - start) / bucketSize) * bucketSize;
+            end = bucketStart + bucketSize;
+            return bucketStart;
+        }
+
+        @Override
+        public long getEnd() {
+            return end;
+        }
+    }
+
+    private static class MonthBucketing implements Bucketing {
+        private final Calendar calendar;
+        private final int months;
+        private long start = Long.MAX_VALUE;
+        private long end = Long.MIN_VALUE;
+
+        MonthBucketing(int months, TimeZone zone) {
+            this.calendar = Calendar.getInstance(zone);
+            this.months = months;
+        }
+
+        @Override
+        public long getStart(long time) {
+            if (time >= start && time < end) {
+                return start;
+            }
+            calendar.setTimeInMillis(time);
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            // Months are counted from January, so "3 months" buckets are calendar quarters.
+            calendar.add(Calendar.MONTH, -(calendar.get(Calendar.MONTH) % months));
+            start = calendar.getTimeInMillis();
+            calendar.add(Calendar.MONTH, months);
+            end = calendar.getTimeInMillis();
+            return start;
+        }
+
+        @Override
+        public long getEnd() {
+            return end;
+        }
+    }
+
+    public static SampleSeries rollUp(SampleSeries fine, long start, long end, long bucketSize, int mode) {
+        return rollUp(fine, start, end, new FixedBucketing(start, bucketSize), mode);
+    }
+
+    /**
+     * Roll up to calendar months, or groups of {@code months} months counted from January. The
+     * first and last buckets are cut to the range.
+     */
+    public static SampleSeries rollUpByMonth(SampleSeries fine, long start, long end, int months, TimeZone zone, int mode) {
+        return rollUp(fine, start, end, new MonthBucketing(months, zone), mode);
+    }
+
+    private static SampleSeries rollUp(SampleSeries fine, long start, long end, Bucketing bucketing, int mode) {
+        final long[] startDates = new long[fine.size];
+        final long[] endDates = new long[fine.size];
+        final double[] quantities = new double[fine.size];
+        final double[] mins = new double[fine.size];
+        final double[] maxs = new double[fine.size];
+
+        int size = 0;
+        long currentStart = Long.MIN_VALUE;
+        double weight = 0;
+        for (int i = 0; i < fine.size; i++) {
+            final long bucketStart = bucketing.getStart(fine.startDates[i]);
+            if (size == 0 || bucketStart != currentStart) {
+                if (size > 0 && mode == AVERAGE && weight > 0) {
+                    quantities[size - 1] /= weight;
+                }
+                currentStart = bucketStart;
+                startDates[size] = Math.max(bucketStart, start);
+                endDates[size] = Math.min(bucketing.getEnd(), end);
+                quantities[size] = 0;
+                mins[size] = fine.mins[i];
+                maxs[size] = fine.maxs[i];
+                weight = 0;
+                size++;
+            }
+
+            final int current = size - 1;
+            if (mode == AVERAGE) {
+                final double duration = Math.max(1, fine.endDates[i] - fine.startDates[i]);
+                quantities[current] += fine.quantities[i] * duration;
+                weight += duration;
+                mins[current] = Math.min(mins[current], fine.mins[i]);
+                maxs[current] = Math.max(maxs[current], fine.maxs[i]);
+            } else {
+                quantities[current] += fine.quantities[i];
+                mins[current] = quantities[current];
+                maxs[current] = quantities[current];
+            }
+        }
+        if (size > 0 && mode == AVERAGE && weight > 0) {
+            quantities[size - 1] /= weight;
+        }
+        return new SampleSeries(startDates, endDates, quantities, mins, maxs, size);
+    }
+}
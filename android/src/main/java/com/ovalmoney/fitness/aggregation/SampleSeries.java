@@ -0,0 +1,56 @@
+package com.ovalmoney.fitness.aggregation;
+
+import com.ovalmoney.fitness.manager.Sample;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Column-oriented buckets, ordered by start, stored in primitive arrays so roll-ups don't box.
+ */
+public class SampleSeries {
+    public final long[] startDates;
+    public final long[] endDates;
+    public final double[] quantities;
+    public final double[] mins;
+    public final double[] maxs;
+    public final int size;
+
+    public SampleSeries(long[] startDates, long[] endDates, double[] quantities, double[] mins, double[] maxs, int size) {
+        this.startDates = startDates;
+        this.endDates = endDates;
+        this.quantities = quantities;
+        this.mins = mins;
+        this.maxs = maxs;
+        this.size = size;
+    }
+
+    /**
+     * {@code samples} must already be sorted by start date.
+     */
+    public static SampleSeries fromSamples(List<Sample> samples) {
+        final int size = samples.size();
+        final long[] startDates = new long[size];
+        final long[] endDates = new long[size];
+        final double[] quantities = new double[size];
+        final double[] mins = new double[size];
+        final double[] maxs = new double[size];
+        for (int i = 0; i < size; i++) {
+            Sample sample = samples.get(i);
+            startDates[i] = sample.startDate;
+            endDates[i] = sample.endDate;
+            quantities[i] = sample.quantity;
+            mins[i] = sample.min;
+            maxs[i] = sample.max;
+        }
+        return new SampleSeries(startDates, endDates, quantities, mins, maxs, size);
+    }
+
+    public List<Sample> toSamples() {
+        List<Sample> samples = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            samples.add(new Sample(startDates[i], endDates[i], quantities[i], mins[i], maxs[i]));
+        }
+        return samples;
+    }
+}
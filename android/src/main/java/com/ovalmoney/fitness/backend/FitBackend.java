@@ -0,0 +1,42 @@
+package com.ovalmoney.fitness.backend;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.tasks.Task;
+import com.ovalmoney.fitness.manager.Interval;
+import com.ovalmoney.fitness.manager.Sample;
+import com.ovalmoney.fitness.manager.SessionInfo;
+import com.ovalmoney.fitness.manager.TimeRange;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Source of every history, session and recording call behind {@code Manager}, so the module can
+ * run against something other than Google Fit, e.g. to load test it.
+ */
+public interface FitBackend {
+
+    /**
+     * Buckets of every kind in {@code kinds}, in time order, keyed by kind. Results may be
+     * converted on {@code executor}.
+     */
+    Task<SparseArray<List<Sample>>> readAggregates(int[] kinds, TimeRange range, Interval interval, Executor executor);
+
+    /**
+     * At most {@code limit} raw data points of {@code kind}, in no particular order, as samples
+     * holding the point's value, or its activity as label for activity segments.
+     */
+    Task<List<Sample>> readRaw(int kind, TimeRange range, int limit, Executor executor);
+
+    /**
+     * Sessions of every app overlapping the range, in no particular order.
+     */
+    Task<List<SessionInfo>> readSessions(TimeRange range, Executor executor);
+
+    Task<Void> insert(DataSet dataSet);
+
+    Task<Void> subscribe(DataType dataType);
+}
@@ -0,0 +1,263 @@
+package com.ovalmoney.fitness.backend;
+
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.fitness.data.Bucket;
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataSource;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Field;
+import com.google.android.gms.fitness.data.Session;
+import com.google.android.gms.fitness.request.DataReadRequest;
+import com.google.android.gms.fitness.request.SessionReadRequest;
+import com.google.android.gms.fitness.result.DataReadResponse;
+import com.google.android.gms.fitness.result.SessionReadResponse;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.ovalmoney.fitness.manager.FitClients;
+import com.ovalmoney.fitness.manager.Interval;
+import com.ovalmoney.fitness.manager.Sample;
+import com.ovalmoney.fitness.manager.SessionInfo;
+import com.ovalmoney.fitness.manager.TimeRange;
+import com.ovalmoney.fitness.permission.Permission;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.ovalmoney.fitness.permission.Permission.ACTIVITY;
+import static com.ovalmoney.fitness.permission.Permission.CALORIES;
+import static com.ovalmoney.fitness.permission.Permission.DISTANCE;
+import static com.ovalmoney.fitness.permission.Permission.HEART_RATE;
+import static com.ovalmoney.fitness.permission.Permission.STEP;
+import static com.ovalmoney.fitness.permission.Permission.WEIGHT;
+
+/**
+ * Reads from and writes to the Google Fit History, Sessions and Recording APIs of the signed-in
+ * account.
+ */
+public class GoogleFitBackend implements FitBackend {
+
+    private final FitClients fitClients;
+
+    public GoogleFitBackend(FitClients fitClients) {
+        this.fitClients = fitClients;
+    }
+
+    @Override
+    public Task<SparseArray<List<Sample>>> readAggregates(final int[] kinds, TimeRange range, final Interval interval, Executor executor) {
+        DataReadRequest.Builder builder = new DataReadRequest.Builder();
+        for (int kind : kinds) {
+            addAggregateToReadRequest(builder, kind);
+        }
+        DataReadRequest readRequest = interval.addBucketing(builder)
+                .setTimeRange(range.start, range.end, TimeUnit.MILLISECONDS)
+                .build();
+
+        return fitClients.getHistoryClient()
+                .readData(readRequest)
+                .continueWith(executor, new Continuation<DataReadResponse, SparseArray<List<Sample>>>() {
+                    @Override
+                    public SparseArray<List<Sample>> then(@NonNull Task<DataReadResponse> task) throws Exception {
+                        DataReadResponse dataReadResponse = task.getResult(Exception.class);
+                        SparseArray<List<Sample>> samples = new SparseArray<>();
+                        for (int kind : kinds) {
+                            samples.put(kind, new ArrayList<Sample>());
+                        }
+                        for (Bucket bucket : dataReadResponse.getBuckets()) {
+                            final String label = getBucketLabel(bucket, interval);
+                            final String sessionId = interval.mode == Interval.SESSION && bucket.getSession() != null
+                                    ? bucket.getSession().getIdentifier() : null;
+                            for (int kind : kinds) {
+                                processDataSet(kind, bucket.getDataSet(getAggregateDataType(kind)), label, sessionId, samples.get(kind));
+                            }
+                        }
+                        return samples;
+                    }
+                });
+    }
+
+    @Override
+    public Task<List<Sample>> readRaw(final int kind, TimeRange range, int limit, Executor executor) {
+        final DataType dataType = getRawDataType(kind);
+        DataReadRequest readRequest = new DataReadRequest.Builder()
+                .read(dataType)
+                .setTimeRange(range.start, range.end, TimeUnit.MILLISECONDS)
+                .setLimit(limit)
+                .build();
+
+        return fitClients.getHistoryClient()
+                .readData(readRequest)
+                .continueWith(executor, new Continuation<DataReadResponse, List<Sample>>() {
+                    @Override
+                    public List<Sample> then(@NonNull Task<DataReadResponse> task) throws Exception {
+                        List<DataPoint> points = task.getResult(Exception.class).getDataSet(dataType).getDataPoints();
+                        List<Sample> samples = new ArrayList<>(points.size());
+                        for (DataPoint dp : points) {
+                            final long start = dp.getStartTime(TimeUnit.MILLISECONDS);
+                            final long end = dp.getEndTime(TimeUnit.MILLISECONDS);
+                            if (kind == ACTIVITY) {
+                                samples.add(new Sample(start, end, 0, dp.getValue(Field.FIELD_ACTIVITY).asActivity()));
+                            } else {
+                                samples.add(new Sample(start, end, getRawQuantity(kind, dp)));
+                            }
+                        }
+                        return samples;
+                    }
+                });
+    }
+
+    @Override
+    public Task<List<SessionInfo>> readSessions(TimeRange range, Executor executor) {
+        SessionReadRequest request = new SessionReadRequest.Builder()
+                .setTimeInterval(range.start, range.end, TimeUnit.MILLISECONDS)
+                .readSessionsFromAllApps()
+                .build();
+
+        return fitClients.getSessionsClient()
+                .readSession(request)
+                .continueWith(executor, new Continuation<SessionReadResponse, List<SessionInfo>>() {
+                    @Override
+                    public List<SessionInfo> then(@NonNull Task<SessionReadResponse> task) throws Exception {
+                        List<Session> sessions = task.getResult(Exception.class).getSessions();
+                        List<SessionInfo> infos = new ArrayList<>(sessions.size());
+                        for (Session session : sessions) {
+                            infos.add(new SessionInfo(session.getIdentifier(), session.getName(),
+                                    session.getDescription(), session.getActivity(), session.getAppPackageName(),
+                                    session.getStartTime(TimeUnit.MILLISECONDS),
+                                    session.isActive() ? 0 : session.getEndTime(TimeUnit.MILLISECONDS)));
+                        }
+                        return infos;
+                    }
+                });
+    }
+
+    @Override
+    public Task<Void> insert(DataSet dataSet) {
+        return fitClients.getHistoryClient().insertData(dataSet);
+    }
+
+    @Override
+    public Task<Void> subscribe(DataType dataType) {
+        return fitClients.getRecordingClient().subscribe(dataType);
+    }
+
+    private static DataType getRawDataType(@Permission int kind) {
+        switch(kind){
+            case STEP:
+                return DataType.TYPE_STEP_COUNT_DELTA;
+            case DISTANCE:
+                return DataType.TYPE_DISTANCE_DELTA;
+            case CALORIES:
+                return DataType.TYPE_CALORIES_EXPENDED;
+            case ACTIVITY:
+                return DataType.TYPE_ACTIVITY_SEGMENT;
+            case HEART_RATE:
+                return DataType.TYPE_HEART_RATE_BPM;
+            case WEIGHT:
+                return DataType.TYPE_WEIGHT;
+            default:
+                throw new IllegalArgumentException("Unsupported sample kind " + kind);
+        }
+    }
+
+    private static double getRawQuantity(@Permission int kind, DataPoint dp) {
+        switch(kind){
+            case STEP:
+                return dp.getValue(Field.FIELD_STEPS).asInt();
+            case DISTANCE:
+                return dp.getValue(Field.FIELD_DISTANCE).asFloat();
+            case CALORIES:
+                return dp.getValue(Field.FIELD_CALORIES).asFloat();
+            case HEART_RATE:
+                return dp.getValue(Field.FIELD_BPM).asFloat();
+            case WEIGHT:
+                return dp.getValue(Field.FIELD_WEIGHT).asFloat();
+            default:
+                throw new IllegalArgumentException("Unsupported sample kind " + kind);
+        }
+    }
+
+    private static DataReadRequest.Builder addAggregateToReadRequest(final DataReadRequest.Builder readRequest, @Permission int kind) {
+        switch(kind){
+            case STEP:
+                DataSource ESTIMATED_STEP_DELTAS = new DataSource.Builder()
+                        .setDataType(DataType.TYPE_STEP_COUNT_DELTA)
+                        .setType(DataSource.TYPE_DERIVED)
+                        .setStreamName("estimated_steps")
+                        .setAppPackageName("com.google.android.gms")
+                        .build();
+                return readRequest.aggregate(ESTIMATED_STEP_DELTAS, DataType.AGGREGATE_STEP_COUNT_DELTA);
+            case DISTANCE:
+                return readRequest.aggregate(DataType.TYPE_DISTANCE_DELTA, DataType.AGGREGATE_DISTANCE_DELTA);
+            case CALORIES:
+                return readRequest.aggregate(DataType.TYPE_CALORIES_EXPENDED, DataType.AGGREGATE_CALORIES_EXPENDED);
+            case HEART_RATE:
+                return readRequest.aggregate(DataType.TYPE_HEART_RATE_BPM, DataType.AGGREGATE_HEART_RATE_SUMMARY);
+            default:
+                throw new IllegalArgumentException("Unsupported history kind " + kind);
+        }
+    }
+
+    private static DataType getAggregateDataType(@Permission int kind) {
+        switch(kind){
+            case STEP:
+                return DataType.AGGREGATE_STEP_COUNT_DELTA;
+            case DISTANCE:
+                return DataType.AGGREGATE_DISTANCE_DELTA;
+            case CALORIES:
+                return DataType.AGGREGATE_CALORIES_EXPENDED;
+            case HEART_RATE:
+                return DataType.AGGREGATE_HEART_RATE_SUMMARY;
+            default:
+                throw new IllegalArgumentException("Unsupported history kind " + kind);
+        }
+    }
+
+    private static String getBucketLabel(Bucket bucket, Interval interval) {
+        switch(interval.mode){
+            case Interval.ACTIVITY_SEGMENT:
+                return bucket.getActivity();
+            case Interval.SESSION:
+                return bucket.getSession() != null ? bucket.getSession().getName() : null;
+            default:
+                return null;
+        }
+    }
+
+    private static void processDataSet(@Permission int kind, DataSet dataSet, String label, String sessionId, List<Sample> samples) {
+        if (dataSet == null) {
+            return;
+        }
+        for (DataPoint dp : dataSet.getDataPoints()) {
+            final long start = dp.getStartTime(TimeUnit.MILLISECONDS);
+            final long end = dp.getEndTime(TimeUnit.MILLISECONDS);
+            final double quantity;
+            switch(kind){
+                case STEP:
+                    quantity = dp.getValue(Field.FIELD_STEPS).asInt();
+                    break;
+                case DISTANCE:
+                    quantity = dp.getValue(Field.FIELD_DISTANCE).asFloat();
+                    break;
+                case CALORIES:
+                    quantity = dp.getValue(Field.FIELD_CALORIES).asFloat();
+                    break;
+                case HEART_RATE:
+                    samples.add(new Sample(start, end,
+                            dp.getValue(Field.FIELD_AVERAGE).asFloat(),
+                            dp.getValue(Field.FIELD_MIN).asFloat(),
+                            dp.getValue(Field.FIELD_MAX).asFloat(),
+                            label, sessionId));
+                    continue;
+                default:
+                    continue;
+            }
+            samples.add(new Sample(start, end, quantity, quantity, quantity, label, sessionId));
+        }
+    }
+}
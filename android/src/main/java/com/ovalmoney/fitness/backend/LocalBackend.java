@@ -0,0 +1,330 @@
+package com.ovalmoney.fitness.backend;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.ovalmoney.fitness.aggregation.RollUp;
+import com.ovalmoney.fitness.aggregation.SampleSeries;
+import com.ovalmoney.fitness.manager.Interval;
+import com.ovalmoney.fitness.manager.Sample;
+import com.ovalmoney.fitness.manager.SessionInfo;
+import com.ovalmoney.fitness.manager.TimeRange;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.ovalmoney.fitness.permission.Permission.ACTIVITY;
+import static com.ovalmoney.fitness.permission.Permission.CALORIES;
+import static com.ovalmoney.fitness.permission.Permission.DISTANCE;
+import static com.ovalmoney.fitness.permission.Permission.HEART_RATE;
+import static com.ovalmoney.fitness.permission.Permission.STEP;
+import static com.ovalmoney.fitness.permission.Permission.WEIGHT;
+
+/**
+ * Backend answering from memory, with no device or account: it either replays recorded
+ * samples, rolled up to the requested buckets, or generates synthetic ones, which are stable
+ * for a given seed so repeated reads agree. Every call completes after a configurable latency
+ * plus jitter and fails at a configurable rate. There are no sessions, and writes are accepted
+ * and dropped.
+ */
+public class LocalBackend implements FitBackend {
+
+    private final static long HOUR = TimeUnit.HOURS.toMillis(1);
+    private final static long RAW_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+    private final static long DAY = TimeUnit.DAYS.toMillis(1);
+    private final static double EMPTY_BUCKET_RATE = 0.1;
+
+    private final static Comparator<Sample> SAMPLE_ORDER = new Comparator<Sample>() {
+        @Override
+        public int compare(Sample a, Sample b) {
+            return a.startDate < b.startDate ? -1 : (a.startDate == b.startDate ? 0 : 1);
+        }
+    };
+
+    private final static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "LocalFitBackend");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final SparseArray<List<Sample>> recorded;
+    private final long latency;
+    private final long jitter;
+    private final double errorRate;
+    private final long seed;
+    private final Random random;
+
+    /**
+     * @param recorded samples to replay keyed by kind, each sorted by start, or null to
+     *                 generate synthetic data
+     */
+    public LocalBackend(SparseArray<List<Sample>> recorded, long latency, long jitter, double errorRate, long seed) {
+        this.recorded = recorded;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.errorRate = errorRate;
+        this.seed = seed;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Read a recording: an object keyed by kind, each holding an array of
+     * {@code { startDate, endDate, quantity, min, max, label }} with dates in epoch milliseconds.
+     * {@code min} and {@code max} default to {@code quantity}, {@code label} is optional.
+     */
+    public static SparseArray<List<Sample>> readRecording(File file) throws IOException, JSONException {
+        InputStream input = new FileInputStream(file);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+
+        JSONObject json = new JSONObject(content.toString("UTF-8"));
+        SparseArray<List<Sample>> recorded = new SparseArray<>();
+        Iterator<String> kinds = json.keys();
+        while (kinds.hasNext()) {
+            final String kind = kinds.next();
+            JSONArray items = json.getJSONArray(kind);
+            List<Sample> samples = new ArrayList<>(items.length());
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                final double quantity = item.getDouble("quantity");
+                samples.add(new Sample(item.getLong("startDate"), item.getLong("endDate"), quantity,
+                        item.optDouble("min", quantity), item.optDouble("max", quantity),
+                        item.has("label") ? item.getString("label") : null));
+            }
+            Collections.sort(samples, SAMPLE_ORDER);
+            recorded.put(Integer.parseInt(kind), samples);
+        }
+        return recorded;
+    }
+
+    @Override
+    public Task<SparseArray<List<Sample>>> readAggregates(final int[] kinds, final TimeRange range, final Interval interval, Executor executor) {
+        for (int kind : kinds) {
+            checkKind(kind);
+        }
+        return complete(new Result<SparseArray<List<Sample>>>() {
+            @Override
+            public SparseArray<List<Sample>> get() {
+                SparseArray<List<Sample>> samples = new SparseArray<>();
+                for (int kind : kinds) {
+                    samples.put(kind, recorded != null
+                            ? replay(kind, range, interval)
+                            : generate(kind, range, interval));
+                }
+                return samples;
+            }
+        });
+    }
+
+    /**
+     * Recorded samples as they are, or synthetic points every 15 minutes and one weight a day.
+     * There are no synthetic activity segments.
+     */
+    @Override
+    public Task<List<Sample>> readRaw(final int kind, final TimeRange range, final int limit, Executor executor) {
+        if (kind != ACTIVITY && kind != WEIGHT) {
+            checkKind(kind);
+        }
+        return complete(new Result<List<Sample>>() {
+            @Override
+            public List<Sample> get() {
+                List<Sample> samples;
+                if (recorded != null) {
+                    samples = inRange(kind, range);
+                } else if (kind == WEIGHT) {
+                    samples = generateWeights(range);
+                } else if (kind == ACTIVITY) {
+                    samples = new ArrayList<>();
+                } else {
+                    samples = generate(kind, range, RAW_INTERVAL);
+                }
+                return samples.size() > limit ? new ArrayList<>(samples.subList(samples.size() - limit, samples.size())) : samples;
+            }
+        });
+    }
+
+    @Override
+    public Task<List<SessionInfo>> readSessions(TimeRange range, Executor executor) {
+        return complete(new Result<List<SessionInfo>>() {
+            @Override
+            public List<SessionInfo> get() {
+                return new ArrayList<>();
+            }
+        });
+    }
+
+    @Override
+    public Task<Void> insert(DataSet dataSet) {
+        return complete(new Result<Void>() {
+            @Override
+            public Void get() {
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Task<Void> subscribe(DataType dataType) {
+        return complete(new Result<Void>() {
+            @Override
+            public Void get() {
+                return null;
+            }
+        });
+    }
+
+    private interface Result<T> {
+        T get();
+    }
+
+    private <T> Task<T> complete(final Result<T> result) {
+        final TaskCompletionSource<T> source = new TaskCompletionSource<>();
+        final long delay;
+        final boolean fail;
+        synchronized (random) {
+            delay = Math.max(0, latency + (jitter > 0 ? (long) ((random.nextDouble() * 2 - 1) * jitter) : 0));
+            fail = random.nextDouble() < errorRate;
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (fail) {
+                    source.setException(new IOException("Injected backend failure"));
+                    return;
+                }
+                try {
+                    source.setResult(result.get());
+                } catch (RuntimeException e) {
+                    source.setException(e);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return source.getTask();
+    }
+
+    private static void checkKind(int kind) {
+        switch(kind){
+            case STEP:
+            case DISTANCE:
+            case CALORIES:
+            case HEART_RATE:
+                return;
+            default:
+                throw new IllegalArgumentException("Unsupported history kind " + kind);
+        }
+    }
+
+    /**
+     * Recorded samples starting within the range, rolled up to the requested buckets. Activity
+     * and session buckets get the recorded samples as they are.
+     */
+    private List<Sample> replay(int kind, TimeRange range, Interval interval) {
+        final List<Sample> inRange = inRange(kind, range);
+        if (!interval.isTime()) {
+            return inRange;
+        }
+        final int mode = kind == HEART_RATE ? RollUp.AVERAGE : RollUp.SUM;
+        return RollUp.rollUp(SampleSeries.fromSamples(inRange), range.start, range.end, interval.millis, mode).toSamples();
+    }
+
+    private List<Sample> inRange(int kind, TimeRange range) {
+        List<Sample> inRange = new ArrayList<>();
+        List<Sample> kindSamples = recorded.get(kind);
+        if (kindSamples != null) {
+            for (Sample sample : kindSamples) {
+                if (sample.startDate >= range.start && sample.startDate < range.end) {
+                    inRange.add(sample);
+                }
+            }
+        }
+        return inRange;
+    }
+
+    /**
+     * One weight a day at midnight UTC, drifting slowly around 70 kilograms.
+     */
+    private List<Sample> generateWeights(TimeRange range) {
+        List<Sample> samples = new ArrayList<>();
+        for (long day = (range.start + DAY - 1) / DAY * DAY; day < range.end; day += DAY) {
+            final Random dayRandom = new Random(seed * 31 + WEIGHT * 1000003L + day);
+            final double kilograms = 70 + 3 * Math.sin(day / (30.0 * DAY)) + dayRandom.nextDouble() - 0.5;
+            samples.add(new Sample(day, day, kilograms));
+        }
+        return samples;
+    }
+
+    private List<Sample> generate(int kind, TimeRange range, Interval interval) {
+        if (!interval.isTime()) {
+            return new ArrayList<>();
+        }
+        return generate(kind, range, interval.millis);
+    }
+
+    /**
+     * One sample per bucket, derived from the seed and the bucket start only, with some
+     * buckets left empty as Google Fit does. There is no synthetic activity or session data.
+     */
+    private List<Sample> generate(int kind, TimeRange range, long bucketSize) {
+        List<Sample> samples = new ArrayList<>();
+        for (long bucketStart = range.start; bucketStart < range.end; bucketStart += bucketSize) {
+            final long bucketEnd = Math.min(bucketStart + bucketSize, range.end);
+            final Random bucketRandom = new Random(seed * 31 + kind * 1000003L + bucketStart);
+            if (bucketRandom.nextDouble() < EMPTY_BUCKET_RATE) {
+                continue;
+            }
+            final double hours = (double) (bucketEnd - bucketStart) / HOUR;
+            switch(kind){
+                case STEP:
+                    samples.add(new Sample(bucketStart, bucketEnd, Math.round(hours * (200 + bucketRandom.nextInt(600)))));
+                    break;
+                case DISTANCE:
+                    samples.add(new Sample(bucketStart, bucketEnd, hours * (150 + bucketRandom.nextDouble() * 450)));
+                    break;
+                case CALORIES:
+                    samples.add(new Sample(bucketStart, bucketEnd, hours * (70 + bucketRandom.nextDouble() * 60)));
+                    break;
+                case HEART_RATE:
+                    final double average = 60 + bucketRandom.nextDouble() * 40;
+                    samples.add(new Sample(bucketStart, bucketEnd, average,
+                            average - bucketRandom.nextDouble() * 15,
+                            average + bucketRandom.nextDouble() * 40));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,143 @@
+package com.ovalmoney.fitness.backend;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.ovalmoney.fitness.manager.Interval;
+import com.ovalmoney.fitness.manager.Sample;
+import com.ovalmoney.fitness.manager.SessionInfo;
+import com.ovalmoney.fitness.manager.TimeRange;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Backend passing every call through to another one, usually Google Fit, while recording the
+ * time buckets it returns to a file {@link LocalBackend#readRecording} can replay. Only the
+ * finest bucket size read so far is kept for each kind: a finer read starts that kind over, a
+ * coarser one isn't recorded. The file is rewritten after each read, off the calling thread.
+ */
+public class RecordingBackend implements FitBackend {
+
+    private final static Executor writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FitRecording");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final FitBackend backend;
+    private final File file;
+    private final SparseArray<TreeMap<Long, Sample>> recorded = new SparseArray<>();
+    private final SparseArray<Long> bucketSizes = new SparseArray<>();
+
+    public RecordingBackend(FitBackend backend, File file) {
+        this.backend = backend;
+        this.file = file;
+    }
+
+    @Override
+    public Task<SparseArray<List<Sample>>> readAggregates(final int[] kinds, TimeRange range, final Interval interval, Executor executor) {
+        Task<SparseArray<List<Sample>>> task = backend.readAggregates(kinds, range, interval, executor);
+        if (!interval.isTime()) {
+            return task;
+        }
+        task.addOnSuccessListener(writer, new OnSuccessListener<SparseArray<List<Sample>>>() {
+            @Override
+            public void onSuccess(SparseArray<List<Sample>> samples) {
+                for (int kind : kinds) {
+                    record(kind, interval.millis, samples.get(kind));
+                }
+                write();
+            }
+        });
+        return task;
+    }
+
+    @Override
+    public Task<List<Sample>> readRaw(int kind, TimeRange range, int limit, Executor executor) {
+        return backend.readRaw(kind, range, limit, executor);
+    }
+
+    @Override
+    public Task<List<SessionInfo>> readSessions(TimeRange range, Executor executor) {
+        return backend.readSessions(range, executor);
+    }
+
+    @Override
+    public Task<Void> insert(DataSet dataSet) {
+        return backend.insert(dataSet);
+    }
+
+    @Override
+    public Task<Void> subscribe(DataType dataType) {
+        return backend.subscribe(dataType);
+    }
+
+    private void record(int kind, long bucketSize, List<Sample> samples) {
+        if (samples == null) {
+            return;
+        }
+        final Long recordedSize = bucketSizes.get(kind);
+        if (recordedSize != null && recordedSize < bucketSize) {
+            return;
+        }
+        TreeMap<Long, Sample> kindSamples = recorded.get(kind);
+        if (kindSamples == null || recordedSize == null || recordedSize > bucketSize) {
+            kindSamples = new TreeMap<>();
+            recorded.put(kind, kindSamples);
+            bucketSizes.put(kind, bucketSize);
+        }
+        for (Sample sample : samples) {
+            kindSamples.put(sample.startDate, sample);
+        }
+    }
+
+    private void write() {
+        OutputStream output = null;
+        try {
+            JSONObject json = new JSONObject();
+            for (int i = 0; i < recorded.size(); i++) {
+                JSONArray items = new JSONArray();
+                for (Sample sample : recorded.valueAt(i).values()) {
+                    items.put(new JSONObject()
+                            .put("startDate", sample.startDate)
+                            .put("endDate", sample.endDate)
+                            .put("quantity", sample.quantity)
+                            .put("min", sample.min)
+                            .put("max", sample.max));
+                }
+                json.put(String.valueOf(recorded.keyAt(i)), items);
+            }
+            output = new FileOutputStream(file);
+            output.write(json.toString().getBytes("UTF-8"));
+        } catch (IOException | JSONException e) {
+            Log.e(getClass().getName(), "Could not write recording " + file, e);
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.e(getClass().getName(), "Could not close recording " + file, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.ovalmoney.fitness.cache;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.ovalmoney.fitness.manager.Sample;
+import com.ovalmoney.fitness.manager.TimeRange;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-device store of aggregated history buckets, keyed by metric, bucket size and bucket start.
+ * Only full buckets which are closed (ended before the request was issued, plus a grace period
+ * for late data) are stored, so open ranges such as today are always read again from Google Fit.
+ * The store holds the data of a single account, it is wiped when another account signs in.
+ */
+public class BucketCache extends SQLiteOpenHelper {
+
+    private final static String DATABASE_NAME = "rn_fitness_cache.db";
+    private final static int DATABASE_VERSION = 1;
+
+    private final static String TABLE_BUCKETS = "buckets";
+    private final static String COLUMN_METRIC = "metric";
+    private final static String COLUMN_BUCKET_SIZE = "bucket_size";
+    private final static String COLUMN_BUCKET_START = "bucket_start";
+    private final static String COLUMN_START_DATE = "start_date";
+    private final static String COLUMN_END_DATE = "end_date";
+    private final static String COLUMN_QUANTITY = "quantity";
+    private final static String COLUMN_MIN = "min";
+    private final static String COLUMN_MAX = "max";
+    private final static String COLUMN_EMPTY = "empty";
+    private final static String COLUMN_CACHED_AT = "cached_at";
+
+    private final static int DEFAULT_MAX_ENTRIES = 20000;
+    private final static long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+    // Wearables often sync hours after the fact, a bucket is only final once they had a day to.
+    private final static long DEFAULT_CLOSED_BUCKET_GRACE = TimeUnit.HOURS.toMillis(24);
+
+    private static BucketCache instance;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxAge = DEFAULT_MAX_AGE;
+    private volatile long closedBucketGrace = DEFAULT_CLOSED_BUCKET_GRACE;
+
+    public static class Lookup {
+        public final List<Sample> samples;
+        public final List<TimeRange> gaps;
+
+        Lookup(List<Sample> samples, List<TimeRange> gaps) {
+            this.samples = samples;
+            this.gaps = gaps;
+        }
+    }
+
+    public static synchronized BucketCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new BucketCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private BucketCache(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BUCKETS + " ("
+                + COLUMN_METRIC + " INTEGER NOT NULL, "
+                + COLUMN_BUCKET_SIZE + " INTEGER NOT NULL, "
+                + COLUMN_BUCKET_START + " INTEGER NOT NULL, "
+                + COLUMN_START_DATE + " INTEGER NOT NULL, "
+                + COLUMN_END_DATE + " INTEGER NOT NULL, "
+                + COLUMN_QUANTITY + " REAL NOT NULL, "
+                + COLUMN_MIN + " REAL NOT NULL, "
+                + COLUMN_MAX + " REAL NOT NULL, "
+                + COLUMN_EMPTY + " INTEGER NOT NULL, "
+                + COLUMN_CACHED_AT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_METRIC + ", " + COLUMN_BUCKET_SIZE + ", " + COLUMN_BUCKET_START + "))");
+        db.execSQL("CREATE INDEX " + TABLE_BUCKETS + "_" + COLUMN_CACHED_AT
+                + " ON " + TABLE_BUCKETS + " (" + COLUMN_CACHED_AT + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BUCKETS);
+        onCreate(db);
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public synchronized void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * How long after its end a bucket may still receive late data and must be read again.
+     */
+    public void setClosedBucketGrace(long closedBucketGrace) {
+        this.closedBucketGrace = closedBucketGrace;
+    }
+
+    private boolean isCacheable(long bucketStart, long bucketSize, long end, long now) {
+        final long bucketEnd = bucketStart + bucketSize;
+        return bucketEnd <= end && bucketEnd + closedBucketGrace <= now;
+    }
+
+    /**
+     * Split the requested range into the buckets already stored and the ranges still to be read.
+     * Gaps keep the alignment of the requested range, so reading them produces the same buckets.
+     */
+    public Lookup lookup(int metric, long start, long end, long bucketSize, long now) {
+        final Map<Long, Sample> stored = new HashMap<>();
+        final Set<Long> empty = new HashSet<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_BUCKETS,
+                new String[]{ COLUMN_BUCKET_START, COLUMN_START_DATE, COLUMN_END_DATE,
+                        COLUMN_QUANTITY, COLUMN_MIN, COLUMN_MAX, COLUMN_EMPTY },
+                COLUMN_METRIC + " = ? AND " + COLUMN_BUCKET_SIZE + " = ? AND "
+                        + COLUMN_BUCKET_START + " >= ? AND " + COLUMN_BUCKET_START + " < ?",
+                new String[]{ String.valueOf(metric), String.valueOf(bucketSize), String.valueOf(start), String.valueOf(end) },
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                final long bucketStart = cursor.getLong(0);
+                if (cursor.getInt(6) != 0) {
+                    empty.add(bucketStart);
+                } else {
+                    stored.put(bucketStart, new Sample(cursor.getLong(1), cursor.getLong(2),
+                            cursor.getDouble(3), cursor.getDouble(4), cursor.getDouble(5)));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        final List<Sample> samples = new ArrayList<>();
+        final List<TimeRange> gaps = new ArrayList<>();
+        long gapStart = -1;
+        for (long bucketStart = start; bucketStart < end; bucketStart += bucketSize) {
+            final boolean hit = isCacheable(bucketStart, bucketSize, end, now)
+                    && (stored.containsKey(bucketStart) || empty.contains(bucketStart));
+            if (hit) {
+                if (gapStart >= 0) {
+                    gaps.add(new TimeRange(gapStart, bucketStart));
+                    gapStart = -1;
+                }
+                Sample sample = stored.get(bucketStart);
+                if (sample != null) {
+                    samples.add(sample);
+                }
+            } else if (gapStart < 0) {
+                gapStart = bucketStart;
+            }
+        }
+        if (gapStart >= 0) {
+            gaps.add(new TimeRange(gapStart, end));
+        }
+        return new Lookup(samples, gaps);
+    }
+
+    /**
+     * Store the closed buckets of a range just read from Google Fit, including the empty ones.
+     */
+    public synchronized void store(int metric, TimeRange range, long bucketSize, long now, List<Sample> samples) {
+        final Map<Long, Sample> byBucket = new HashMap<>();
+        for (Sample sample : samples) {
+            final long index = (sample.startDate - range.start) / bucketSize;
+            byBucket.put(range.start + index * bucketSize, sample);
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (long bucketStart = range.start; bucketStart < range.end; bucketStart += bucketSize) {
+                if (!isCacheable(bucketStart, bucketSize, range.end, now)) {
+                    continue;
+                }
+                Sample sample = byBucket.get(bucketStart);
+                values.clear();
+                values.put(COLUMN_METRIC, metric);
+                values.put(COLUMN_BUCKET_SIZE, bucketSize);
+                values.put(COLUMN_BUCKET_START, bucketStart);
+                values.put(COLUMN_START_DATE, sample != null ? sample.startDate : bucketStart);
+                values.put(COLUMN_END_DATE, sample != null ? sample.endDate : bucketStart + bucketSize);
+                values.put(COLUMN_QUANTITY, sample != null ? sample.quantity : 0);
+                values.put(COLUMN_MIN, sample != null ? sample.min : 0);
+                values.put(COLUMN_MAX, sample != null ? sample.max : 0);
+                values.put(COLUMN_EMPTY, sample != null ? 0 : 1);
+                values.put(COLUMN_CACHED_AT, now);
+                db.insertWithOnConflict(TABLE_BUCKETS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            evict(db, now);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void evict(SQLiteDatabase db, long now) {
+        db.delete(TABLE_BUCKETS, COLUMN_CACHED_AT + " < ?", new String[]{ String.valueOf(now - maxAge) });
+        db.execSQL("DELETE FROM " + TABLE_BUCKETS + " WHERE rowid IN (SELECT rowid FROM " + TABLE_BUCKETS
+                + " ORDER BY " + COLUMN_CACHED_AT + " DESC LIMIT -1 OFFSET " + maxEntries + ")");
+    }
+
+    public synchronized void invalidate() {
+        getWritableDatabase().delete(TABLE_BUCKETS, null, null);
+    }
+
+    public synchronized void invalidate(int metric) {
+        getWritableDatabase().delete(TABLE_BUCKETS, COLUMN_METRIC + " = ?", new String[]{ String.valueOf(metric) });
+    }
+}
@@ -0,0 +1,65 @@
+package com.ovalmoney.fitness.cache;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Every option passed to {@code configure}, merged across calls, so the background job reads
+ * with the app's settings even when it runs without the app.
+ */
+public class ConfigStore {
+
+    private final static String TAG = "ConfigStore";
+    private final static String PREFERENCES_NAME = "rn_fitness_config";
+    private final static String KEY_OPTIONS = "options";
+
+    private static ConfigStore instance;
+
+    private final SharedPreferences preferences;
+
+    public static synchronized ConfigStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ConfigStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ConfigStore(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    public synchronized void merge(Map<String, Object> options) {
+        JSONObject merged = load();
+        JSONObject added = new JSONObject(options);
+        try {
+            Iterator<String> keys = added.keys();
+            while (keys.hasNext()) {
+                final String key = keys.next();
+                merged.put(key, added.get(key));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unstorable options", e);
+            return;
+        }
+        preferences.edit().putString(KEY_OPTIONS, merged.toString()).apply();
+    }
+
+    /**
+     * The stored options, empty if {@code configure} was never called.
+     */
+    public synchronized JSONObject load() {
+        try {
+            return new JSONObject(preferences.getString(KEY_OPTIONS, "{}"));
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unreadable options", e);
+            return new JSONObject();
+        }
+    }
+}
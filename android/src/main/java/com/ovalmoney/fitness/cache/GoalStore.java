@@ -0,0 +1,108 @@
+package com.ovalmoney.fitness.cache;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.ovalmoney.fitness.goal.Goal;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Goal definitions and the day each daily goal was last reached, so goals keep being evaluated
+ * and don't fire twice in a day across restarts.
+ */
+public class GoalStore {
+
+    private final static String TAG = "GoalStore";
+    private final static String PREFERENCES_NAME = "rn_fitness_goals";
+    private final static String KEY_GOALS = "goals";
+    private final static String KEY_REACHED = "reached";
+
+    private static GoalStore instance;
+
+    private final SharedPreferences preferences;
+
+    public static synchronized GoalStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new GoalStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private GoalStore(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    public List<Goal> loadGoals() {
+        List<Goal> goals = new ArrayList<>();
+        try {
+            JSONArray array = new JSONArray(preferences.getString(KEY_GOALS, "[]"));
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject goal = array.getJSONObject(i);
+                if (goal.getInt("type") == Goal.HEART_RATE_ABOVE) {
+                    goals.add(Goal.heartRateAbove(goal.getString("id"), goal.getDouble("threshold"), goal.getLong("sustained")));
+                } else {
+                    goals.add(Goal.dailyTotal(goal.getString("id"), goal.getInt("kind"), goal.getDouble("threshold")));
+                }
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unreadable goals", e);
+            goals.clear();
+        }
+        return goals;
+    }
+
+    public Map<String, Long> loadReachedDays() {
+        Map<String, Long> days = new HashMap<>();
+        try {
+            JSONObject reached = new JSONObject(preferences.getString(KEY_REACHED, "{}"));
+            Iterator<String> ids = reached.keys();
+            while (ids.hasNext()) {
+                final String id = ids.next();
+                days.put(id, reached.getLong(id));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unreadable goal state", e);
+            days.clear();
+        }
+        return days;
+    }
+
+    public void save(List<Goal> goals, Map<String, Long> reachedDays) {
+        JSONArray array = new JSONArray();
+        JSONObject reached = new JSONObject();
+        try {
+            for (Goal goal : goals) {
+                JSONObject json = new JSONObject();
+                json.put("id", goal.id);
+                json.put("type", goal.type);
+                json.put("kind", goal.kind);
+                json.put("threshold", goal.threshold);
+                json.put("sustained", goal.sustained);
+                array.put(json);
+            }
+            for (Map.Entry<String, Long> day : reachedDays.entrySet()) {
+                reached.put(day.getKey(), (long) day.getValue());
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Goals can't be stored", e);
+        }
+        preferences.edit()
+                .putString(KEY_GOALS, array.toString())
+                .putString(KEY_REACHED, reached.toString())
+                .apply();
+    }
+
+    public void clear() {
+        preferences.edit().clear().apply();
+    }
+}
@@ -0,0 +1,59 @@
+package com.ovalmoney.fitness.cache;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The latest summary read by the background pre-aggregation job, open buckets included, kept
+ * as JSON so it can be read before anything else is initialized.
+ */
+public class PreAggregationStore {
+
+    private final static String TAG = "PreAggregationStore";
+    private final static String PREFERENCES_NAME = "rn_fitness_pre_aggregation";
+    private final static String KEY_SNAPSHOT = "snapshot";
+
+    private static PreAggregationStore instance;
+
+    private final SharedPreferences preferences;
+
+    public static synchronized PreAggregationStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new PreAggregationStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PreAggregationStore(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    public void save(JSONObject snapshot) {
+        preferences.edit().putString(KEY_SNAPSHOT, snapshot.toString()).apply();
+    }
+
+    /**
+     * The stored snapshot, or null if the job never completed.
+     */
+    public JSONObject load() {
+        final String snapshot = preferences.getString(KEY_SNAPSHOT, null);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return new JSONObject(snapshot);
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unreadable snapshot", e);
+            clear();
+            return null;
+        }
+    }
+
+    public void clear() {
+        preferences.edit().remove(KEY_SNAPSHOT).apply();
+    }
+}
@@ -0,0 +1,168 @@
+package com.ovalmoney.fitness.cache;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.ovalmoney.fitness.manager.Sample;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Watermarks of incremental syncs, per caller, metric and bucket size, together with the buckets
+ * last returned after each watermark's late-data window, so a sync can tell which buckets
+ * changed. Callers syncing independently never move each other's watermark.
+ */
+public class SyncStore extends SQLiteOpenHelper {
+
+    private final static String DATABASE_NAME = "rn_fitness_sync.db";
+    private final static int DATABASE_VERSION = 2;
+
+    private final static String TABLE_WATERMARKS = "watermarks";
+    private final static String TABLE_SYNCED = "synced_buckets";
+    private final static String COLUMN_SYNC_ID = "sync_id";
+    private final static String COLUMN_METRIC = "metric";
+    private final static String COLUMN_BUCKET_SIZE = "bucket_size";
+    private final static String COLUMN_WATERMARK = "watermark";
+    private final static String COLUMN_BUCKET_START = "bucket_start";
+    private final static String COLUMN_START_DATE = "start_date";
+    private final static String COLUMN_END_DATE = "end_date";
+    private final static String COLUMN_QUANTITY = "quantity";
+    private final static String COLUMN_MIN = "min";
+    private final static String COLUMN_MAX = "max";
+
+    private final static long NO_WATERMARK = -1;
+
+    private static SyncStore instance;
+
+    public static synchronized SyncStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new SyncStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SyncStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_WATERMARKS + " ("
+                + COLUMN_SYNC_ID + " TEXT NOT NULL, "
+                + COLUMN_METRIC + " INTEGER NOT NULL, "
+                + COLUMN_BUCKET_SIZE + " INTEGER NOT NULL, "
+                + COLUMN_WATERMARK + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_SYNC_ID + ", " + COLUMN_METRIC + ", " + COLUMN_BUCKET_SIZE + "))");
+        db.execSQL("CREATE TABLE " + TABLE_SYNCED + " ("
+                + COLUMN_SYNC_ID + " TEXT NOT NULL, "
+                + COLUMN_METRIC + " INTEGER NOT NULL, "
+                + COLUMN_BUCKET_SIZE + " INTEGER NOT NULL, "
+                + COLUMN_BUCKET_START + " INTEGER NOT NULL, "
+                + COLUMN_START_DATE + " INTEGER NOT NULL, "
+                + COLUMN_END_DATE + " INTEGER NOT NULL, "
+                + COLUMN_QUANTITY + " REAL NOT NULL, "
+                + COLUMN_MIN + " REAL NOT NULL, "
+                + COLUMN_MAX + " REAL NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_SYNC_ID + ", " + COLUMN_METRIC + ", " + COLUMN_BUCKET_SIZE + ", " + COLUMN_BUCKET_START + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_WATERMARKS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNCED);
+        onCreate(db);
+    }
+
+    public synchronized void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_WATERMARKS, null, null);
+            db.delete(TABLE_SYNCED, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public synchronized long getWatermark(String syncId, int metric, long bucketSize) {
+        Cursor cursor = getReadableDatabase().query(TABLE_WATERMARKS, new String[]{ COLUMN_WATERMARK },
+                COLUMN_SYNC_ID + " = ? AND " + COLUMN_METRIC + " = ? AND " + COLUMN_BUCKET_SIZE + " = ?",
+                new String[]{ syncId, String.valueOf(metric), String.valueOf(bucketSize) },
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : NO_WATERMARK;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Buckets returned by previous syncs starting at or after {@code from}, keyed by bucket start.
+     */
+    public synchronized Map<Long, Sample> getSynced(String syncId, int metric, long bucketSize, long from) {
+        Map<Long, Sample> synced = new HashMap<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_SYNCED,
+                new String[]{ COLUMN_BUCKET_START, COLUMN_START_DATE, COLUMN_END_DATE, COLUMN_QUANTITY, COLUMN_MIN, COLUMN_MAX },
+                COLUMN_SYNC_ID + " = ? AND " + COLUMN_METRIC + " = ? AND " + COLUMN_BUCKET_SIZE + " = ? AND " + COLUMN_BUCKET_START + " >= ?",
+                new String[]{ syncId, String.valueOf(metric), String.valueOf(bucketSize), String.valueOf(from) },
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                synced.put(cursor.getLong(0), new Sample(cursor.getLong(1), cursor.getLong(2),
+                        cursor.getDouble(3), cursor.getDouble(4), cursor.getDouble(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return synced;
+    }
+
+    /**
+     * Replace the synced buckets starting at or after {@code from} and move the watermark,
+     * forgetting buckets that can no longer be re-read.
+     */
+    public synchronized void commit(String syncId, int metric, long bucketSize, long from, Map<Long, Sample> buckets, long watermark, long keepFrom) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_SYNCED,
+                    COLUMN_SYNC_ID + " = ? AND " + COLUMN_METRIC + " = ? AND " + COLUMN_BUCKET_SIZE + " = ? AND ("
+                            + COLUMN_BUCKET_START + " >= ? OR " + COLUMN_BUCKET_START + " < ?)",
+                    new String[]{ syncId, String.valueOf(metric), String.valueOf(bucketSize), String.valueOf(from), String.valueOf(keepFrom) });
+
+            ContentValues values = new ContentValues();
+            for (Map.Entry<Long, Sample> bucket : buckets.entrySet()) {
+                if (bucket.getKey() < keepFrom) {
+                    continue;
+                }
+                Sample sample = bucket.getValue();
+                values.clear();
+                values.put(COLUMN_SYNC_ID, syncId);
+                values.put(COLUMN_METRIC, metric);
+                values.put(COLUMN_BUCKET_SIZE, bucketSize);
+                values.put(COLUMN_BUCKET_START, bucket.getKey());
+                values.put(COLUMN_START_DATE, sample.startDate);
+                values.put(COLUMN_END_DATE, sample.endDate);
+                values.put(COLUMN_QUANTITY, sample.quantity);
+                values.put(COLUMN_MIN, sample.min);
+                values.put(COLUMN_MAX, sample.max);
+                db.insertWithOnConflict(TABLE_SYNCED, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+
+            values.clear();
+            values.put(COLUMN_SYNC_ID, syncId);
+            values.put(COLUMN_METRIC, metric);
+            values.put(COLUMN_BUCKET_SIZE, bucketSize);
+            values.put(COLUMN_WATERMARK, watermark);
+            db.insertWithOnConflict(TABLE_WATERMARKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.ovalmoney.fitness.cache;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.ovalmoney.fitness.permission.Permission;
+
+/**
+ * Running totals of the current day per metric, each with the time it is accurate up to, kept
+ * in memory for synchronous reads and persisted so they are there again on the next launch.
+ * Totals of a previous day read as zero.
+ */
+public class TodayStore {
+
+    private final static String PREFERENCES_NAME = "rn_fitness_today";
+    private final static String KEY_DAY = "day";
+    private final static String KEY_QUANTITY = "quantity_";
+    private final static String KEY_AS_OF = "as_of_";
+
+    private final static int KINDS = Permission.WEIGHT + 1;
+
+    private static TodayStore instance;
+
+    private final SharedPreferences preferences;
+    private long day;
+    private final double[] quantities = new double[KINDS];
+    private final long[] asOf = new long[KINDS];
+
+    public static synchronized TodayStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new TodayStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TodayStore(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.day = preferences.getLong(KEY_DAY, 0);
+        for (int kind = 0; kind < KINDS; kind++) {
+            quantities[kind] = Double.longBitsToDouble(preferences.getLong(KEY_QUANTITY + kind, 0));
+            asOf[kind] = preferences.getLong(KEY_AS_OF + kind, 0);
+        }
+    }
+
+    /**
+     * Replace the total of {@code day} with one read up to {@code asOf}, unless a more recent one
+     * is already known.
+     */
+    public synchronized void update(@Permission int kind, long day, double quantity, long asOf) {
+        if (!moveTo(day) || asOf <= this.asOf[kind]) {
+            return;
+        }
+        quantities[kind] = quantity;
+        this.asOf[kind] = asOf;
+        save(kind);
+    }
+
+    /**
+     * Add what happened between the current total and {@code asOf}, such as live sensor data.
+     */
+    public synchronized void add(@Permission int kind, long day, double delta, long from, long asOf) {
+        if (!moveTo(day) || from < this.asOf[kind]) {
+            return;
+        }
+        quantities[kind] += delta;
+        this.asOf[kind] = asOf;
+        save(kind);
+    }
+
+    public synchronized double get(@Permission int kind, long day) {
+        return day == this.day ? quantities[kind] : 0;
+    }
+
+    /**
+     * The time the total of {@code day} is accurate up to, 0 if it was never read.
+     */
+    public synchronized long getAsOf(@Permission int kind, long day) {
+        return day == this.day ? asOf[kind] : 0;
+    }
+
+    public synchronized void clear() {
+        day = 0;
+        for (int kind = 0; kind < KINDS; kind++) {
+            quantities[kind] = 0;
+            asOf[kind] = 0;
+        }
+        preferences.edit().clear().apply();
+    }
+
+    /**
+     * Start a new day if {@code day} is more recent, returning false for an older one.
+     */
+    private boolean moveTo(long day) {
+        if (day < this.day) {
+            return false;
+        }
+        if (day > this.day) {
+            this.day = day;
+            for (int kind = 0; kind < KINDS; kind++) {
+                quantities[kind] = 0;
+                asOf[kind] = 0;
+            }
+            SharedPreferences.Editor editor = preferences.edit().clear();
+            editor.putLong(KEY_DAY, day);
+            editor.apply();
+        }
+        return true;
+    }
+
+    private void save(int kind) {
+        preferences.edit()
+                .putLong(KEY_DAY, day)
+                .putLong(KEY_QUANTITY + kind, Double.doubleToRawLongBits(quantities[kind]))
+                .putLong(KEY_AS_OF + kind, asOf[kind])
+                .apply();
+    }
+}
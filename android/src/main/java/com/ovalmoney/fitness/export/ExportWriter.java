@@ -0,0 +1,100 @@
+package com.ovalmoney.fitness.export;
+
+import com.ovalmoney.fitness.manager.Sample;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export rows written straight to a file channel through fixed-size buffers, optionally gzipped,
+ * so memory stays the same whatever the number of rows.
+ */
+public class ExportWriter implements Closeable {
+
+    public final static String NDJSON = "ndjson";
+    public final static String CSV = "csv";
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    private final static String CSV_HEADER = "kind,startDate,endDate,quantity,min,max\n";
+
+    private final FileChannel channel;
+    private final Writer writer;
+    private final boolean csv;
+    private final DateFormat dateFormat;
+    private final StringBuilder row = new StringBuilder(128);
+    private long rows;
+
+    public ExportWriter(File file, String format, boolean gzip, DateFormat dateFormat) throws IOException {
+        if (!NDJSON.equals(format) && !CSV.equals(format)) {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+        this.channel = new FileOutputStream(file).getChannel();
+        this.csv = CSV.equals(format);
+        this.dateFormat = dateFormat;
+        try {
+            OutputStream sink = Channels.newOutputStream(channel);
+            if (gzip) {
+                sink = new GZIPOutputStream(sink, BUFFER_SIZE);
+            }
+            this.writer = new BufferedWriter(new OutputStreamWriter(sink, UTF_8), BUFFER_SIZE);
+            if (csv) {
+                writer.write(CSV_HEADER);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void write(String kind, Sample sample) throws IOException {
+        row.setLength(0);
+        final String startDate = dateFormat.format(sample.startDate);
+        final String endDate = dateFormat.format(sample.endDate);
+        if (csv) {
+            row.append(kind).append(',')
+                    .append(startDate).append(',')
+                    .append(endDate).append(',')
+                    .append(sample.quantity).append(',')
+                    .append(sample.min).append(',')
+                    .append(sample.max).append('\n');
+        } else {
+            row.append("{\"kind\":\"").append(kind)
+                    .append("\",\"startDate\":\"").append(startDate)
+                    .append("\",\"endDate\":\"").append(endDate)
+                    .append("\",\"quantity\":").append(sample.quantity)
+                    .append(",\"min\":").append(sample.min)
+                    .append(",\"max\":").append(sample.max)
+                    .append("}\n");
+        }
+        writer.append(row);
+        rows++;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Flush the buffers, finish the gzip trailer and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.ovalmoney.fitness.goal;
+
+import com.ovalmoney.fitness.permission.Permission;
+
+/**
+ * A threshold evaluated natively: a daily total of steps, distance or calories to reach, or a
+ * heart rate to stay above for at least {@code sustained} milliseconds.
+ */
+public class Goal {
+
+    public final static int DAILY_TOTAL = 0;
+    public final static int HEART_RATE_ABOVE = 1;
+
+    public final String id;
+    public final int type;
+    public final int kind;
+    public final double threshold;
+    public final long sustained;
+
+    private Goal(String id, int type, @Permission int kind, double threshold, long sustained) {
+        this.id = id;
+        this.type = type;
+        this.kind = kind;
+        this.threshold = threshold;
+        this.sustained = sustained;
+    }
+
+    public static Goal dailyTotal(String id, @Permission int kind, double target) {
+        return new Goal(id, DAILY_TOTAL, kind, target, 0);
+    }
+
+    public static Goal heartRateAbove(String id, double bpm, long sustained) {
+        return new Goal(id, HEART_RATE_ABOVE, Permission.HEART_RATE, bpm, sustained);
+    }
+
+    boolean isSameAs(Goal other) {
+        return id.equals(other.id)
+                && type == other.type
+                && kind == other.kind
+                && threshold == other.threshold
+                && sustained == other.sustained;
+    }
+}
@@ -0,0 +1,23 @@
+package com.ovalmoney.fitness.goal;
+
+/**
+ * A goal whose threshold was just crossed, with the value crossing it and when.
+ */
+public class GoalCrossing {
+
+    public final static String REACHED = "reached";
+    public final static String ABOVE = "above";
+    public final static String BELOW = "below";
+
+    public final Goal goal;
+    public final String state;
+    public final double value;
+    public final long date;
+
+    GoalCrossing(Goal goal, String state, double value, long date) {
+        this.goal = goal;
+        this.state = state;
+        this.value = value;
+        this.date = date;
+    }
+}
@@ -0,0 +1,140 @@
+package com.ovalmoney.fitness.goal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluate goals incrementally as new totals and heart rate samples come in, reporting only the
+ * crossings. A daily goal is reached at most once per day. A heart rate goal goes above once the
+ * rate has stayed over its threshold for long enough without gaps, and below as soon as a
+ * sample drops under it.
+ */
+public class GoalEngine {
+
+    /**
+     * Heart rate samples further apart than this are not considered continuous.
+     */
+    private final static long MAX_HEART_RATE_GAP = 5 * 60 * 1000;
+
+    private static class HeartRateState {
+        long aboveSince = -1;
+        long lastEnd;
+        boolean above;
+    }
+
+    private final Map<String, Goal> goals = new LinkedHashMap<>();
+    private final Map<String, Long> reachedDays = new HashMap<>();
+    private final Map<String, HeartRateState> heartRates = new HashMap<>();
+
+    /**
+     * Replace the goals. Goals kept unchanged keep their state, so they don't fire again.
+     */
+    public synchronized void setGoals(List<Goal> newGoals) {
+        Map<String, Goal> previous = new HashMap<>(goals);
+        goals.clear();
+        for (Goal goal : newGoals) {
+            goals.put(goal.id, goal);
+            Goal old = previous.get(goal.id);
+            if (old == null || !old.isSameAs(goal)) {
+                reachedDays.remove(goal.id);
+                heartRates.remove(goal.id);
+            }
+        }
+        reachedDays.keySet().retainAll(goals.keySet());
+        heartRates.keySet().retainAll(goals.keySet());
+    }
+
+    public synchronized List<Goal> getGoals() {
+        return new ArrayList<>(goals.values());
+    }
+
+    /**
+     * Days each daily goal was last reached, by goal id, to persist them.
+     */
+    public synchronized Map<String, Long> getReachedDays() {
+        return new HashMap<>(reachedDays);
+    }
+
+    public synchronized void restoreReachedDays(Map<String, Long> days) {
+        for (Map.Entry<String, Long> day : days.entrySet()) {
+            if (goals.containsKey(day.getKey())) {
+                reachedDays.put(day.getKey(), day.getValue());
+            }
+        }
+    }
+
+    public synchronized boolean isReached(Goal goal, long day) {
+        if (goal.type == Goal.HEART_RATE_ABOVE) {
+            HeartRateState state = heartRates.get(goal.id);
+            return state != null && state.above;
+        }
+        Long reached = reachedDays.get(goal.id);
+        return reached != null && reached == day;
+    }
+
+    public synchronized List<GoalCrossing> onDailyTotal(int kind, long day, double total, long asOf) {
+        List<GoalCrossing> crossings = null;
+        for (Goal goal : goals.values()) {
+            if (goal.type != Goal.DAILY_TOTAL || goal.kind != kind || total < goal.threshold) {
+                continue;
+            }
+            Long reached = reachedDays.get(goal.id);
+            if (reached != null && reached >= day) {
+                continue;
+            }
+            reachedDays.put(goal.id, day);
+            crossings = add(crossings, new GoalCrossing(goal, GoalCrossing.REACHED, total, asOf));
+        }
+        return crossings != null ? crossings : Collections.<GoalCrossing>emptyList();
+    }
+
+    /**
+     * Feed one heart rate value covering {@code start} to {@code end}, e.g. the average of a live
+     * frame or of a history bucket. Values not newer than the last one fed are ignored.
+     */
+    public synchronized List<GoalCrossing> onHeartRate(long start, long end, double bpm) {
+        List<GoalCrossing> crossings = null;
+        for (Goal goal : goals.values()) {
+            if (goal.type != Goal.HEART_RATE_ABOVE) {
+                continue;
+            }
+            HeartRateState state = heartRates.get(goal.id);
+            if (state == null) {
+                state = new HeartRateState();
+                heartRates.put(goal.id, state);
+            }
+            if (end <= state.lastEnd) {
+                continue;
+            }
+            if (bpm > goal.threshold) {
+                if (state.aboveSince < 0 || start - state.lastEnd > MAX_HEART_RATE_GAP) {
+                    state.aboveSince = start;
+                }
+                if (!state.above && end - state.aboveSince >= goal.sustained) {
+                    state.above = true;
+                    crossings = add(crossings, new GoalCrossing(goal, GoalCrossing.ABOVE, bpm, end));
+                }
+            } else {
+                state.aboveSince = -1;
+                if (state.above) {
+                    state.above = false;
+                    crossings = add(crossings, new GoalCrossing(goal, GoalCrossing.BELOW, bpm, end));
+                }
+            }
+            state.lastEnd = end;
+        }
+        return crossings != null ? crossings : Collections.<GoalCrossing>emptyList();
+    }
+
+    private static List<GoalCrossing> add(List<GoalCrossing> crossings, GoalCrossing crossing) {
+        if (crossings == null) {
+            crossings = new ArrayList<>();
+        }
+        crossings.add(crossing);
+        return crossings;
+    }
+}
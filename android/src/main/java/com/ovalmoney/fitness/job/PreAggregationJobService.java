@@ -0,0 +1,226 @@
+package com.ovalmoney.fitness.job;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.HeadlessJsTaskService;
+import com.facebook.react.ReactApplication;
+import com.facebook.react.ReactInstanceManager;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.UiThreadUtil;
+import com.facebook.react.jstasks.HeadlessJsTaskConfig;
+import com.facebook.react.jstasks.HeadlessJsTaskContext;
+import com.facebook.react.jstasks.HeadlessJsTaskEventListener;
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.CancellationTokenSource;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnTokenCanceledListener;
+import com.google.android.gms.tasks.Task;
+import com.ovalmoney.fitness.manager.Manager;
+import com.ovalmoney.fitness.manager.RequestScheduler;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic job reading the latest aggregates through {@link Manager}, so closed buckets land in
+ * the bucket cache and the whole summary in the pre-aggregation store before the app asks for
+ * them. The summary can also be handed to a headless JS task. Reads go through the app's
+ * {@link Manager} when it runs, so they share its configuration and request scheduler.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PreAggregationJobService extends JobService {
+
+    private final static String TAG = "PreAggregationJob";
+    private final static int JOB_ID = 0x46495431;
+
+    private final static String EXTRA_KINDS = "kinds";
+    private final static String EXTRA_DAYS = "days";
+    private final static String EXTRA_INTERVAL = "interval";
+    private final static String EXTRA_HEADLESS = "headless";
+
+    private final static long MIN_PERIOD = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Cancelled when the system stops the running job, so its reads and headless task stop
+     * instead of running alongside the rescheduled one. Only touched on the main thread.
+     */
+    private CancellationTokenSource cancellation;
+
+    public static boolean schedule(Context context, int[] kinds, int days, String interval, long period, boolean headless, boolean requiresCharging) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putIntArray(EXTRA_KINDS, kinds);
+        extras.putInt(EXTRA_DAYS, days);
+        extras.putString(EXTRA_INTERVAL, interval);
+        extras.putInt(EXTRA_HEADLESS, headless ? 1 : 0);
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, PreAggregationJobService.class))
+                .setPeriodic(Math.max(MIN_PERIOD, period))
+                .setRequiresCharging(requiresCharging)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build();
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        return scheduler.schedule(job) == JobScheduler.RESULT_SUCCESS;
+    }
+
+    public static void cancel(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.cancel(JOB_ID);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final PersistableBundle extras = params.getExtras();
+        final boolean headless = extras.getInt(EXTRA_HEADLESS, 0) != 0;
+        cancellation = new CancellationTokenSource();
+        final CancellationToken token = cancellation.getToken();
+        Manager.getShared(getApplicationContext())
+                .preAggregate(extras.getIntArray(EXTRA_KINDS), extras.getInt(EXTRA_DAYS), extras.getString(EXTRA_INTERVAL), token)
+                .addOnCompleteListener(new OnCompleteListener<JSONObject>() {
+                    @Override
+                    public void onComplete(@NonNull Task<JSONObject> task) {
+                        if (token.isCancellationRequested()) {
+                            // Stopped by the system, which reschedules the job itself
+                            return;
+                        }
+                        if (!task.isSuccessful()) {
+                            // Only network, quota and timeout errors may pass on their own, a
+                            // missing account or permission would fail on every retry.
+                            final boolean transientError = RequestScheduler.isTransient(task.getException());
+                            Log.w(TAG, "Pre-aggregation failed", task.getException());
+                            jobFinished(params, transientError);
+                            return;
+                        }
+                        if (!headless) {
+                            jobFinished(params, false);
+                        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                            runHeadlessTask(params, token, task.getResult().toString());
+                        } else {
+                            startHeadlessTask(task.getResult().toString());
+                            jobFinished(params, false);
+                        }
+                    }
+                });
+        return true;
+    }
+
+    private void startHeadlessTask(String snapshot) {
+        Intent service = new Intent(getApplicationContext(), PreAggregationTaskService.class);
+        service.putExtra(PreAggregationTaskService.EXTRA_SNAPSHOT, snapshot);
+        HeadlessJsTaskService.acquireWakeLockNow(getApplicationContext());
+        try {
+            getApplicationContext().startService(service);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not start the headless task", e);
+        }
+    }
+
+    /**
+     * From Android 8 a background app can't start a service, so the task runs in this job, which
+     * already holds a wake lock, and the job finishes with it.
+     */
+    private void runHeadlessTask(final JobParameters params, final CancellationToken token, final String snapshot) {
+        if (!(getApplication() instanceof ReactApplication)) {
+            Log.w(TAG, "Could not start the headless task, the application isn't a ReactApplication");
+            jobFinished(params, false);
+            return;
+        }
+        final ReactInstanceManager reactInstanceManager = ((ReactApplication) getApplication())
+                .getReactNativeHost()
+                .getReactInstanceManager();
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
+                if (reactContext != null) {
+                    startTask(params, token, reactContext, snapshot);
+                    return;
+                }
+                reactInstanceManager.addReactInstanceEventListener(new ReactInstanceManager.ReactInstanceEventListener() {
+                    @Override
+                    public void onReactContextInitialized(ReactContext context) {
+                        reactInstanceManager.removeReactInstanceEventListener(this);
+                        startTask(params, token, context, snapshot);
+                    }
+                });
+                if (!reactInstanceManager.hasStartedCreatingInitialContext()) {
+                    reactInstanceManager.createReactContextInBackground();
+                }
+            }
+        });
+    }
+
+    private void startTask(final JobParameters params, CancellationToken token, ReactContext reactContext, String snapshot) {
+        if (token.isCancellationRequested()) {
+            return;
+        }
+        final HeadlessJsTaskConfig config = PreAggregationTaskService.createTaskConfig(snapshot);
+        if (config == null) {
+            jobFinished(params, false);
+            return;
+        }
+        final HeadlessJsTaskContext tasks = HeadlessJsTaskContext.getInstance(reactContext);
+        // Tasks finish on the UI thread, which is running this, so the id is set by then.
+        final int[] startedTask = { -1 };
+        final HeadlessJsTaskEventListener listener = new HeadlessJsTaskEventListener() {
+            @Override
+            public void onHeadlessJsTaskStart(int taskId) {
+            }
+
+            @Override
+            public void onHeadlessJsTaskFinish(int taskId) {
+                if (taskId == startedTask[0]) {
+                    tasks.removeTaskEventListener(this);
+                    jobFinished(params, false);
+                }
+            }
+        };
+        tasks.addTaskEventListener(listener);
+        try {
+            startedTask[0] = tasks.startTask(config);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not start the headless task", e);
+            tasks.removeTaskEventListener(listener);
+            jobFinished(params, false);
+            return;
+        }
+        token.onCanceledRequested(new OnTokenCanceledListener() {
+            @Override
+            public void onCanceled() {
+                UiThreadUtil.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        tasks.removeTaskEventListener(listener);
+                        try {
+                            tasks.finishTask(startedTask[0]);
+                        } catch (AssertionError e) {
+                            // The task finished on the JS thread before its finish event got here
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (cancellation != null) {
+            cancellation.cancel();
+            cancellation = null;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package com.ovalmoney.fitness.job;
+
+import android.content.Intent;
+import android.util.Log;
+
+import com.facebook.react.HeadlessJsTaskService;
+import com.facebook.react.jstasks.HeadlessJsTaskConfig;
+import com.ovalmoney.fitness.manager.JsonArguments;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand the summary read by {@link PreAggregationJobService} to the JS task registered under
+ * {@link #TASK_NAME}.
+ */
+public class PreAggregationTaskService extends HeadlessJsTaskService {
+
+    public final static String TASK_NAME = "FitnessPreAggregation";
+    final static String EXTRA_SNAPSHOT = "snapshot";
+
+    private final static String TAG = "PreAggregationTask";
+    private final static long TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    @Override
+    protected HeadlessJsTaskConfig getTaskConfig(Intent intent) {
+        return createTaskConfig(intent != null ? intent.getStringExtra(EXTRA_SNAPSHOT) : null);
+    }
+
+    /**
+     * Shared with {@link PreAggregationJobService}, which runs the task itself from Android 8.
+     */
+    static HeadlessJsTaskConfig createTaskConfig(String snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return new HeadlessJsTaskConfig(TASK_NAME, JsonArguments.toMap(new JSONObject(snapshot)), TIMEOUT, true);
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unreadable snapshot", e);
+            return null;
+        }
+    }
+}
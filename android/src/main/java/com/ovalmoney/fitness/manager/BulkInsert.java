@@ -0,0 +1,89 @@
+package com.ovalmoney.fitness.manager;
+
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data points of a bulk write grouped by {@link DataSource}, each remembering the index of the
+ * item it was built from, so the outcome of every insert can be reported per item.
+ */
+public class BulkInsert {
+
+    public static class Batch {
+        public final DataSet dataSet;
+        public final List<Integer> indices;
+
+        Batch(DataSet dataSet, List<Integer> indices) {
+            this.dataSet = dataSet;
+            this.indices = indices;
+        }
+    }
+
+    private final Map<String, DataSource> sources = new LinkedHashMap<>();
+    private final Map<String, List<DataPoint>> points = new LinkedHashMap<>();
+    private final Map<String, List<Integer>> indices = new LinkedHashMap<>();
+    private final String[] errors;
+    private final boolean[] done;
+
+    public BulkInsert(int size) {
+        this.errors = new String[size];
+        this.done = new boolean[size];
+    }
+
+    public void add(int index, DataSource source, DataPoint point) {
+        final String key = source.getStreamIdentifier();
+        if (!sources.containsKey(key)) {
+            sources.put(key, source);
+            points.put(key, new ArrayList<DataPoint>());
+            indices.put(key, new ArrayList<Integer>());
+        }
+        points.get(key).add(point);
+        indices.get(key).add(index);
+    }
+
+    public synchronized void fail(int index, String error) {
+        errors[index] = error;
+        done[index] = true;
+    }
+
+    public synchronized void succeed(int index) {
+        done[index] = true;
+    }
+
+    public int size() {
+        return errors.length;
+    }
+
+    public synchronized boolean isSuccessful(int index) {
+        return done[index] && errors[index] == null;
+    }
+
+    public synchronized String getError(int index) {
+        return done[index] ? errors[index] : "Not inserted";
+    }
+
+    /**
+     * One {@link DataSet} per data source, split so that none holds more than {@code maxPoints}.
+     */
+    public List<Batch> batches(int maxPoints) {
+        List<Batch> batches = new ArrayList<>();
+        for (Map.Entry<String, DataSource> source : sources.entrySet()) {
+            final List<DataPoint> sourcePoints = points.get(source.getKey());
+            final List<Integer> sourceIndices = indices.get(source.getKey());
+            for (int from = 0; from < sourcePoints.size(); from += maxPoints) {
+                final int to = Math.min(from + maxPoints, sourcePoints.size());
+                DataSet dataSet = DataSet.builder(source.getValue())
+                        .addAll(sourcePoints.subList(from, to))
+                        .build();
+                batches.add(new Batch(dataSet, new ArrayList<>(sourceIndices.subList(from, to))));
+            }
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,8 @@
+package com.ovalmoney.fitness.manager;
+
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.Task;
+
+public interface CancellableTaskFactory<T> {
+    Task<T> create(CancellationToken token);
+}
@@ -0,0 +1,178 @@
+package com.ovalmoney.fitness.manager;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+import com.google.android.gms.auth.api.signin.GoogleSignIn;
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.google.android.gms.fitness.Fitness;
+import com.google.android.gms.fitness.HistoryClient;
+import com.google.android.gms.fitness.RecordingClient;
+import com.google.android.gms.fitness.SensorsClient;
+import com.google.android.gms.fitness.SessionsClient;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The signed-in account, a snapshot of the permissions granted to it and the Google Fit clients
+ * built for it, shared by every call. The account is looked up again at most once a minute,
+ * dropping the snapshot, and whenever {@link #invalidate()} is called, e.g. after a consent flow.
+ * The last account seen is persisted, so a different one signing in is noticed across restarts.
+ */
+public class FitClients {
+
+    public interface AccountListener {
+        /**
+         * Called when an account other than the last one seen signs in, before any client is
+         * built for it.
+         */
+        void onAccountChanged();
+    }
+
+    private final static long ACCOUNT_TTL = TimeUnit.MINUTES.toMillis(1);
+    private final static String PREFERENCES_NAME = "rn_fitness_account";
+    private final static String KEY_OWNER = "owner";
+
+    private static class Clients {
+        HistoryClient history;
+        RecordingClient recording;
+        SensorsClient sensors;
+        SessionsClient sessions;
+    }
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private AccountListener accountListener;
+    private final Map<String, Clients> clients = new HashMap<>();
+    private final Map<String, Boolean> authorizations = new HashMap<>();
+    private GoogleSignInAccount account;
+    private boolean stale = true;
+    private long checkedAt;
+    private int generation;
+
+    public FitClients(Context context) {
+        this.context = context.getApplicationContext();
+        this.preferences = this.context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    public synchronized void setAccountListener(AccountListener accountListener) {
+        this.accountListener = accountListener;
+    }
+
+    private static String getAccountKey(GoogleSignInAccount account) {
+        return account == null ? "" : String.valueOf(account.getId());
+    }
+
+    public synchronized GoogleSignInAccount getAccount() {
+        final long now = SystemClock.elapsedRealtime();
+        if (stale || now - checkedAt >= ACCOUNT_TTL) {
+            final GoogleSignInAccount current = GoogleSignIn.getLastSignedInAccount(context);
+            final String key = getAccountKey(current);
+            if (!key.equals(getAccountKey(account))) {
+                clients.keySet().retainAll(Collections.singleton(key));
+            }
+            authorizations.clear();
+            generation++;
+            account = current;
+            checkedAt = now;
+            stale = false;
+            checkOwner(current);
+        }
+        return account;
+    }
+
+    /**
+     * Signing out keeps the owner, so the same account signing back in finds its data again.
+     */
+    private void checkOwner(GoogleSignInAccount current) {
+        if (current == null) {
+            return;
+        }
+        final String key = getAccountKey(current);
+        if (key.equals(preferences.getString(KEY_OWNER, null))) {
+            return;
+        }
+        // Committed synchronously, so another instance doesn't wipe the new account's data again.
+        preferences.edit().putString(KEY_OWNER, key).commit();
+        if (accountListener != null) {
+            accountListener.onAccountChanged();
+        }
+    }
+
+    public synchronized void invalidate() {
+        stale = true;
+        authorizations.clear();
+        generation++;
+    }
+
+    /**
+     * The snapshot generation, to pass back to {@link #putAuthorization}.
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    public synchronized Boolean getAuthorization(String permissions) {
+        getAccount();
+        return authorizations.get(permissions);
+    }
+
+    /**
+     * Results computed before an invalidation are dropped.
+     */
+    public synchronized void putAuthorization(int generation, String permissions, boolean authorized) {
+        if (generation == this.generation) {
+            authorizations.put(permissions, authorized);
+        }
+    }
+
+    private Clients getClients(GoogleSignInAccount account) {
+        final String key = getAccountKey(account);
+        Clients accountClients = clients.get(key);
+        if (accountClients == null) {
+            accountClients = new Clients();
+            clients.put(key, accountClients);
+        }
+        return accountClients;
+    }
+
+    public synchronized HistoryClient getHistoryClient() {
+        final GoogleSignInAccount account = getAccount();
+        final Clients accountClients = getClients(account);
+        if (accountClients.history == null) {
+            accountClients.history = Fitness.getHistoryClient(context, account);
+        }
+        return accountClients.history;
+    }
+
+    public synchronized RecordingClient getRecordingClient() {
+        final GoogleSignInAccount account = getAccount();
+        final Clients accountClients = getClients(account);
+        if (accountClients.recording == null) {
+            accountClients.recording = Fitness.getRecordingClient(context, account);
+        }
+        return accountClients.recording;
+    }
+
+    public synchronized SensorsClient getSensorsClient() {
+        final GoogleSignInAccount account = getAccount();
+        final Clients accountClients = getClients(account);
+        if (accountClients.sensors == null) {
+            accountClients.sensors = Fitness.getSensorsClient(context, account);
+        }
+        return accountClients.sensors;
+    }
+
+    public synchronized SessionsClient getSessionsClient() {
+        final GoogleSignInAccount account = getAccount();
+        final Clients accountClients = getClients(account);
+        if (accountClients.sessions == null) {
+            accountClients.sessions = Fitness.getSessionsClient(context, account);
+        }
+        return accountClients.sessions;
+    }
+}
@@ -0,0 +1,139 @@
+package com.ovalmoney.fitness.manager;
+
+import com.google.android.gms.fitness.request.DataReadRequest;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bucketing of an aggregated read: fixed-duration buckets such as {@code "15 minutes"},
+ * {@code "hour"}, {@code "2d"} or {@code "week"}, or one bucket per activity segment or session.
+ * Calendar months, such as {@code "month"}, have no fixed duration: Google Fit can't bucket by
+ * them, they are only rolled up on the device from day or finer buckets.
+ */
+public class Interval {
+    public final static int TIME = 0;
+    public final static int ACTIVITY_SEGMENT = 1;
+    public final static int SESSION = 2;
+    public final static int MONTH = 3;
+
+    private final static Pattern DURATION = Pattern.compile("^(\\d+)?\\s*([a-z]+)$");
+    private final static int MIN_SEGMENT_MINUTES = 1;
+    private final static int MAX_COUNT_DIGITS = 9;
+    private final static long MAX_TIME_BUCKET = TimeUnit.DAYS.toMillis(366);
+    private final static int MAX_MONTHS = 12;
+
+    public final int mode;
+    public final long millis;
+    public final int months;
+
+    private Interval(int mode, long millis, int months) {
+        this.mode = mode;
+        this.millis = millis;
+        this.months = months;
+    }
+
+    public boolean isTime() {
+        return mode == TIME;
+    }
+
+    public boolean isMonth() {
+        return mode == MONTH;
+    }
+
+    /**
+     * An empty interval is one day, as it always was. Unknown units and counts out of range
+     * throw an {@link IllegalArgumentException} rather than silently falling back to days.
+     */
+    public static Interval parse(String interval) {
+        final String value = interval == null ? "" : interval.trim().toLowerCase(Locale.US);
+        if (value.isEmpty()) {
+            return new Interval(TIME, TimeUnit.DAYS.toMillis(1), 0);
+        }
+        if (value.equals("activity") || value.equals("activities")) {
+            return new Interval(ACTIVITY_SEGMENT, 0, 0);
+        }
+        if (value.equals("session") || value.equals("sessions")) {
+            return new Interval(SESSION, 0, 0);
+        }
+
+        Matcher matcher = DURATION.matcher(value);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unknown interval \"" + interval + "\"");
+        }
+        final String digits = matcher.group(1);
+        if (digits != null && digits.length() > MAX_COUNT_DIGITS) {
+            throw new IllegalArgumentException("Interval count out of range in \"" + interval + "\"");
+        }
+        final long count = digits != null ? Long.parseLong(digits) : 1;
+        if (count < 1) {
+            throw new IllegalArgumentException("Interval count must be at least 1 in \"" + interval + "\"");
+        }
+
+        final String unit = matcher.group(2);
+        if (unit.equals("mo") || unit.equals("month") || unit.equals("months")) {
+            if (count > MAX_MONTHS) {
+                throw new IllegalArgumentException("Buckets are at most " + MAX_MONTHS + " months, got \"" + interval + "\"");
+            }
+            return new Interval(MONTH, 0, (int) count);
+        }
+        final long unitMillis = getUnitMillis(unit);
+        if (unitMillis == 0) {
+            throw new IllegalArgumentException("Unknown interval unit \"" + unit + "\" in \"" + interval + "\"");
+        }
+        if (count > MAX_TIME_BUCKET / unitMillis) {
+            throw new IllegalArgumentException("Buckets are at most " + TimeUnit.MILLISECONDS.toDays(MAX_TIME_BUCKET)
+                    + " days, got \"" + interval + "\"");
+        }
+        return new Interval(TIME, count * unitMillis, 0);
+    }
+
+    private static long getUnitMillis(String unit) {
+        switch (unit) {
+            case "m":
+            case "min":
+            case "mins":
+            case "minute":
+            case "minutes":
+                return TimeUnit.MINUTES.toMillis(1);
+            case "h":
+            case "hour":
+            case "hours":
+                return TimeUnit.HOURS.toMillis(1);
+            case "d":
+            case "day":
+            case "days":
+                return TimeUnit.DAYS.toMillis(1);
+            case "w":
+            case "week":
+            case "weeks":
+                return TimeUnit.DAYS.toMillis(7);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Durations are whole minutes, passed as such so buckets longer than
+     * {@code Integer.MAX_VALUE} milliseconds (about 24.8 days) don't overflow.
+     */
+    public DataReadRequest.Builder addBucketing(DataReadRequest.Builder readRequest) {
+        switch (mode) {
+            case ACTIVITY_SEGMENT:
+                return readRequest.bucketByActivitySegment(MIN_SEGMENT_MINUTES, TimeUnit.MINUTES);
+            case SESSION:
+                return readRequest.bucketBySession(MIN_SEGMENT_MINUTES, TimeUnit.MINUTES);
+            case MONTH:
+                throw new IllegalStateException("Google Fit can't bucket by calendar month");
+            default:
+                return readRequest.bucketByTime((int) TimeUnit.MILLISECONDS.toMinutes(millis), TimeUnit.MINUTES);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mode + "/" + (mode == MONTH ? months : millis);
+    }
+}
@@ -0,0 +1,110 @@
+package com.ovalmoney.fitness.manager;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * Convert JSON stored natively into bridge maps and arrays, or into Java-only ones usable before
+ * React Native is loaded.
+ */
+public class JsonArguments {
+
+    private JsonArguments() {}
+
+    public static WritableMap toMap(JSONObject json) throws JSONException {
+        WritableMap map = Arguments.createMap();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            final Object value = json.get(key);
+            if (value instanceof JSONObject) {
+                map.putMap(key, toMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                map.putArray(key, toArray((JSONArray) value));
+            } else if (value instanceof Boolean) {
+                map.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Number) {
+                map.putDouble(key, ((Number) value).doubleValue());
+            } else if (value instanceof String) {
+                map.putString(key, (String) value);
+            } else {
+                map.putNull(key);
+            }
+        }
+        return map;
+    }
+
+    public static WritableArray toArray(JSONArray json) throws JSONException {
+        WritableArray array = Arguments.createArray();
+        for (int i = 0; i < json.length(); i++) {
+            final Object value = json.get(i);
+            if (value instanceof JSONObject) {
+                array.pushMap(toMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                array.pushArray(toArray((JSONArray) value));
+            } else if (value instanceof Boolean) {
+                array.pushBoolean((Boolean) value);
+            } else if (value instanceof Number) {
+                array.pushDouble(((Number) value).doubleValue());
+            } else if (value instanceof String) {
+                array.pushString((String) value);
+            } else {
+                array.pushNull();
+            }
+        }
+        return array;
+    }
+
+    public static JavaOnlyMap toJavaOnlyMap(JSONObject json) throws JSONException {
+        JavaOnlyMap map = new JavaOnlyMap();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            final Object value = json.get(key);
+            if (value instanceof JSONObject) {
+                map.putMap(key, toJavaOnlyMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                map.putArray(key, toJavaOnlyArray((JSONArray) value));
+            } else if (value instanceof Boolean) {
+                map.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Number) {
+                map.putDouble(key, ((Number) value).doubleValue());
+            } else if (value instanceof String) {
+                map.putString(key, (String) value);
+            } else {
+                map.putNull(key);
+            }
+        }
+        return map;
+    }
+
+    public static JavaOnlyArray toJavaOnlyArray(JSONArray json) throws JSONException {
+        JavaOnlyArray array = new JavaOnlyArray();
+        for (int i = 0; i < json.length(); i++) {
+            final Object value = json.get(i);
+            if (value instanceof JSONObject) {
+                array.pushMap(toJavaOnlyMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                array.pushArray(toJavaOnlyArray((JSONArray) value));
+            } else if (value instanceof Boolean) {
+                array.pushBoolean((Boolean) value);
+            } else if (value instanceof Number) {
+                array.pushDouble(((Number) value).doubleValue());
+            } else if (value instanceof String) {
+                array.pushString((String) value);
+            } else {
+                array.pushNull();
+            }
+        }
+        return array;
+    }
+}
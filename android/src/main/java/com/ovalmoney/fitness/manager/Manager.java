@@ -3,49 +3,101 @@ package com.ovalmoney.fitness.manager;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
 import android.nfc.Tag;
 import android.os.Bundle;
 import android.util.Log;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 
 import com.facebook.react.bridge.ActivityEventListener;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.google.android.gms.auth.api.signin.GoogleSignIn;
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
-import com.google.android.gms.fitness.Fitness;
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.CommonStatusCodes;
 import com.google.android.gms.fitness.FitnessActivities;
 import com.google.android.gms.fitness.FitnessOptions;
-import com.google.android.gms.fitness.data.Bucket;
 import com.google.android.gms.fitness.data.DataPoint;
 import com.google.android.gms.fitness.data.DataSet;
 import com.google.android.gms.fitness.data.DataType;
 import com.google.android.gms.fitness.data.Device;
 import com.google.android.gms.fitness.data.Field;
 import com.google.android.gms.fitness.data.DataSource;
-import com.google.android.gms.fitness.request.DataReadRequest;
-import com.google.android.gms.fitness.result.DataReadResponse;
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.android.gms.fitness.data.Subscription;
+import com.ovalmoney.fitness.aggregation.Downsample;
+import com.ovalmoney.fitness.aggregation.RollUp;
+import com.ovalmoney.fitness.aggregation.SampleSeries;
+import com.ovalmoney.fitness.backend.FitBackend;
+import com.ovalmoney.fitness.backend.GoogleFitBackend;
+import com.ovalmoney.fitness.backend.LocalBackend;
+import com.ovalmoney.fitness.backend.RecordingBackend;
+import com.ovalmoney.fitness.cache.BucketCache;
+import com.ovalmoney.fitness.cache.ConfigStore;
+import com.ovalmoney.fitness.cache.GoalStore;
+import com.ovalmoney.fitness.cache.PreAggregationStore;
+import com.ovalmoney.fitness.cache.SyncStore;
+import com.ovalmoney.fitness.cache.TodayStore;
+import com.ovalmoney.fitness.export.ExportWriter;
+import com.ovalmoney.fitness.goal.Goal;
+import com.ovalmoney.fitness.goal.GoalCrossing;
+import com.ovalmoney.fitness.goal.GoalEngine;
+import com.ovalmoney.fitness.job.PreAggregationJobService;
+import com.ovalmoney.fitness.metrics.CallMetrics;
+import com.ovalmoney.fitness.metrics.Histogram;
+import com.ovalmoney.fitness.metrics.MetricsStore;
+import com.ovalmoney.fitness.metrics.OperationMetrics;
+import com.ovalmoney.fitness.permission.Permission;
+import com.ovalmoney.fitness.permission.PermissionScopes;
 import com.ovalmoney.fitness.permission.Request;
+import com.ovalmoney.fitness.sensor.LiveFrame;
+import com.ovalmoney.fitness.sensor.LiveStream;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TimeZone;
 
 import static com.ovalmoney.fitness.permission.Permission.ACTIVITY;
 import static com.ovalmoney.fitness.permission.Permission.CALORIES;
@@ -56,13 +108,194 @@ import static com.ovalmoney.fitness.permission.Permission.WEIGHT;
 
 public class Manager implements ActivityEventListener {
 
+    private final static String TAG = Manager.class.getName();
+
     private final static int GOOGLE_FIT_PERMISSIONS_REQUEST_CODE = 111;
     private final static int GOOGLE_PLAY_SERVICE_ERROR_DIALOG = 2404;
-    private final static DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.getDefault());
+    private final static Map<String, DataType> FIT_DATA_TYPES = new HashMap<>();
+
+    static {
+        FIT_DATA_TYPES.put(PermissionScopes.STEP_COUNT_DELTA, DataType.TYPE_STEP_COUNT_DELTA);
+        FIT_DATA_TYPES.put(PermissionScopes.STEP_COUNT_CUMULATIVE, DataType.TYPE_STEP_COUNT_CUMULATIVE);
+        FIT_DATA_TYPES.put(PermissionScopes.DISTANCE_DELTA, DataType.TYPE_DISTANCE_DELTA);
+        FIT_DATA_TYPES.put(PermissionScopes.CALORIES_EXPENDED, DataType.TYPE_CALORIES_EXPENDED);
+        FIT_DATA_TYPES.put(PermissionScopes.ACTIVITY_SEGMENT, DataType.TYPE_ACTIVITY_SEGMENT);
+        FIT_DATA_TYPES.put(PermissionScopes.HEART_RATE_BPM, DataType.TYPE_HEART_RATE_BPM);
+        FIT_DATA_TYPES.put(PermissionScopes.WEIGHT, DataType.TYPE_WEIGHT);
+    }
+
+    private final static Comparator<Sample> SAMPLE_ORDER = new Comparator<Sample>() {
+        @Override
+        public int compare(Sample a, Sample b) {
+            return a.startDate < b.startDate ? -1 : (a.startDate == b.startDate ? 0 : 1);
+        }
+    };
+
+    public final static String HISTORY_PAGE_EVENT = "FitnessHistoryPage";
+    public final static String HISTORY_COMPLETE_EVENT = "FitnessHistoryComplete";
+
+    public final static String LIVE_FRAME_EVENT = "FitnessLiveFrame";
+    public final static String METRICS_EVENT = "FitnessMetrics";
+    public final static String GOAL_EVENT = "FitnessGoal";
+    public final static String EXPORT_PROGRESS_EVENT = "FitnessExportProgress";
+
+    private final static String READ_OPERATION = "googleFitRead";
+    private final static String BACKEND_LOCAL = "local";
+    private final static String BACKEND_RECORD = "record";
+
+    private final static int DEFAULT_LIVE_FRAME_INTERVAL = 1000;
+    private final static int DEFAULT_LIVE_MAX_PENDING_FRAMES = 3;
+    private final static String FORMAT_COLUMNAR = "columnar";
+    private final static String DOWNSAMPLING_LTTB = "lttb";
+    private final static String DOWNSAMPLING_ENVELOPE = "envelope";
+    private final static int DEFAULT_SYNC_DAYS = 30;
+    private final static int MAX_POINTS_PER_DATASET = 1000;
+    private final static int DEFAULT_RAW_PAGE_SIZE = 1000;
+    private final static int DEFAULT_SESSION_PAGE_SIZE = 50;
+    private final static long SESSION_LIST_WINDOW = TimeUnit.DAYS.toMillis(30);
+    private final static int MAX_RAW_PAGE_ATTEMPTS = 4;
+    private final static long NO_CURSOR = -1;
+    private final static int DEFAULT_SYNC_LATE_WINDOW_HOURS = 24;
+    private final static String DEFAULT_SYNC_ID = "default";
+    private final static int DEFAULT_PAGE_SIZE = 500;
+    private final static int DEFAULT_CALLBACK_THREADS = 2;
+    private final static long CALLBACK_THREAD_KEEP_ALIVE = 30;
+    private final static int DEFAULT_MAX_BUCKETS_PER_READ = 720;
+    private final static int DEFAULT_READ_RETRIES = 2;
+    private final static String PRIORITY_BACKGROUND = "background";
+    private final static int[] TODAY_KINDS = new int[]{ STEP, DISTANCE, CALORIES };
+    private final static int[] ACTIVITY_AFFECTED_KINDS = new int[]{ CALORIES };
+    private final static int[] WEIGHT_AFFECTED_KINDS = new int[]{ CALORIES };
+    private final static int DEFAULT_SUSTAINED_MINUTES = 10;
+    private final static long HEART_RATE_GOAL_WINDOW = TimeUnit.HOURS.toMillis(1);
+    private final static String EXPORT_DIRECTORY = "fitness-exports";
+    private final static ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FitnessTodayRefresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final static int DEFAULT_PRE_AGGREGATION_PERIOD = 60;
+    private final static int DEFAULT_PRE_AGGREGATION_DAYS = 7;
+    private final static String DEFAULT_PRE_AGGREGATION_INTERVAL = "hour";
+    private final static int[] PRE_AGGREGATION_KINDS = new int[]{ STEP, DISTANCE, CALORIES, HEART_RATE };
+
+    private final Context context;
+    private final static Comparator<Sample> RAW_SAMPLE_ORDER = new Comparator<Sample>() {
+        @Override
+        public int compare(Sample a, Sample b) {
+            if (a.endDate != b.endDate) {
+                return a.endDate > b.endDate ? -1 : 1;
+            }
+            if (a.startDate != b.startDate) {
+                return a.startDate > b.startDate ? -1 : 1;
+            }
+            if (a.quantity != b.quantity) {
+                return a.quantity > b.quantity ? -1 : 1;
+            }
+            return String.valueOf(a.label).compareTo(String.valueOf(b.label));
+        }
+    };
+
+    private final static Comparator<SessionInfo> SESSION_ORDER = new Comparator<SessionInfo>() {
+        @Override
+        public int compare(SessionInfo a, SessionInfo b) {
+            if (a.startDate != b.startDate) {
+                return a.startDate > b.startDate ? -1 : 1;
+            }
+            return String.valueOf(a.id).compareTo(String.valueOf(b.id));
+        }
+    };
+
+    private final BucketCache bucketCache;
+    private final SyncStore syncStore;
+    private final TodayStore todayStore;
+    private final GoalStore goalStore;
+    private final GoalEngine goals;
+    private static GoalEngine goalEngine;
+    private static Manager shared;
+    private static ScheduledFuture<?> todayRefresh;
+    private final AtomicInteger queryIds = new AtomicInteger();
+    private final QueryRegistry queries = new QueryRegistry();
+    private volatile int queryTimeout;
+    private LiveStream liveStream;
+    private volatile Executor executor = createCallbackExecutor(DEFAULT_CALLBACK_THREADS);
+    private final RequestScheduler scheduler = RequestScheduler.getInstance();
+    private int maxBucketsPerRead = DEFAULT_MAX_BUCKETS_PER_READ;
+    private int readRetries = DEFAULT_READ_RETRIES;
+    private final TaskCoalescer<List<Sample>> historyTasks = new TaskCoalescer<>();
+    private final TaskCoalescer<SparseArray<List<Sample>>> aggregateTasks = new TaskCoalescer<>();
+
+    private final FitClients fitClients;
+    private volatile FitBackend backend;
+    private final MetricsStore metrics = new MetricsStore();
+    private volatile boolean metricsEvents;
+    private volatile boolean metricsPayload;
+    private volatile boolean playServicesAvailable;
+
+    private final List<PermissionRequest> permissionRequests = new ArrayList<>();
+
+    private static class PermissionRequest {
+        final ArrayList<Request> permissions;
+        final Promise promise;
+
+        PermissionRequest(ArrayList<Request> permissions, Promise promise) {
+            this.permissions = permissions;
+            this.promise = promise;
+        }
+    }
+
+    public Manager(Context context) {
+        this.context = context;
+        this.bucketCache = BucketCache.getInstance(context);
+        this.syncStore = SyncStore.getInstance(context);
+        this.todayStore = TodayStore.getInstance(context);
+        this.goalStore = GoalStore.getInstance(context);
+        this.goals = getGoalEngine(goalStore);
+        this.fitClients = new FitClients(context);
+        this.fitClients.setAccountListener(new FitClients.AccountListener() {
+            @Override
+            public void onAccountChanged() {
+                clearAccountData();
+            }
+        });
+        this.backend = new GoogleFitBackend(fitClients);
+    }
+
+    /**
+     * Nothing read or computed for the previous account may be shown to the next one.
+     */
+    private void clearAccountData() {
+        bucketCache.invalidate();
+        syncStore.clear();
+        todayStore.clear();
+        PreAggregationStore.getInstance(context).clear();
+        goals.setGoals(new ArrayList<Goal>());
+        goalStore.clear();
+    }
 
-    private Promise promise;
+    /**
+     * A single engine per process, so the app and the background job don't fire the same
+     * crossing twice.
+     */
+    private static synchronized GoalEngine getGoalEngine(GoalStore store) {
+        if (goalEngine == null) {
+            goalEngine = new GoalEngine();
+            goalEngine.setGoals(store.loadGoals());
+            goalEngine.restoreReachedDays(store.loadReachedDays());
+        }
+        return goalEngine;
+    }
 
-    private static boolean isGooglePlayServicesAvailable(final Activity activity) {
+    /**
+     * Only a successful check is remembered, a failing one keeps showing its resolution dialog.
+     */
+    private boolean isGooglePlayServicesAvailable(final Activity activity) {
+        if (playServicesAvailable) {
+            return true;
+        }
         GoogleApiAvailability googleApiAvailability = GoogleApiAvailability.getInstance();
         int status = googleApiAvailability.isGooglePlayServicesAvailable(activity);
         if(status != ConnectionResult.SUCCESS) {
@@ -71,94 +304,307 @@ public class Manager implements ActivityEventListener {
             }
             return false;
         }
+        playServicesAvailable = true;
         return true;
     }
 
+    private static String getPermissionsKey(final ArrayList<Request> permissions) {
+        List<String> keys = new ArrayList<>();
+        for (Request request : permissions) {
+            keys.add(request.permissionKind + ":" + request.permissionAccess);
+        }
+        Collections.sort(keys);
+        return keys.toString();
+    }
+
     protected FitnessOptions.Builder addPermissionToFitnessOptions(final FitnessOptions.Builder fitnessOptions, final ArrayList<Request> permissions){
-        int length = permissions.size();
-        for(int i = 0; i < length; i++){
-            Request currentRequest = permissions.get(i);
-            switch(currentRequest.permissionKind){
-                case STEP:
-                    fitnessOptions
-                            .addDataType(DataType.TYPE_STEP_COUNT_DELTA, currentRequest.permissionAccess)
-                            .addDataType(DataType.TYPE_STEP_COUNT_CUMULATIVE, currentRequest.permissionAccess);
-                    break;
-                case DISTANCE:
-                    fitnessOptions.addDataType(DataType.TYPE_DISTANCE_DELTA, currentRequest.permissionAccess);
-                    break;
-                case CALORIES:
-                    fitnessOptions.addDataType(DataType.TYPE_CALORIES_EXPENDED, currentRequest.permissionAccess);
-                    break;
-                case ACTIVITY:
-                    fitnessOptions.addDataType(DataType.TYPE_ACTIVITY_SEGMENT, currentRequest.permissionAccess);
-                    break;
-                case HEART_RATE:
-                    fitnessOptions.addDataType(DataType.TYPE_HEART_RATE_BPM, currentRequest.permissionAccess);
-                    break;
-				case WEIGHT:
-                    fitnessOptions.addDataType(DataType.TYPE_WEIGHT, currentRequest.permissionAccess);
-                    break;
-                default:
-                    break;
+        for (PermissionScopes.Scope scope : PermissionScopes.resolve(permissions)) {
+            fitnessOptions.addDataType(FIT_DATA_TYPES.get(scope.dataType), scope.access);
+        }
+        return fitnessOptions;
+    }
+
+    /**
+     * Set the executor running every Task callback and the conversion of the results, so
+     * nothing of it happens on the main thread.
+     */
+    public void setExecutor(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Replace where aggregated history and recording subscriptions come from. Cached buckets
+     * came from the previous backend, so they are dropped.
+     */
+    public void setBackend(@NonNull FitBackend backend) {
+        this.backend = backend;
+        bucketCache.invalidate();
+    }
+
+    /**
+     * Core threads time out, so a pool replaced while callbacks are still registered on it
+     * drains them and then goes away on its own.
+     */
+    private static Executor createCallbackExecutor(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                CALLBACK_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * The Manager of the running app, registered with {@link #setShared}, so the background job
+     * reads with its scheduler, callback pool and cache settings. When the job runs without the
+     * app, a Manager restoring the options last passed to {@link #configure} is made instead.
+     */
+    public static synchronized Manager getShared(Context context) {
+        if (shared == null) {
+            shared = new Manager(context.getApplicationContext());
+            shared.restoreConfiguration();
+        }
+        return shared;
+    }
+
+    public static synchronized void setShared(Manager manager) {
+        shared = manager;
+    }
+
+    /**
+     * The backend is built first, so a configuration it rejects leaves every other setting as it
+     * was. Accepted options are stored for {@link #getShared}.
+     */
+    public void configure(ReadableMap options, Promise promise) {
+        FitBackend configuredBackend = null;
+        if (options.hasKey("backend")) {
+            try {
+                configuredBackend = createBackend(options.getMap("backend"));
+            } catch (IllegalArgumentException e) {
+                promise.reject("InvalidConfiguration", e.getMessage(), e);
+                return;
             }
         }
+        applyConfiguration(options, configuredBackend);
+        ConfigStore.getInstance(context).merge(options.toHashMap());
+        promise.resolve(true);
+    }
 
-        return fitnessOptions;
+    /**
+     * The today refresh timer and metrics events only matter while the app runs, they are left
+     * out. A backend which can't be built any more, e.g. a deleted replay file, falls back to
+     * Google Fit.
+     */
+    private void restoreConfiguration() {
+        final JSONObject stored = ConfigStore.getInstance(context).load();
+        stored.remove("todayRefreshMinutes");
+        stored.remove("metricsEvents");
+        final ReadableMap options;
+        try {
+            options = JsonArguments.toJavaOnlyMap(stored);
+        } catch (JSONException e) {
+            Log.w(getClass().getName(), "Could not restore the configuration", e);
+            return;
+        }
+        FitBackend restoredBackend = null;
+        if (options.hasKey("backend")) {
+            try {
+                restoredBackend = createBackend(options.getMap("backend"));
+            } catch (IllegalArgumentException e) {
+                Log.w(getClass().getName(), "Could not restore the backend", e);
+            }
+        }
+        applyConfiguration(options, restoredBackend);
+    }
+
+    private void applyConfiguration(ReadableMap options, FitBackend configuredBackend) {
+        if (options.hasKey("callbackThreads")) {
+            setExecutor(createCallbackExecutor(Math.max(1, options.getInt("callbackThreads"))));
+        }
+        if (options.hasKey("maxBucketsPerRead")) {
+            maxBucketsPerRead = Math.max(1, options.getInt("maxBucketsPerRead"));
+        }
+        if (options.hasKey("maxConcurrentReads")) {
+            scheduler.setMaxConcurrent(Math.max(1, options.getInt("maxConcurrentReads")));
+        }
+        if (options.hasKey("requestsPerSecond")) {
+            scheduler.setPermitsPerSecond(options.getDouble("requestsPerSecond"));
+        }
+        if (options.hasKey("requestBurst")) {
+            scheduler.setBurst(Math.max(1, options.getInt("requestBurst")));
+        }
+        if (options.hasKey("retryBaseDelay")) {
+            scheduler.setRetryBaseDelay(Math.max(0, options.getInt("retryBaseDelay")));
+        }
+        if (options.hasKey("retryMaxDelay")) {
+            scheduler.setRetryMaxDelay(Math.max(0, options.getInt("retryMaxDelay")));
+        }
+        if (options.hasKey("readRetries")) {
+            readRetries = Math.max(0, options.getInt("readRetries"));
+        }
+        if (options.hasKey("queryTimeout")) {
+            queryTimeout = Math.max(0, options.getInt("queryTimeout"));
+        }
+        if (options.hasKey("cacheMaxEntries")) {
+            bucketCache.setMaxEntries(Math.max(0, options.getInt("cacheMaxEntries")));
+        }
+        if (options.hasKey("cacheMaxAgeDays")) {
+            bucketCache.setMaxAge(TimeUnit.DAYS.toMillis(Math.max(0, options.getInt("cacheMaxAgeDays"))));
+        }
+        if (options.hasKey("cacheLateDataHours")) {
+            bucketCache.setClosedBucketGrace(TimeUnit.HOURS.toMillis(Math.max(0, options.getInt("cacheLateDataHours"))));
+        }
+        if (configuredBackend != null) {
+            setBackend(configuredBackend);
+        }
+        if (options.hasKey("metricsEvents")) {
+            metricsEvents = options.getBoolean("metricsEvents");
+        }
+        if (options.hasKey("metricsPayload")) {
+            metricsPayload = options.getBoolean("metricsPayload");
+        }
+        if (options.hasKey("todayRefreshMinutes")) {
+            scheduleTodayRefresh(Math.max(0, options.getInt("todayRefreshMinutes")));
+        }
+    }
+
+    /**
+     * The backend described by the {@code backend} configure option: Google Fit, a local replay
+     * or synthetic backend, or Google Fit recorded to a file.
+     */
+    private FitBackend createBackend(ReadableMap options) {
+        final String type = getStringOption(options, "type", null);
+        if (BACKEND_RECORD.equals(type)) {
+            final String recordFile = getStringOption(options, "recordFile", null);
+            if (recordFile == null) {
+                throw new IllegalArgumentException("The record backend needs a recordFile");
+            }
+            return new RecordingBackend(new GoogleFitBackend(fitClients), new File(recordFile));
+        }
+        if (!BACKEND_LOCAL.equals(type)) {
+            return new GoogleFitBackend(fitClients);
+        }
+        final String replayFile = getStringOption(options, "replayFile", null);
+        SparseArray<List<Sample>> recorded = null;
+        if (replayFile != null) {
+            try {
+                recorded = LocalBackend.readRecording(new File(replayFile));
+            } catch (IOException | JSONException e) {
+                throw new IllegalArgumentException("Unreadable recording " + replayFile, e);
+            }
+        }
+        return new LocalBackend(recorded,
+                getIntOption(options, "latencyMillis", 0),
+                getIntOption(options, "jitterMillis", 0),
+                options.hasKey("errorRate") ? options.getDouble("errorRate") : 0,
+                getIntOption(options, "seed", 0));
     }
 
     public boolean isAuthorized(final Activity activity, final ArrayList<Request> permissions){
         if(isGooglePlayServicesAvailable(activity)) {
-            FitnessOptions fitnessOptions = addPermissionToFitnessOptions(FitnessOptions.builder(), permissions)
-                    .build();
-            return GoogleSignIn.hasPermissions(GoogleSignIn.getLastSignedInAccount(activity), fitnessOptions);
+            final String key = getPermissionsKey(permissions);
+            final int generation = fitClients.getGeneration();
+            Boolean authorized = fitClients.getAuthorization(key);
+            if (authorized == null) {
+                authorized = hasPermissions(permissions);
+                fitClients.putAuthorization(generation, key, authorized);
+            }
+            return authorized;
         }
         return false;
     }
 
+    private boolean hasPermissions(final ArrayList<Request> permissions) {
+        FitnessOptions fitnessOptions = addPermissionToFitnessOptions(FitnessOptions.builder(), permissions)
+                .build();
+        return GoogleSignIn.hasPermissions(fitClients.getAccount(), fitnessOptions);
+    }
+
+    /**
+     * Requests made while a consent flow is showing join it instead of starting another one.
+     */
     public void requestPermissions(@NonNull Activity currentActivity, final ArrayList<Request> permissions, Promise promise) {
+        synchronized (permissionRequests) {
+            permissionRequests.add(new PermissionRequest(permissions, promise));
+            if (permissionRequests.size() > 1) {
+                return;
+            }
+        }
         try {
-            this.promise = promise;
             FitnessOptions fitnessOptions = addPermissionToFitnessOptions(FitnessOptions.builder(), permissions)
                     .build();
             GoogleSignIn.requestPermissions(
                     currentActivity,
                     GOOGLE_FIT_PERMISSIONS_REQUEST_CODE,
-                    GoogleSignIn.getLastSignedInAccount(currentActivity.getApplicationContext()),
+                    fitClients.getAccount(),
                     fitnessOptions);
         }catch(Exception e){
             Log.e(getClass().getName(), e.getMessage());
+            for (PermissionRequest request : takePermissionRequests()) {
+                request.promise.reject(e);
+            }
+        }
+    }
+
+    private List<PermissionRequest> takePermissionRequests() {
+        synchronized (permissionRequests) {
+            List<PermissionRequest> requests = new ArrayList<>(permissionRequests);
+            permissionRequests.clear();
+            return requests;
         }
     }
 
+    /**
+     * The request which started the flow gets its outcome, the ones which joined it are
+     * resolved with whether their own permissions are now granted.
+     */
     @Override
     public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
-        if (resultCode == Activity.RESULT_OK && requestCode == GOOGLE_FIT_PERMISSIONS_REQUEST_CODE) {
-            promise.resolve(true);
+        if (requestCode != GOOGLE_FIT_PERMISSIONS_REQUEST_CODE) {
+            return;
         }
-        if (resultCode == Activity.RESULT_CANCELED && requestCode == GOOGLE_FIT_PERMISSIONS_REQUEST_CODE) {
-            promise.resolve(false);
+        if (resultCode != Activity.RESULT_OK && resultCode != Activity.RESULT_CANCELED) {
+            return;
+        }
+        fitClients.invalidate();
+        playServicesAvailable = false;
+        final List<PermissionRequest> requests = takePermissionRequests();
+        for (int i = 0; i < requests.size(); i++) {
+            final PermissionRequest request = requests.get(i);
+            if (resultCode == Activity.RESULT_CANCELED) {
+                request.promise.resolve(false);
+            } else if (i == 0) {
+                request.promise.resolve(true);
+            } else {
+                request.promise.resolve(hasPermissions(request.permissions));
+            }
         }
     }
 
     @Override
     public void onNewIntent(Intent intent) { }
 
+    private Task<Void> subscribe(final DataType dataType) {
+        return submitRead(new TaskFactory<Void>() {
+            @Override
+            public Task<Void> create() {
+                return backend.subscribe(dataType);
+            }
+        }, RequestScheduler.INTERACTIVE);
+    }
+
     public void subscribeToActivity(Context context, final Promise promise){
-        final GoogleSignInAccount account = GoogleSignIn.getLastSignedInAccount(context);
+        final GoogleSignInAccount account = fitClients.getAccount();
         if(account == null){
             promise.resolve(false);
             return;
         }
-        Fitness.getRecordingClient(context, account)
-                .subscribe(DataType.TYPE_ACTIVITY_SAMPLES)
-                .addOnSuccessListener(new OnSuccessListener<Void>() {
+        subscribe(DataType.TYPE_ACTIVITY_SAMPLES)
+                .addOnSuccessListener(executor, new OnSuccessListener<Void>() {
                     @Override
                     public void onSuccess(Void aVoid) {
                         promise.resolve(true);
                     }
                 })
-                .addOnFailureListener(new OnFailureListener() {
+                .addOnFailureListener(executor, new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
                         promise.resolve(false);
@@ -168,20 +614,19 @@ public class Manager implements ActivityEventListener {
     }
 
     public void subscribeToSteps(Context context, final Promise promise){
-        final GoogleSignInAccount account = GoogleSignIn.getLastSignedInAccount(context);
+        final GoogleSignInAccount account = fitClients.getAccount();
         if(account == null){
             promise.resolve(false);
             return;
         }
-        Fitness.getRecordingClient(context, account)
-                .subscribe(DataType.TYPE_STEP_COUNT_DELTA)
-                .addOnSuccessListener(new OnSuccessListener<Void>() {
+        subscribe(DataType.TYPE_STEP_COUNT_DELTA)
+                .addOnSuccessListener(executor, new OnSuccessListener<Void>() {
                     @Override
                     public void onSuccess(Void aVoid) {
                         promise.resolve(true);
                     }
                 })
-                .addOnFailureListener(new OnFailureListener() {
+                .addOnFailureListener(executor, new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
                         promise.resolve(false);
@@ -189,324 +634,2131 @@ public class Manager implements ActivityEventListener {
                 });
     }
 
-    public void getSteps(Context context, double startDate, double endDate, String customInterval, final Promise promise){
-        DataSource ESTIMATED_STEP_DELTAS = new DataSource.Builder()
-                .setDataType(DataType.TYPE_STEP_COUNT_DELTA)
-                .setType(DataSource.TYPE_DERIVED)
-                .setStreamName("estimated_steps")
-                .setAppPackageName("com.google.android.gms")
-                .build();
-
-        TimeUnit interval;
-        if(customInterval == "hour"){
-            interval = TimeUnit.HOURS;
-        }else{
-            interval = TimeUnit.DAYS;
+    public void startLiveUpdates(Context context, int[] kinds, ReadableMap options, final Promise promise) {
+        final GoogleSignInAccount account = fitClients.getAccount();
+        if(account == null){
+            promise.resolve(false);
+            return;
         }
-
-        DataReadRequest readRequest = new DataReadRequest.Builder()
-                .aggregate(ESTIMATED_STEP_DELTAS,    DataType.AGGREGATE_STEP_COUNT_DELTA)
-                .bucketByTime(1, interval)
-                .setTimeRange((long) startDate, (long) endDate, TimeUnit.MILLISECONDS)
-                .build();
-
-        Fitness.getHistoryClient(context, GoogleSignIn.getLastSignedInAccount(context))
-                .readData(readRequest)
-                .addOnSuccessListener(new OnSuccessListener<DataReadResponse>() {
-                    @Override
-                    public void onSuccess(DataReadResponse dataReadResponse) {
-                        if (dataReadResponse.getBuckets().size() > 0) {
-                            WritableArray steps = Arguments.createArray();
-                            for (Bucket bucket : dataReadResponse.getBuckets()) {
-                                List<DataSet> dataSets = bucket.getDataSets();
-                                for (DataSet dataSet : dataSets) {
-                                    processStep(dataSet, steps);
-                                }
+        LiveStream stream;
+        synchronized (this) {
+            if (liveStream != null) {
+                liveStream.stop();
+            }
+            liveStream = new LiveStream(fitClients.getSensorsClient(),
+                    new LiveStream.FrameListener() {
+                        @Override
+                        public void onFrame(LiveFrame frame) {
+                            if (frame.steps > 0) {
+                                final long day = getStartOfDay(frame.startDate);
+                                todayStore.add(STEP, day, frame.steps, frame.startDate, frame.endDate);
+                                evaluateDailyGoals(STEP, day);
                             }
-                            promise.resolve(steps);
+                            if (frame.heartRateCount > 0) {
+                                dispatchGoalCrossings(goals.onHeartRate(frame.startDate, frame.endDate, frame.heartRate));
+                            }
+                            sendEvent(LIVE_FRAME_EVENT, processLiveFrame(frame));
                         }
+                    },
+                    Math.max(1, getIntOption(options, "interval", DEFAULT_LIVE_FRAME_INTERVAL)),
+                    getIntOption(options, "maxPendingFrames", DEFAULT_LIVE_MAX_PENDING_FRAMES));
+            stream = liveStream;
+        }
+        stream.start(kinds)
+                .addOnSuccessListener(executor, new OnSuccessListener<Void>() {
+                    @Override
+                    public void onSuccess(Void aVoid) {
+                        promise.resolve(true);
                     }
                 })
-                .addOnFailureListener(new OnFailureListener() {
+                .addOnFailureListener(executor, new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
+                        stopLiveStream();
                         promise.reject(e);
                     }
-                })
-                .addOnCompleteListener(new OnCompleteListener<DataReadResponse>() {
-                    @Override
-                    public void onComplete(@NonNull Task<DataReadResponse> task) {
-                    }
                 });
     }
 
-    public void getDistance(Context context, double startDate, double endDate, String customInterval, final Promise promise) {
-        TimeUnit interval;
-        if(customInterval == "hour"){
-            interval = TimeUnit.HOURS;
-        }else{
-            interval = TimeUnit.DAYS;
+    public void stopLiveUpdates(final Promise promise) {
+        promise.resolve(stopLiveStream());
+    }
+
+    public synchronized void acknowledgeLiveFrame(int frameId) {
+        if (liveStream != null) {
+            liveStream.acknowledge(frameId);
         }
+    }
 
-        DataReadRequest readRequest = new DataReadRequest.Builder()
-                .aggregate(DataType.TYPE_DISTANCE_DELTA, DataType.AGGREGATE_DISTANCE_DELTA)
-                .bucketByTime(1, interval)
-                .setTimeRange((long) startDate, (long) endDate, TimeUnit.MILLISECONDS)
-                .build();
+    private synchronized boolean stopLiveStream() {
+        if (liveStream == null) {
+            return false;
+        }
+        liveStream.stop();
+        liveStream = null;
+        return true;
+    }
 
-        Fitness.getHistoryClient(context, GoogleSignIn.getLastSignedInAccount(context))
-                .readData(readRequest)
-                .addOnSuccessListener(new OnSuccessListener<DataReadResponse>() {
-                    @Override
-                    public void onSuccess(DataReadResponse dataReadResponse) {
-                        if (dataReadResponse.getBuckets().size() > 0) {
-                            WritableArray distances = Arguments.createArray();
-                            for (Bucket bucket : dataReadResponse.getBuckets()) {
-                                List<DataSet> dataSets = bucket.getDataSets();
-                                for (DataSet dataSet : dataSets) {
-                                    processDistance(dataSet, distances);
-                                }
-                            }
-                            promise.resolve(distances);
-                        }
-                    }
-                })
-                .addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        promise.reject(e);
-                    }
-                })
-                .addOnCompleteListener(new OnCompleteListener<DataReadResponse>() {
-                    @Override
-                    public void onComplete(@NonNull Task<DataReadResponse> task) {
-                    }
-                });
+    public void getSteps(Context context, double startDate, double endDate, String customInterval, ReadableMap options, final Promise promise) {
+        resolveHistory(context, "getSteps", STEP, startDate, endDate, customInterval, options, promise);
     }
 
-    public void getCalories(Context context, double startDate, double endDate, String customInterval, final Promise promise) {
-        TimeUnit interval;
-        if(customInterval == "hour"){
-            interval = TimeUnit.HOURS;
-        }else{
-            interval = TimeUnit.DAYS;
-        }
-        DataReadRequest readRequest = new DataReadRequest.Builder()
-                .aggregate(DataType.TYPE_CALORIES_EXPENDED, DataType.AGGREGATE_CALORIES_EXPENDED)
-                .bucketByTime(1, interval)
-                .setTimeRange((long) startDate, (long) endDate, TimeUnit.MILLISECONDS)
-                .build();
+    public void getDistance(Context context, double startDate, double endDate, String customInterval, ReadableMap options, final Promise promise) {
+        resolveHistory(context, "getDistance", DISTANCE, startDate, endDate, customInterval, options, promise);
+    }
 
-        Fitness.getHistoryClient(context, GoogleSignIn.getLastSignedInAccount(context))
-                .readData(readRequest)
-                .addOnSuccessListener(new OnSuccessListener<DataReadResponse>() {
-                    @Override
-                    public void onSuccess(DataReadResponse dataReadResponse) {
-                        if (dataReadResponse.getBuckets().size() > 0) {
-                            WritableArray calories = Arguments.createArray();
-                            for (Bucket bucket : dataReadResponse.getBuckets()) {
-                                List<DataSet> dataSets = bucket.getDataSets();
-                                for (DataSet dataSet : dataSets) {
-                                    processDistance(dataSet, calories);
-                                }
-                            }
-                            promise.resolve(calories);
+    public void getCalories(Context context, double startDate, double endDate, String customInterval, ReadableMap options, final Promise promise) {
+        resolveHistory(context, "getCalories", CALORIES, startDate, endDate, customInterval, options, promise);
+    }
+
+    public void getHeartRate(Context context, double startDate, double endDate, String customInterval, ReadableMap options, final Promise promise) {
+        resolveHistory(context, "getHeartRate", HEART_RATE, startDate, endDate, customInterval, options, promise);
+    }
+
+    public void getSummary(Context context, double startDate, double endDate, String customInterval, final int[] kinds, ReadableMap options, final Promise promise) {
+        final boolean columnar = isColumnar(options);
+        final long start = (long) startDate;
+        final long end = (long) endDate;
+        final CallMetrics call = new CallMetrics("getSummary");
+        final Interval interval = parseReadInterval(customInterval, call, promise);
+        if (interval == null) {
+            return;
+        }
+        final QueryRegistry.Query query = startQuery(options);
+        query.whileActive(readSummary(context, kinds, start, end, interval, getPriority(options, RequestScheduler.INTERACTIVE), query.getToken()), executor)
+                .addOnSuccessListener(executor, new OnSuccessListener<SparseArray<List<Sample>>>() {
+                    @Override
+                    public void onSuccess(SparseArray<List<Sample>> samples) {
+                        if (rejectIfCancelled(query, call, promise)) {
+                            return;
+                        }
+                        final long processStart = System.nanoTime();
+                        for (int kind : kinds) {
+                            call.add(MetricsStore.BUCKETS, samples.get(kind).size());
                         }
+                        if (columnar) {
+                            WritableMap result = processSummaryColumns(kinds, samples, start, end, interval);
+                            call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                            measurePayload(call, result);
+                            promise.resolve(result);
+                        } else {
+                            WritableArray result = processSummary(kinds, samples, start, end, interval);
+                            call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                            call.put(MetricsStore.ENTRIES, result.size());
+                            measurePayload(call, result);
+                            promise.resolve(result);
+                        }
+                        queries.finish(query);
+                        recordCall(call);
                     }
                 })
-                .addOnFailureListener(new OnFailureListener() {
+                .addOnFailureListener(executor, new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
-                        promise.reject(e);
-                    }
-                })
-                .addOnCompleteListener(new OnCompleteListener<DataReadResponse>() {
-                    @Override
-                    public void onComplete(@NonNull Task<DataReadResponse> task) {
+                        rejectQuery(query, call, promise, e);
                     }
                 });
     }
 
-     public void getHeartRate(Context context, double startDate, double endDate, String customInterval,final Promise promise) {
-        TimeUnit interval;
-        if(customInterval == "hour"){
-            interval = TimeUnit.HOURS;
-        }else{
-            interval = TimeUnit.DAYS;
+    /**
+     * Read {@code baseInterval} buckets once and derive every coarser interval from them locally.
+     */
+    public void getRollUps(Context context, final @Permission int kind, double startDate, double endDate, String baseInterval, final String[] intervals, ReadableMap options, final Promise promise) {
+        final boolean columnar = isColumnar(options);
+        final long start = (long) startDate;
+        final long end = (long) endDate;
+        final int maxPoints = getIntOption(options, "maxPoints", 0);
+        final String downsampling = getDownsampling(kind, options);
+        final Interval[] rollUps = new Interval[intervals.length];
+        final CallMetrics call = new CallMetrics("getRollUps");
+        final Interval base = parseReadInterval(baseInterval, call, promise);
+        if (base == null) {
+            return;
+        }
+        for (int i = 0; i < intervals.length; i++) {
+            try {
+                rollUps[i] = Interval.parse(intervals[i]);
+            } catch (IllegalArgumentException e) {
+                call.fail("InvalidInterval");
+                recordCall(call);
+                promise.reject("InvalidInterval", e.getMessage());
+                return;
+            }
+            // Months start at midnight, so only buckets of a day or less fall in a single one.
+            final boolean valid = base.isTime() && (rollUps[i].isMonth()
+                    ? base.millis <= TimeUnit.DAYS.toMillis(1)
+                    : rollUps[i].isTime() && rollUps[i].millis >= base.millis);
+            if (!valid) {
+                call.fail("InvalidInterval");
+                recordCall(call);
+                promise.reject("InvalidInterval", "Can't roll " + baseInterval + " buckets up to " + intervals[i]);
+                return;
+            }
         }
 
-        DataReadRequest readRequest = new DataReadRequest.Builder()
-                .aggregate(DataType.TYPE_HEART_RATE_BPM, DataType.AGGREGATE_HEART_RATE_SUMMARY)
-                .bucketByTime(1, interval)
-                .setTimeRange((long) startDate, (long) endDate, TimeUnit.MILLISECONDS)
-                .build();
-
-        Fitness.getHistoryClient(context, GoogleSignIn.getLastSignedInAccount(context))
-                .readData(readRequest)
-                .addOnSuccessListener(new OnSuccessListener<DataReadResponse>() {
-                    @Override
-                    public void onSuccess(DataReadResponse dataReadResponse) {
-                        if (dataReadResponse.getBuckets().size() > 0) {
-                            WritableArray heartRates = Arguments.createArray();
-                            for (Bucket bucket : dataReadResponse.getBuckets()) {
-                                List<DataSet> dataSets = bucket.getDataSets();
-                                for (DataSet dataSet : dataSets) {
-                                    processHeartRate(dataSet, heartRates);
-                                }
+        final QueryRegistry.Query query = startQuery(options);
+        query.whileActive(readHistory(context, kind, start, end, base, getPriority(options, RequestScheduler.INTERACTIVE), query.getToken()), executor)
+                .addOnSuccessListener(executor, new OnSuccessListener<List<Sample>>() {
+                    @Override
+                    public void onSuccess(List<Sample> samples) {
+                        if (rejectIfCancelled(query, call, promise)) {
+                            return;
+                        }
+                        final long processStart = System.nanoTime();
+                        call.put(MetricsStore.BUCKETS, samples.size());
+                        final SampleSeries fine = SampleSeries.fromSamples(samples);
+                        WritableMap result = Arguments.createMap();
+                        for (int i = 0; i < intervals.length; i++) {
+                            List<Sample> rolledUp;
+                            if (rollUps[i].isMonth()) {
+                                rolledUp = RollUp.rollUpByMonth(fine, start, end, rollUps[i].months, TimeZone.getDefault(), getRollUpMode(kind)).toSamples();
+                            } else if (rollUps[i].millis == base.millis) {
+                                rolledUp = samples;
+                            } else {
+                                rolledUp = RollUp.rollUp(fine, start, end, rollUps[i].millis, getRollUpMode(kind)).toSamples();
+                            }
+                            rolledUp = downsample(kind, rolledUp, maxPoints, downsampling);
+                            call.add(MetricsStore.ENTRIES, rolledUp.size());
+                            if (columnar) {
+                                result.putMap(intervals[i], processColumns(kind, rolledUp));
+                            } else {
+                                result.putArray(intervals[i], processSamples(kind, rolledUp));
                             }
-                            promise.resolve(heartRates);
                         }
+                        call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                        measurePayload(call, result);
+                        promise.resolve(result);
+                        queries.finish(query);
+                        recordCall(call);
                     }
                 })
-                .addOnFailureListener(new OnFailureListener() {
+                .addOnFailureListener(executor, new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
-                        promise.reject(e);
-                    }
-                })
-                .addOnCompleteListener(new OnCompleteListener<DataReadResponse>() {
-                    @Override
-                    public void onComplete(@NonNull Task<DataReadResponse> task) {
+                        rejectQuery(query, call, promise, e);
                     }
                 });
     }
 
-    // Get the most recent weight
-    public void getWeight(Context context, final Promise promise) {
-        Calendar calendar = Calendar.getInstance();
+    /**
+     * Re-read the buckets after the watermark carried by {@code token}, plus a window for late
+     * data, and return only the buckets which are new or changed since that sync, with a new
+     * token. Without a token, or with one older than the stored watermark, every bucket is
+     * returned.
+     */
+    public void syncSince(Context context, final @Permission int kind, String customInterval, String token, ReadableMap options, final Promise promise) {
+        final CallMetrics call = new CallMetrics("syncSince");
+        final Interval interval = parseReadInterval(customInterval, call, promise);
+        if (interval == null) {
+            return;
+        }
+        if (!interval.isTime()) {
+            call.fail("InvalidInterval");
+            recordCall(call);
+            promise.reject("InvalidInterval", "Sync needs fixed-duration buckets, got " + customInterval);
+            return;
+        }
+        final long bucketSize = interval.millis;
+        final long now = System.currentTimeMillis();
+        final long lateWindow = TimeUnit.HOURS.toMillis(Math.max(0, getIntOption(options, "lateWindowHours", DEFAULT_SYNC_LATE_WINDOW_HOURS)));
+        final long lateBuckets = (lateWindow + bucketSize - 1) / bucketSize;
+        final boolean columnar = isColumnar(options);
 
-        DataReadRequest readRequest = new DataReadRequest.Builder()
-                .read(DataType.TYPE_WEIGHT)
-                .setTimeRange(1, calendar.getTimeInMillis(), TimeUnit.MILLISECONDS)
-                .setLimit(1)
-                .build();
+        final String syncId = getStringOption(options, "syncId", DEFAULT_SYNC_ID);
+
+        final long readStart;
+        final boolean incremental;
+        if (token == null) {
+            readStart = alignToLocalBucket(options != null && options.hasKey("startDate")
+                    ? (long) options.getDouble("startDate")
+                    : now - TimeUnit.DAYS.toMillis(DEFAULT_SYNC_DAYS), bucketSize);
+            incremental = false;
+        } else {
+            final long since;
+            try {
+                since = parseSyncToken(token, kind, bucketSize);
+            } catch (IllegalArgumentException e) {
+                call.fail("InvalidSyncToken");
+                recordCall(call);
+                promise.reject("InvalidSyncToken", e);
+                return;
+            }
+            incremental = since == syncStore.getWatermark(syncId, kind, bucketSize);
+            // A token the store doesn't know restarts from an aligned bucket, an incremental one
+            // keeps the alignment of the buckets already synced.
+            readStart = incremental
+                    ? since - lateBuckets * bucketSize
+                    : alignToLocalBucket(since - lateBuckets * bucketSize, bucketSize);
+        }
+        final long watermark = readStart + Math.max(0, (now - readStart) / bucketSize) * bucketSize;
+        final Map<Long, Sample> previous = incremental
+                ? syncStore.getSynced(syncId, kind, bucketSize, readStart)
+                : new HashMap<Long, Sample>();
+        final TimeRange range = new TimeRange(readStart, Math.max(readStart, now));
 
-        Fitness.getHistoryClient(context, GoogleSignIn.getLastSignedInAccount(context))
-                .readData(readRequest)
-                .addOnSuccessListener(new OnSuccessListener<DataReadResponse>() {
+        readAggregate(context, kind, range, interval, getPriority(options, RequestScheduler.BACKGROUND), null)
+                .continueWith(executor, new Continuation<List<Sample>, WritableMap>() {
                     @Override
-                    public void onSuccess(DataReadResponse dataReadResponse) {
-                        WritableMap weightMap = Arguments.createMap();
+                    public WritableMap then(@NonNull Task<List<Sample>> task) throws Exception {
+                        List<Sample> samples = task.getResult(Exception.class);
+                        final long processStart = System.nanoTime();
+                        call.put(MetricsStore.BUCKETS, samples.size());
+                        bucketCache.store(kind, range, bucketSize, now, samples);
 
-                        if (!dataReadResponse.getDataSet(DataType.TYPE_WEIGHT).isEmpty()) {
-                            DataPoint result = dataReadResponse.getDataSet(DataType.TYPE_WEIGHT).getDataPoints().get(0);
-                            Double kilograms = (double) result.getValue(Field.FIELD_WEIGHT).asFloat();
+                        Map<Long, Sample> current = new HashMap<>();
+                        List<Sample> changed = new ArrayList<>();
+                        for (Sample sample : samples) {
+                            final long bucketStart = readStart + ((sample.startDate - readStart) / bucketSize) * bucketSize;
+                            current.put(bucketStart, sample);
+                            if (!isSameSample(previous.get(bucketStart), sample)) {
+                                changed.add(sample);
+                            }
+                        }
+                        WritableArray removed = Arguments.createArray();
+                        for (long bucketStart : new TreeMap<>(previous).keySet()) {
+                            if (!current.containsKey(bucketStart)) {
+                                removed.pushDouble(bucketStart);
+                            }
+                        }
+                        syncStore.commit(syncId, kind, bucketSize, readStart, current, watermark, watermark - lateBuckets * bucketSize);
 
-                            // Build the response using the returned weight in Kilograms.
-                            weightMap.putDouble("kilograms",kilograms);
-                            weightMap.putDouble("grams",(kilograms * 1000));
-                            weightMap.putDouble("pounds", (kilograms * 2.20462262185));
-                            weightMap.putDouble("startDate", result.getStartTime(TimeUnit.MILLISECONDS));
-                            weightMap.putDouble("endDate", result.getEndTime(TimeUnit.MILLISECONDS));
+                        WritableMap result = Arguments.createMap();
+                        if (columnar) {
+                            result.putMap("buckets", processColumns(kind, changed));
+                        } else {
+                            result.putArray("buckets", processSamples(kind, changed));
                         }
-                        // If weight was return the populated map, if not it will be empty.
-                        promise.resolve(weightMap);
+                        result.putArray("removed", removed);
+                        result.putBoolean("incremental", incremental);
+                        result.putString("token", kind + ":" + bucketSize + ":" + watermark);
+                        call.put(MetricsStore.ENTRIES, changed.size());
+                        call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                        return result;
                     }
                 })
-                .addOnFailureListener(new OnFailureListener() {
+                .addOnSuccessListener(executor, new OnSuccessListener<WritableMap>() {
                     @Override
-                    public void onFailure(@NonNull Exception e) {
-                        promise.reject(e);
+                    public void onSuccess(WritableMap result) {
+                        measurePayload(call, result);
+                        promise.resolve(result);
+                        recordCall(call);
                     }
                 })
-                .addOnCompleteListener(new OnCompleteListener<DataReadResponse>() {
+                .addOnFailureListener(executor, new OnFailureListener() {
                     @Override
-                    public void onComplete(@NonNull Task<DataReadResponse> task) {
+                    public void onFailure(@NonNull Exception e) {
+                        recordFailure(call, e);
+                        promise.reject(e);
                     }
                 });
     }
 
-    public void saveActivity(Context context, String activity, double startDate, double endDate, final Promise promise) {
-        DataSource dataSource = new DataSource.Builder()
-            .setAppPackageName(context)
-            .setDataType(DataType.TYPE_ACTIVITY_SEGMENT)
-            .setStreamName("save_activity_" + activity.replace(".","_"))
-            .setType(DataSource.TYPE_RAW)
-            .build();
+    /**
+     * Start of the bucket {@code time} falls in, counting buckets from local midnight, so day
+     * buckets start at midnight and hour buckets on the hour. Buckets of a day or more start at
+     * midnight.
+     */
+    private static long alignToLocalBucket(long time, long bucketSize) {
+        final long midnight = getStartOfDay(time);
+        if (bucketSize >= TimeUnit.DAYS.toMillis(1)) {
+            return midnight;
+        }
+        return midnight + ((time - midnight) / bucketSize) * bucketSize;
+    }
 
-        DataPoint dataPoint = DataPoint.builder(dataSource)
-                        .setTimeInterval((long) startDate, (long) endDate, TimeUnit.MILLISECONDS)
-                        .setActivityField(Field.FIELD_ACTIVITY, activity)
-                        .build();
+    private static long parseSyncToken(String token, @Permission int kind, long bucketSize) {
+        String[] parts = token.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Malformed sync token " + token);
+        }
+        try {
+            if (Integer.parseInt(parts[0]) != kind || Long.parseLong(parts[1]) != bucketSize) {
+                throw new IllegalArgumentException("Sync token " + token + " belongs to another metric or interval");
+            }
+            return Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed sync token " + token, e);
+        }
+    }
 
-        DataSet dataSet = DataSet.builder(dataSource).add(dataPoint).build();
+    private static boolean isSameSample(Sample previous, Sample sample) {
+        return previous != null
+                && previous.startDate == sample.startDate
+                && previous.endDate == sample.endDate
+                && previous.quantity == sample.quantity
+                && previous.min == sample.min
+                && previous.max == sample.max;
+    }
 
-        Fitness.getHistoryClient(context, GoogleSignIn.getLastSignedInAccount(context))
-                .insertData(dataSet)
-                .addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        promise.reject(e);
-                    }
-                })
-                .addOnCompleteListener(
-                        new OnCompleteListener<Void>() {
-                            @Override
-                            public void onComplete(@NonNull Task<Void> task) {
-                                if (task.isSuccessful()) {
-                                    // Data has been inserted and can be read.
-                                    promise.resolve(true);
-                                } else {
-                                    System.out.println("There was a problem inserting the DataSet." + task.getException());
-                                    promise.reject("SaveActivityError",task.getException());
-                                }
-                            }
-                        });
+    public void invalidateCache(final Promise promise) {
+        bucketCache.invalidate();
+        promise.resolve(true);
     }
 
-    private void processStep(DataSet dataSet, WritableArray map) {
+    public void getMetrics(final Promise promise) {
+        promise.resolve(processMetrics(metrics.snapshot()));
+    }
 
-        WritableMap stepMap = Arguments.createMap();
+    public void resetMetrics(final Promise promise) {
+        metrics.reset();
+        promise.resolve(true);
+    }
 
-        for (DataPoint dp : dataSet.getDataPoints()) {
-            for(Field field : dp.getDataType().getFields()) {
-                stepMap.putString("startDate", dateFormat.format(dp.getStartTime(TimeUnit.MILLISECONDS)));
-                stepMap.putString("endDate", dateFormat.format(dp.getEndTime(TimeUnit.MILLISECONDS)));
-                stepMap.putDouble("quantity", dp.getValue(field).asInt());
-                map.pushMap(stepMap);
+    /**
+     * Schedule {@link PreAggregationJobService}, replacing any previous schedule.
+     */
+    public void schedulePreAggregation(int[] kinds, ReadableMap options, final Promise promise) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            promise.reject("Unsupported", "Pre-aggregation needs JobScheduler, available from API 21");
+            return;
+        }
+        final String interval = getStringOption(options, "interval", DEFAULT_PRE_AGGREGATION_INTERVAL);
+        try {
+            if (!Interval.parse(interval).isTime()) {
+                promise.reject("InvalidInterval", "Pre-aggregation needs fixed-duration buckets, got " + interval);
+                return;
             }
+        } catch (IllegalArgumentException e) {
+            promise.reject("InvalidInterval", e.getMessage());
+            return;
         }
+        final boolean scheduled = PreAggregationJobService.schedule(context,
+                kinds.length > 0 ? kinds : PRE_AGGREGATION_KINDS,
+                Math.max(1, getIntOption(options, "days", DEFAULT_PRE_AGGREGATION_DAYS)),
+                interval,
+                TimeUnit.MINUTES.toMillis(getIntOption(options, "period", DEFAULT_PRE_AGGREGATION_PERIOD)),
+                getBooleanOption(options, "headless", false),
+                getBooleanOption(options, "requiresCharging", false));
+        promise.resolve(scheduled);
     }
 
-    private void processDistance(DataSet dataSet, WritableArray map) {
-
-        WritableMap distanceMap = Arguments.createMap();
-
-        for (DataPoint dp : dataSet.getDataPoints()) {
-            for(Field field : dp.getDataType().getFields()) {
-                distanceMap.putString("startDate", dateFormat.format(dp.getStartTime(TimeUnit.MILLISECONDS)));
-                distanceMap.putString("endDate", dateFormat.format(dp.getEndTime(TimeUnit.MILLISECONDS)));
-                distanceMap.putDouble("quantity", dp.getValue(field).asFloat());
-                map.pushMap(distanceMap);
-            }
+    public void cancelPreAggregation(final Promise promise) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PreAggregationJobService.cancel(context);
         }
+        PreAggregationStore.getInstance(context).clear();
+        promise.resolve(true);
     }
 
-    private void processCalories(DataSet dataSet, WritableArray map) {
+    public void getPreAggregated(final Promise promise) {
+        final JSONObject snapshot = PreAggregationStore.getInstance(context).load();
+        if (snapshot == null) {
+            promise.resolve(null);
+            return;
+        }
+        try {
+            promise.resolve(JsonArguments.toMap(snapshot));
+        } catch (JSONException e) {
+            promise.reject(e);
+        }
+    }
 
-        WritableMap caloryMap = Arguments.createMap();
+    /**
+     * Today's total of {@code kind} as last read or streamed, without any I/O.
+     */
+    public double getToday(@Permission int kind) {
+        return todayStore.get(kind, getStartOfDay(System.currentTimeMillis()));
+    }
 
-        for (DataPoint dp : dataSet.getDataPoints()) {
-            for(Field field : dp.getDataType().getFields()) {
-                caloryMap.putString("startDate", dateFormat.format(dp.getStartTime(TimeUnit.MILLISECONDS)));
-                caloryMap.putString("endDate", dateFormat.format(dp.getEndTime(TimeUnit.MILLISECONDS)));
-                caloryMap.putDouble("quantity", dp.getValue(field).asFloat());
-                map.pushMap(caloryMap);
-            }
+    public WritableMap getTodaySnapshot() {
+        final long today = getStartOfDay(System.currentTimeMillis());
+        WritableMap snapshot = Arguments.createMap();
+        snapshot.putDouble("date", today);
+        long updatedAt = 0;
+        for (int kind : TODAY_KINDS) {
+            snapshot.putDouble(getSummaryKey(kind), todayStore.get(kind, today));
+            updatedAt = Math.max(updatedAt, todayStore.getAsOf(kind, today));
         }
+        if (updatedAt > 0) {
+            snapshot.putDouble("updatedAt", updatedAt);
+        } else {
+            snapshot.putNull("updatedAt");
+        }
+        return snapshot;
     }
 
-    private void processHeartRate(DataSet dataSet, WritableArray map) {
-
-        WritableMap heartRateMap = Arguments.createMap();
+    /**
+     * Replace the goals and evaluate the daily ones against today's totals right away. Goals are
+     * only replaced once stored, a goal which can't be stored leaves the previous ones in place.
+     */
+    public void setGoals(ReadableArray items, final Promise promise) {
+        List<Goal> parsed = new ArrayList<>();
+        final List<Goal> previous = goals.getGoals();
+        final Map<String, Long> previousDays = goals.getReachedDays();
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                ReadableMap item = items.getMap(i);
+                final String id = item.getString("id");
+                final int kind = item.getInt("kind");
+                if (id == null) {
+                    throw new IllegalArgumentException("Goal " + i + " has no id");
+                }
+                if (kind == HEART_RATE) {
+                    parsed.add(Goal.heartRateAbove(id, item.getDouble("above"),
+                            TimeUnit.MINUTES.toMillis(getIntOption(item, "sustainedMinutes", DEFAULT_SUSTAINED_MINUTES))));
+                } else if (kind == STEP || kind == DISTANCE || kind == CALORIES) {
+                    parsed.add(Goal.dailyTotal(id, kind, item.getDouble("target")));
+                } else {
+                    throw new IllegalArgumentException("Unsupported goal kind " + kind);
+                }
+                final double threshold = parsed.get(parsed.size() - 1).threshold;
+                if (Double.isNaN(threshold) || Double.isInfinite(threshold)) {
+                    throw new IllegalArgumentException("Goal " + id + " has no finite threshold");
+                }
+            }
+            goals.setGoals(parsed);
+            goalStore.save(goals.getGoals(), goals.getReachedDays());
+        } catch (RuntimeException e) {
+            goals.setGoals(previous);
+            goals.restoreReachedDays(previousDays);
+            promise.reject("InvalidGoal", e);
+            return;
+        }
+        final long today = getStartOfDay(System.currentTimeMillis());
+        for (int kind : TODAY_KINDS) {
+            if (todayStore.getAsOf(kind, today) > 0) {
+                evaluateDailyGoals(kind, today);
+            }
+        }
+        promise.resolve(processGoals(goals.getGoals(), today));
+    }
+
+    public void getGoals(final Promise promise) {
+        promise.resolve(processGoals(goals.getGoals(), getStartOfDay(System.currentTimeMillis())));
+    }
+
+    public void refreshToday(final Promise promise) {
+        refreshToday()
+                .addOnSuccessListener(executor, new OnSuccessListener<SparseArray<List<Sample>>>() {
+                    @Override
+                    public void onSuccess(SparseArray<List<Sample>> samples) {
+                        promise.resolve(getTodaySnapshot());
+                    }
+                })
+                .addOnFailureListener(executor, new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        promise.reject(e);
+                    }
+                });
+    }
+
+    /**
+     * Read today so far in a single day bucket, which {@link #updateToday} picks up.
+     */
+    private Task<SparseArray<List<Sample>>> refreshToday() {
+        final long now = System.currentTimeMillis();
+        return readSummary(context, TODAY_KINDS, getStartOfDay(now), now, Interval.parse("day"), RequestScheduler.BACKGROUND, null);
+    }
+
+    /**
+     * Refresh today's totals every {@code minutes}, or stop refreshing them with 0. Like the timer,
+     * the refresh is process-wide: it replaces the one any Manager scheduled before, so a Manager
+     * created again on reload doesn't leave its predecessor refreshing too.
+     */
+    private void scheduleTodayRefresh(int minutes) {
+        synchronized (Manager.class) {
+            if (todayRefresh != null) {
+                todayRefresh.cancel(false);
+                todayRefresh = null;
+            }
+            if (minutes <= 0) {
+                return;
+            }
+            todayRefresh = timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (fitClients.getAccount() != null) {
+                            refreshToday();
+                        }
+                    } catch (RuntimeException e) {
+                        // An exception would cancel every later refresh
+                        Log.w(Manager.class.getName(), "Could not refresh today", e);
+                    }
+                }
+            }, 0, minutes, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Read the last {@code days} days, today included, so closed buckets land in the bucket cache
+     * and the whole summary in {@link PreAggregationStore}. Runs without a React context, so the
+     * summary is built as JSON rather than bridge maps. Reads still pending when {@code token} is
+     * cancelled are dropped and the task fails with a {@link CancellationException}.
+     */
+    public Task<JSONObject> preAggregate(final int[] kinds, int days, String customInterval, CancellationToken token) {
+        final Interval interval = Interval.parse(customInterval);
+        final Calendar calendar = Calendar.getInstance();
+        final long end = calendar.getTimeInMillis();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_YEAR, 1 - days);
+        final long start = calendar.getTimeInMillis();
+        final CallMetrics call = new CallMetrics("preAggregate");
+        return readSummary(context, kinds, start, end, interval, RequestScheduler.BACKGROUND, token)
+                .continueWith(executor, new Continuation<SparseArray<List<Sample>>, JSONObject>() {
+                    @Override
+                    public JSONObject then(@NonNull Task<SparseArray<List<Sample>>> task) throws Exception {
+                        if (!task.isSuccessful()) {
+                            recordFailure(call, task.getException());
+                        }
+                        SparseArray<List<Sample>> samples = task.getResult(Exception.class);
+                        final long processStart = System.nanoTime();
+                        JSONObject snapshot = processSnapshot(kinds, samples, start, end, interval);
+                        PreAggregationStore.getInstance(context).save(snapshot);
+                        call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                        recordCall(call);
+                        return snapshot;
+                    }
+                });
+    }
+
+    private void recordCall(CallMetrics call) {
+        metrics.record(call);
+        if (metricsEvents) {
+            sendEvent(METRICS_EVENT, processCallMetrics(call));
+        }
+    }
+
+    private void recordFailure(CallMetrics call, Exception e) {
+        call.fail(getErrorCode(e));
+        recordCall(call);
+    }
+
+    private static String getErrorCode(Exception e) {
+        if (e == null) {
+            return "Canceled";
+        }
+        if (e instanceof ApiException) {
+            return CommonStatusCodes.getStatusCodeString(((ApiException) e).getStatusCode());
+        }
+        if (e instanceof CancellationException) {
+            return "Canceled";
+        }
+        if (e instanceof TimeoutException) {
+            return "Timeout";
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    /**
+     * Serializing the result only to measure it isn't free, so it is done only when enabled.
+     */
+    private void measurePayload(CallMetrics call, WritableMap result) {
+        if (metricsPayload) {
+            call.put(MetricsStore.PAYLOAD_BYTES, new JSONObject(result.toHashMap()).toString().length());
+        }
+    }
+
+    private void measurePayload(CallMetrics call, WritableArray result) {
+        if (metricsPayload) {
+            call.put(MetricsStore.PAYLOAD_BYTES, new JSONArray(result.toArrayList()).toString().length());
+        }
+    }
+
+    private <T> Task<T> submitRead(TaskFactory<T> factory, int priority) {
+        return submitRead(factory, priority, null);
+    }
+
+    private <T> Task<T> submitRead(TaskFactory<T> factory, int priority, CancellationToken token) {
+        return submitCall(factory, priority, readRetries, token);
+    }
+
+    /**
+     * Writes are never retried, a failed insert may still have been stored.
+     */
+    private <T> Task<T> submitWrite(TaskFactory<T> factory) {
+        return submitCall(factory, RequestScheduler.INTERACTIVE, 0, null);
+    }
+
+    /**
+     * Run a Google Fit call through the shared scheduler, recording for every attempt how long
+     * it waited since submission and how long the round trip took. Calls cancelled while queued
+     * are never started.
+     */
+    private <T> Task<T> submitCall(final TaskFactory<T> factory, int priority, int retries, CancellationToken token) {
+        final long queuedAt = System.nanoTime();
+        return scheduler.submit(new TaskFactory<T>() {
+            @Override
+            public Task<T> create() {
+                final CallMetrics read = new CallMetrics(READ_OPERATION);
+                read.put(MetricsStore.QUEUE, CallMetrics.since(queuedAt));
+                final long fetchStart = System.nanoTime();
+                return factory.create().addOnCompleteListener(executor, new OnCompleteListener<T>() {
+                    @Override
+                    public void onComplete(@NonNull Task<T> task) {
+                        read.put(MetricsStore.FETCH, CallMetrics.since(fetchStart));
+                        if (!task.isSuccessful()) {
+                            read.fail(getErrorCode(task.getException()));
+                        }
+                        metrics.record(read);
+                    }
+                });
+            }
+        }, priority, retries, token);
+    }
+
+    private static int getPriority(ReadableMap options, int fallback) {
+        final String priority = getStringOption(options, "priority", null);
+        if (priority == null) {
+            return fallback;
+        }
+        return PRIORITY_BACKGROUND.equals(priority) ? RequestScheduler.BACKGROUND : RequestScheduler.INTERACTIVE;
+    }
+
+    /**
+     * Register the query of a history call under the {@code queryId} option, or a fresh id.
+     */
+    private QueryRegistry.Query startQuery(ReadableMap options) {
+        return queries.start(getStringOption(options, "queryId", String.valueOf(queryIds.incrementAndGet())),
+                getIntOption(options, "timeout", queryTimeout));
+    }
+
+    /**
+     * Reject a query cancelled after its data arrived, so it is never converted.
+     */
+    private boolean rejectIfCancelled(QueryRegistry.Query query, CallMetrics call, Promise promise) {
+        if (!query.isCancelled()) {
+            return false;
+        }
+        rejectQuery(query, call, promise, query.getCancellation());
+        return true;
+    }
+
+    /**
+     * Cancelled and timed out queries are rejected with the {@code Canceled} and {@code Timeout}
+     * codes, so callers can tell them from failures.
+     */
+    private void rejectQuery(QueryRegistry.Query query, CallMetrics call, Promise promise, Exception e) {
+        queries.finish(query);
+        recordFailure(call, e);
+        if (e instanceof CancellationException || e instanceof TimeoutException) {
+            promise.reject(getErrorCode(e), e);
+        } else {
+            promise.reject(e);
+        }
+    }
+
+    public void cancel(String queryId, Promise promise) {
+        promise.resolve(queries.cancel(queryId));
+    }
+
+    /**
+     * Parse the interval of a read, rejecting the call with {@code InvalidInterval} and returning
+     * null if it isn't one, or if it is a calendar month, which Google Fit can't bucket by.
+     */
+    private Interval parseReadInterval(String value, CallMetrics call, Promise promise) {
+        try {
+            final Interval interval = Interval.parse(value);
+            if (interval.isMonth()) {
+                throw new IllegalArgumentException("Month buckets are only available as roll-ups of day or finer buckets, see getRollUps");
+            }
+            return interval;
+        } catch (IllegalArgumentException e) {
+            call.fail("InvalidInterval");
+            recordCall(call);
+            promise.reject("InvalidInterval", e.getMessage());
+            return null;
+        }
+    }
+
+    private void resolveHistory(Context context, String operation, final @Permission int kind, double startDate, double endDate, String customInterval, ReadableMap options, final Promise promise) {
+        final boolean stream = getBooleanOption(options, "stream", false);
+        final int pageSize = Math.max(1, getIntOption(options, "pageSize", DEFAULT_PAGE_SIZE));
+        final boolean columnar = isColumnar(options);
+        final CallMetrics call = new CallMetrics(operation);
+        final Interval interval = parseReadInterval(customInterval, call, promise);
+        if (interval == null) {
+            return;
+        }
+        final int maxPoints = interval.isTime() ? getIntOption(options, "maxPoints", 0) : 0;
+        final String downsampling = getDownsampling(kind, options);
+        final QueryRegistry.Query query = startQuery(options);
+        query.whileActive(readHistory(context, kind, (long) startDate, (long) endDate, interval, getPriority(options, RequestScheduler.INTERACTIVE), query.getToken()), executor)
+                .addOnSuccessListener(executor, new OnSuccessListener<List<Sample>>() {
+                    @Override
+                    public void onSuccess(List<Sample> history) {
+                        if (rejectIfCancelled(query, call, promise)) {
+                            return;
+                        }
+                        final long processStart = System.nanoTime();
+                        final List<Sample> samples = downsample(kind, history, maxPoints, downsampling);
+                        call.put(MetricsStore.BUCKETS, history.size());
+                        call.put(MetricsStore.ENTRIES, samples.size());
+                        if (stream) {
+                            if (!streamSamples(kind, query, call, samples, pageSize, columnar, promise)) {
+                                return;
+                            }
+                            call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                        } else if (columnar) {
+                            WritableMap result = processColumns(kind, samples);
+                            call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                            measurePayload(call, result);
+                            promise.resolve(result);
+                        } else {
+                            WritableArray result = processSamples(kind, samples);
+                            call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                            measurePayload(call, result);
+                            promise.resolve(result);
+                        }
+                        queries.finish(query);
+                        recordCall(call);
+                    }
+                })
+                .addOnFailureListener(executor, new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        if (stream) {
+                            sendStreamError(query.id, e);
+                        }
+                        rejectQuery(query, call, promise, e);
+                    }
+                });
+    }
+
+    private void sendStreamError(String queryId, Exception e) {
+        WritableMap complete = Arguments.createMap();
+        complete.putString("queryId", queryId);
+        complete.putString("error", e.getMessage());
+        sendEvent(HISTORY_COMPLETE_EVENT, complete);
+    }
 
-        for (DataPoint dp : dataSet.getDataPoints()) {
-            for(Field field : dp.getDataType().getFields()) {
-                heartRateMap.putString("startDate", dateFormat.format(dp.getStartTime(TimeUnit.MILLISECONDS)));
-                heartRateMap.putString("endDate", dateFormat.format(dp.getEndTime(TimeUnit.MILLISECONDS)));
-                heartRateMap.putDouble("quantity", dp.getValue(field).asFloat());
-                map.pushMap(heartRateMap);
+    /**
+     * Emit the converted samples page by page, so neither side holds the whole converted array.
+     * A query cancelled in between stops before its next page and returns false.
+     */
+    private boolean streamSamples(@Permission int kind, QueryRegistry.Query query, CallMetrics call, List<Sample> samples, int pageSize, boolean columnar, Promise promise) {
+        final String queryId = query.id;
+        int pages = 0;
+        final int count = samples.size();
+        for (int from = 0; from < count; from += pageSize) {
+            if (query.isCancelled()) {
+                Exception e = query.getCancellation();
+                sendStreamError(queryId, e);
+                rejectQuery(query, call, promise, e);
+                return false;
+            }
+            WritableMap page = Arguments.createMap();
+            page.putString("queryId", queryId);
+            page.putInt("page", pages++);
+            List<Sample> pageSamples = samples.subList(from, Math.min(from + pageSize, count));
+            if (columnar) {
+                page.putMap("data", processColumns(kind, pageSamples));
+            } else {
+                page.putArray("data", processSamples(kind, pageSamples));
             }
+            sendEvent(HISTORY_PAGE_EVENT, page);
+        }
+
+        WritableMap complete = Arguments.createMap();
+        complete.putString("queryId", queryId);
+        complete.putInt("pages", pages);
+        complete.putInt("count", count);
+        sendEvent(HISTORY_COMPLETE_EVENT, complete);
+
+        WritableMap result = Arguments.createMap();
+        result.putString("queryId", queryId);
+        result.putInt("pages", pages);
+        result.putInt("count", count);
+        promise.resolve(result);
+        return true;
+    }
+
+    private boolean canSendEvents() {
+        return context instanceof ReactContext && ((ReactContext) context).hasActiveCatalystInstance();
+    }
+
+    private void sendEvent(String eventName, WritableMap params) {
+        if (canSendEvents()) {
+            ((ReactContext) context)
+                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                    .emit(eventName, params);
+        }
+    }
+
+    private static int getRollUpMode(@Permission int kind) {
+        return kind == HEART_RATE ? RollUp.AVERAGE : RollUp.SUM;
+    }
+
+    /**
+     * Heart rate keeps its min/max envelope by default, other metrics the shape of their quantity.
+     */
+    private static String getDownsampling(@Permission int kind, ReadableMap options) {
+        return getStringOption(options, "downsampling", kind == HEART_RATE ? DOWNSAMPLING_ENVELOPE : DOWNSAMPLING_LTTB);
+    }
+
+    private static List<Sample> downsample(@Permission int kind, List<Sample> samples, int maxPoints, String downsampling) {
+        if (maxPoints <= 0 || samples.size() <= maxPoints) {
+            return samples;
+        }
+        final SampleSeries series = SampleSeries.fromSamples(samples);
+        if (DOWNSAMPLING_ENVELOPE.equals(downsampling)) {
+            return Downsample.envelope(series, maxPoints, getRollUpMode(kind)).toSamples();
+        }
+        return Downsample.lttb(series, maxPoints).toSamples();
+    }
+
+    private static boolean isColumnar(ReadableMap options) {
+        return FORMAT_COLUMNAR.equals(getStringOption(options, "format", null));
+    }
+
+    private static boolean getBooleanOption(ReadableMap options, String key, boolean fallback) {
+        return options != null && options.hasKey(key) && !options.isNull(key) ? options.getBoolean(key) : fallback;
+    }
+
+    private static int getIntOption(ReadableMap options, String key, int fallback) {
+        return options != null && options.hasKey(key) && !options.isNull(key) ? options.getInt(key) : fallback;
+    }
+
+    private static String getStringOption(ReadableMap options, String key, String fallback) {
+        return options != null && options.hasKey(key) && !options.isNull(key) ? options.getString(key) : fallback;
+    }
+
+    /**
+     * A plain file name inside the export directory, never a path reaching out of it.
+     */
+    private static File resolveExportFile(File directory, String fileName) throws IOException {
+        if (fileName.isEmpty() || fileName.equals(".") || fileName.equals("..")
+                || fileName.indexOf('/') >= 0 || fileName.indexOf('\\') >= 0 || fileName.indexOf('\0') >= 0) {
+            throw new IllegalArgumentException("Invalid export file name " + fileName);
+        }
+        final File file = new File(directory, fileName);
+        if (!directory.getCanonicalFile().equals(file.getCanonicalFile().getParentFile())) {
+            throw new IllegalArgumentException("Invalid export file name " + fileName);
+        }
+        return file;
+    }
+
+    /**
+     * Identical queries issued while one is still running share its result. Queries of another
+     * priority don't, so an interactive one never waits in the background queue.
+     */
+    private Task<List<Sample>> readHistory(final Context context, final @Permission int kind, final long startDate, final long endDate, final Interval interval, final int priority, CancellationToken token) {
+        final String key = kind + ":" + startDate + ":" + endDate + ":" + interval + ":" + priority;
+        return historyTasks.run(key, token, new CancellableTaskFactory<List<Sample>>() {
+            @Override
+            public Task<List<Sample>> create(CancellationToken token) {
+                if (!interval.isTime()) {
+                    return readAggregate(context, kind, new TimeRange(startDate, endDate), interval, priority, token);
+                }
+                return readCachedHistory(context, kind, startDate, endDate, interval, priority, token);
+            }
+        });
+    }
+
+    /**
+     * Read aggregated buckets, answering closed buckets from the cache and reading only the gaps.
+     */
+    private Task<List<Sample>> readCachedHistory(Context context, final @Permission int kind, final long startDate, final long endDate, final Interval interval, int priority, CancellationToken token) {
+        final long bucketSize = interval.millis;
+        final long now = System.currentTimeMillis();
+        final BucketCache.Lookup lookup = bucketCache.lookup(kind, startDate, endDate, bucketSize, now);
+        if (lookup.gaps.isEmpty()) {
+            onHistoryRead(kind, startDate, endDate, interval, lookup.samples);
+            return Tasks.forResult(lookup.samples);
+        }
+
+        List<Task<List<Sample>>> gapTasks = new ArrayList<>();
+        for (final TimeRange gap : lookup.gaps) {
+            gapTasks.add(readAggregate(context, kind, gap, interval, priority, token)
+                    .continueWith(executor, new Continuation<List<Sample>, List<Sample>>() {
+                        @Override
+                        public List<Sample> then(@NonNull Task<List<Sample>> task) throws Exception {
+                            List<Sample> samples = task.getResult(Exception.class);
+                            bucketCache.store(kind, gap, bucketSize, now, samples);
+                            return samples;
+                        }
+                    }));
+        }
+
+        return Tasks.<List<Sample>>whenAllSuccess(gapTasks)
+                .continueWith(executor, new Continuation<List<List<Sample>>, List<Sample>>() {
+                    @Override
+                    public List<Sample> then(@NonNull Task<List<List<Sample>>> task) throws Exception {
+                        List<Sample> merged = new ArrayList<>(lookup.samples);
+                        for (List<Sample> gapSamples : task.getResult(Exception.class)) {
+                            merged.addAll(gapSamples);
+                        }
+                        Collections.sort(merged, SAMPLE_ORDER);
+                        onHistoryRead(kind, startDate, endDate, interval, merged);
+                        return merged;
+                    }
+                });
+    }
+
+    /**
+     * Feed the today snapshot and the goals from history just read.
+     */
+    private void onHistoryRead(@Permission int kind, long startDate, long endDate, Interval interval, List<Sample> samples) {
+        if (!interval.isTime()) {
+            return;
+        }
+        if (kind == HEART_RATE) {
+            evaluateHeartRate(interval, samples);
+        } else {
+            updateToday(kind, startDate, endDate, interval, samples);
+        }
+    }
+
+    /**
+     * Only recent buckets short enough to tell a sustained rate are evaluated, so reading old
+     * history doesn't replay crossings.
+     */
+    private void evaluateHeartRate(Interval interval, List<Sample> samples) {
+        if (interval.millis > HEART_RATE_GOAL_WINDOW) {
+            return;
+        }
+        final long from = System.currentTimeMillis() - HEART_RATE_GOAL_WINDOW;
+        for (Sample sample : samples) {
+            if (sample.endDate >= from) {
+                dispatchGoalCrossings(goals.onHeartRate(sample.startDate, sample.endDate, sample.quantity));
+            }
+        }
+    }
+
+    /**
+     * Take today's total from a read covering the day so far in buckets aligned on midnight.
+     */
+    private void updateToday(@Permission int kind, long startDate, long endDate, Interval interval, List<Sample> samples) {
+        if (kind != STEP && kind != DISTANCE && kind != CALORIES) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long today = getStartOfDay(now);
+        if (startDate > today || endDate <= today || (today - startDate) % interval.millis != 0) {
+            return;
+        }
+        double total = 0;
+        for (Sample sample : samples) {
+            if (sample.startDate >= today) {
+                total += sample.quantity;
+            }
+        }
+        todayStore.update(kind, today, total, Math.min(endDate, now));
+        evaluateDailyGoals(kind, today);
+    }
+
+    private void evaluateDailyGoals(@Permission int kind, long day) {
+        dispatchGoalCrossings(goals.onDailyTotal(kind, day, todayStore.get(kind, day), todayStore.getAsOf(kind, day)));
+    }
+
+    private void dispatchGoalCrossings(List<GoalCrossing> crossings) {
+        if (crossings.isEmpty()) {
+            return;
+        }
+        goalStore.save(goals.getGoals(), goals.getReachedDays());
+        if (!canSendEvents()) {
+            return;
+        }
+        for (GoalCrossing crossing : crossings) {
+            sendEvent(GOAL_EVENT, processGoalCrossing(crossing));
+        }
+    }
+
+    private static long getStartOfDay(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Read several metrics with a single request. Closed buckets before the first gap of any
+     * metric come from the cache, everything after it is read in one round trip. Activity and
+     * session buckets are never cached.
+     */
+    private Task<SparseArray<List<Sample>>> readSummary(Context context, final int[] kinds, final long startDate, final long endDate, final Interval interval, int priority, CancellationToken token) {
+        if (!interval.isTime()) {
+            return readAggregates(context, kinds, new TimeRange(startDate, endDate), interval, priority, token);
+        }
+        final long bucketSize = interval.millis;
+        final long now = System.currentTimeMillis();
+        final SparseArray<List<Sample>> cached = new SparseArray<>();
+        long gapStart = endDate;
+        for (int kind : kinds) {
+            BucketCache.Lookup lookup = bucketCache.lookup(kind, startDate, endDate, bucketSize, now);
+            cached.put(kind, lookup.samples);
+            if (!lookup.gaps.isEmpty()) {
+                gapStart = Math.min(gapStart, lookup.gaps.get(0).start);
+            }
+        }
+        if (gapStart >= endDate) {
+            for (int kind : kinds) {
+                onHistoryRead(kind, startDate, endDate, interval, cached.get(kind));
+            }
+            return Tasks.forResult(cached);
+        }
+
+        final TimeRange range = new TimeRange(gapStart, endDate);
+        return readAggregates(context, kinds, range, interval, priority, token)
+                .continueWith(executor, new Continuation<SparseArray<List<Sample>>, SparseArray<List<Sample>>>() {
+                    @Override
+                    public SparseArray<List<Sample>> then(@NonNull Task<SparseArray<List<Sample>>> task) throws Exception {
+                        SparseArray<List<Sample>> fetched = task.getResult(Exception.class);
+                        SparseArray<List<Sample>> merged = new SparseArray<>();
+                        for (int kind : kinds) {
+                            List<Sample> samples = new ArrayList<>();
+                            for (Sample sample : cached.get(kind)) {
+                                if (sample.startDate < range.start) {
+                                    samples.add(sample);
+                                }
+                            }
+                            bucketCache.store(kind, range, bucketSize, now, fetched.get(kind));
+                            samples.addAll(fetched.get(kind));
+                            onHistoryRead(kind, startDate, endDate, interval, samples);
+                            merged.put(kind, samples);
+                        }
+                        return merged;
+                    }
+                });
+    }
+
+    private Task<List<Sample>> readAggregate(Context context, final @Permission int kind, TimeRange range, Interval interval, int priority, CancellationToken token) {
+        return readAggregates(context, new int[]{ kind }, range, interval, priority, token)
+                .continueWith(executor, new Continuation<SparseArray<List<Sample>>, List<Sample>>() {
+                    @Override
+                    public List<Sample> then(@NonNull Task<SparseArray<List<Sample>>> task) throws Exception {
+                        return task.getResult(Exception.class).get(kind);
+                    }
+                });
+    }
+
+    private Task<SparseArray<List<Sample>>> readAggregates(final Context context, final int[] kinds, final TimeRange range, final Interval interval, final int priority, CancellationToken token) {
+        final String key = Arrays.toString(kinds) + ":" + range.start + ":" + range.end + ":" + interval + ":" + priority;
+        return aggregateTasks.run(key, token, new CancellableTaskFactory<SparseArray<List<Sample>>>() {
+            @Override
+            public Task<SparseArray<List<Sample>>> create(CancellationToken token) {
+                return fetchAggregates(context, kinds, range, interval, priority, token);
+            }
+        });
+    }
+
+    /**
+     * Split long ranges into windows of at most {@code maxBucketsPerRead} buckets, read them with
+     * bounded concurrency, retrying each window on its own, and stitch the buckets back in order.
+     * Activity and session buckets can't be split without cutting segments, so they are read whole.
+     */
+    private Task<SparseArray<List<Sample>>> fetchAggregates(Context context, final int[] kinds, TimeRange range, Interval interval, int priority, CancellationToken token) {
+        final long window = interval.isTime() ? interval.millis * maxBucketsPerRead : range.end - range.start;
+        List<Task<SparseArray<List<Sample>>>> chunkTasks = new ArrayList<>();
+        for (long chunkStart = range.start; chunkStart < range.end; chunkStart += window) {
+            TimeRange chunk = new TimeRange(chunkStart, Math.min(chunkStart + window, range.end));
+            chunkTasks.add(fetchChunk(kinds, chunk, interval, priority, token));
+        }
+
+        return Tasks.<SparseArray<List<Sample>>>whenAllSuccess(chunkTasks)
+                .continueWith(executor, new Continuation<List<SparseArray<List<Sample>>>, SparseArray<List<Sample>>>() {
+                    @Override
+                    public SparseArray<List<Sample>> then(@NonNull Task<List<SparseArray<List<Sample>>>> task) throws Exception {
+                        SparseArray<List<Sample>> stitched = new SparseArray<>();
+                        for (int kind : kinds) {
+                            stitched.put(kind, new ArrayList<Sample>());
+                        }
+                        for (SparseArray<List<Sample>> chunk : task.getResult(Exception.class)) {
+                            for (int kind : kinds) {
+                                stitched.get(kind).addAll(chunk.get(kind));
+                            }
+                        }
+                        return stitched;
+                    }
+                });
+    }
+
+    private Task<SparseArray<List<Sample>>> fetchChunk(final int[] kinds, final TimeRange chunk, final Interval interval, int priority, CancellationToken token) {
+        return submitRead(new TaskFactory<SparseArray<List<Sample>>>() {
+            @Override
+            public Task<SparseArray<List<Sample>>> create() {
+                return backend.readAggregates(kinds, chunk, interval, executor);
+            }
+        }, priority, token);
+    }
+
+    /**
+     * Export {@code kinds} to a file one chunk of {@code maxBucketsPerRead} buckets at a time, each
+     * chunk written out before the next one is read, so memory doesn't grow with the range.
+     * Progress is emitted after every chunk and only the path of the file goes back to JS.
+     */
+    public void exportHistory(Context context, final int[] kinds, double startDate, double endDate, String customInterval, ReadableMap options, final Promise promise) {
+        final long start = (long) startDate;
+        final long end = (long) endDate;
+        final String format = getStringOption(options, "format", ExportWriter.NDJSON);
+        final boolean gzip = getBooleanOption(options, "gzip", true);
+        final CallMetrics call = new CallMetrics("exportHistory");
+        final Interval interval = parseReadInterval(customInterval, call, promise);
+        if (interval == null) {
+            return;
+        }
+        final File file;
+        final File part;
+        final ExportWriter writer;
+        try {
+            if (!interval.isTime() || kinds.length == 0 || end <= start) {
+                throw new IllegalArgumentException("An export needs kinds, a time interval and a non-empty range");
+            }
+            for (int kind : kinds) {
+                getSummaryKey(kind);
+            }
+            final File directory = new File(context.getFilesDir(), EXPORT_DIRECTORY);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create " + directory);
+            }
+            file = resolveExportFile(directory, getStringOption(options, "fileName",
+                    "fitness-" + start + "-" + end + "." + format + (gzip ? ".gz" : "")));
+            part = new File(file.getPath() + ".part");
+            writer = new ExportWriter(part, format, gzip, (DateFormat) SampleFormat.getDateFormat().clone());
+        } catch (IllegalArgumentException | IOException e) {
+            call.fail("InvalidExport");
+            recordCall(call);
+            promise.reject("InvalidExport", e);
+            return;
+        }
+
+        // No timeout by default, a full history export can take much longer than a query.
+        final QueryRegistry.Query query = queries.start(getStringOption(options, "queryId", String.valueOf(queryIds.incrementAndGet())),
+                getIntOption(options, "timeout", 0));
+        exportChunks(kinds, start, start, end, interval, writer, query, call)
+                .addOnCompleteListener(executor, new OnCompleteListener<Long>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Long> task) {
+                        Exception error = null;
+                        if (!task.isSuccessful() || query.isCancelled()) {
+                            error = task.getException() != null ? task.getException() : query.getCancellation();
+                        }
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            if (error == null) {
+                                error = e;
+                            }
+                        }
+                        if (error == null && !part.renameTo(file)) {
+                            error = new IOException("Can't move the export to " + file);
+                        }
+                        if (error != null) {
+                            part.delete();
+                            rejectQuery(query, call, promise, error);
+                            return;
+                        }
+                        call.put(MetricsStore.ENTRIES, task.getResult());
+                        call.put(MetricsStore.PAYLOAD_BYTES, file.length());
+                        queries.finish(query);
+                        promise.resolve(file.getAbsolutePath());
+                        recordCall(call);
+                    }
+                });
+    }
+
+    private Task<Long> exportChunks(final int[] kinds, final long start, final long chunkStart, final long end, final Interval interval,
+                                    final ExportWriter writer, final QueryRegistry.Query query, final CallMetrics call) {
+        if (chunkStart >= end) {
+            return Tasks.forResult(writer.getRows());
+        }
+        final long chunkEnd = Math.min(chunkStart + interval.millis * maxBucketsPerRead, end);
+        return fetchChunk(kinds, new TimeRange(chunkStart, chunkEnd), interval, RequestScheduler.BACKGROUND, query.getToken())
+                .continueWithTask(executor, new Continuation<SparseArray<List<Sample>>, Task<Long>>() {
+                    @Override
+                    public Task<Long> then(@NonNull Task<SparseArray<List<Sample>>> task) throws Exception {
+                        SparseArray<List<Sample>> samples = task.getResult(Exception.class);
+                        if (query.isCancelled()) {
+                            throw query.getCancellation();
+                        }
+                        for (int kind : kinds) {
+                            final String key = getSummaryKey(kind);
+                            for (Sample sample : samples.get(kind)) {
+                                writer.write(key, sample);
+                            }
+                            call.add(MetricsStore.BUCKETS, samples.get(kind).size());
+                        }
+                        sendExportProgress(query.id, start, chunkEnd, end, writer.getRows());
+                        return exportChunks(kinds, start, chunkEnd, end, interval, writer, query, call);
+                    }
+                });
+    }
+
+    private void sendExportProgress(String queryId, long start, long done, long end, long rows) {
+        if (!canSendEvents()) {
+            return;
+        }
+        WritableMap progress = Arguments.createMap();
+        progress.putString("queryId", queryId);
+        progress.putDouble("progress", (done - start) / (double) (end - start));
+        progress.putString("endDate", SampleFormat.getDateFormat().format(done));
+        progress.putDouble("rows", rows);
+        sendEvent(EXPORT_PROGRESS_EVENT, progress);
+    }
+
+    /**
+     * Read raw data points page by page, newest first. The cursor is the end time of the last
+     * point returned plus how many points with that end time were already returned, since
+     * several points can share it.
+     */
+    public void readSamples(Context context, final @Permission int kind, double startDate, double endDate, ReadableMap options, final Promise promise) {
+        final int pageSize = Math.max(1, getIntOption(options, "pageSize", DEFAULT_RAW_PAGE_SIZE));
+        final String cursor = getStringOption(options, "cursor", null);
+        final CallMetrics call = new CallMetrics("readSamples");
+        final long cursorTime;
+        final int cursorSkip;
+        try {
+            if (cursor == null) {
+                cursorTime = NO_CURSOR;
+                cursorSkip = 0;
+            } else {
+                String[] parts = cursor.split(":");
+                cursorTime = Long.parseLong(parts[0]);
+                cursorSkip = Integer.parseInt(parts[1]);
+            }
+            if (kind < STEP || kind > WEIGHT) {
+                throw new IllegalArgumentException("Unsupported sample kind " + kind);
+            }
+        } catch (RuntimeException e) {
+            call.fail("InvalidSampleRequest");
+            recordCall(call);
+            promise.reject("InvalidSampleRequest", e);
+            return;
+        }
+
+        readRawPage(context, kind, (long) startDate, (long) endDate, cursorTime, cursorSkip, pageSize, pageSize + cursorSkip, getPriority(options, RequestScheduler.INTERACTIVE), 0)
+                .addOnSuccessListener(executor, new OnSuccessListener<WritableMap>() {
+                    @Override
+                    public void onSuccess(WritableMap page) {
+                        measurePayload(call, page);
+                        promise.resolve(page);
+                        recordCall(call);
+                    }
+                })
+                .addOnFailureListener(executor, new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        recordFailure(call, e);
+                        promise.reject(e);
+                    }
+                });
+    }
+
+    private Task<WritableMap> readRawPage(final Context context, final @Permission int kind, final long startDate, final long endDate,
+                                          final long cursorTime, final int cursorSkip, final int pageSize, final int limit, final int priority, final int attempt) {
+        final TimeRange range = new TimeRange(startDate, cursorTime == NO_CURSOR ? endDate : Math.min(endDate, cursorTime + 1));
+        return submitRead(new TaskFactory<List<Sample>>() {
+            @Override
+            public Task<List<Sample>> create() {
+                return backend.readRaw(kind, range, limit, executor);
+            }
+        }, priority).continueWithTask(executor, new Continuation<List<Sample>, Task<WritableMap>>() {
+            @Override
+            public Task<WritableMap> then(@NonNull Task<List<Sample>> task) throws Exception {
+                List<Sample> points = new ArrayList<>(task.getResult(Exception.class));
+                Collections.sort(points, RAW_SAMPLE_ORDER);
+
+                List<Sample> page = new ArrayList<>();
+                int skipped = 0;
+                int remaining = 0;
+                for (Sample point : points) {
+                    if (cursorTime != NO_CURSOR && (point.endDate > cursorTime || (point.endDate == cursorTime && skipped++ < cursorSkip))) {
+                        continue;
+                    }
+                    if (page.size() < pageSize) {
+                        page.add(point);
+                    } else {
+                        remaining++;
+                    }
+                }
+
+                final boolean truncated = points.size() >= limit;
+                if (page.isEmpty() && truncated && attempt < MAX_RAW_PAGE_ATTEMPTS) {
+                    return readRawPage(context, kind, startDate, endDate, cursorTime, cursorSkip, pageSize, limit * 2, priority, attempt + 1);
+                }
+
+                WritableMap result = Arguments.createMap();
+                result.putArray("samples", processRawPoints(kind, page));
+                if (!page.isEmpty() && (remaining > 0 || truncated)) {
+                    final long lastTime = page.get(page.size() - 1).endDate;
+                    int nextSkip = lastTime == cursorTime ? cursorSkip : 0;
+                    for (Sample point : page) {
+                        if (point.endDate == lastTime) {
+                            nextSkip++;
+                        }
+                    }
+                    result.putString("cursor", lastTime + ":" + nextSkip);
+                } else {
+                    result.putNull("cursor");
+                }
+                return Tasks.forResult(result);
+            }
+        });
+    }
+
+    /**
+     * Read sessions newest first, one page of at most {@code pageSize} at a time, each with the
+     * totals of {@code kinds} during the session. Sessions are listed in a window going back from
+     * the cursor, widened until it holds the page, so a page doesn't list the whole range. Totals
+     * come from one aggregated read bucketed by session, so Google Fit merges the data of every
+     * source tracking the same session. The cursor works as in {@link #readSamples}, on session
+     * start times.
+     */
+    public void readSessions(final Context context, double startDate, double endDate, final int[] kinds, ReadableMap options, final Promise promise) {
+        final int pageSize = Math.max(1, getIntOption(options, "pageSize", DEFAULT_SESSION_PAGE_SIZE));
+        final String cursor = getStringOption(options, "cursor", null);
+        final int priority = getPriority(options, RequestScheduler.INTERACTIVE);
+        final CallMetrics call = new CallMetrics("readSessions");
+        final long start = (long) startDate;
+        final long cursorTime;
+        final int cursorSkip;
+        try {
+            if (cursor == null) {
+                cursorTime = NO_CURSOR;
+                cursorSkip = 0;
+            } else {
+                String[] parts = cursor.split(":");
+                cursorTime = Long.parseLong(parts[0]);
+                cursorSkip = Integer.parseInt(parts[1]);
+            }
+            for (int kind : kinds) {
+                getSummaryKey(kind);
+            }
+        } catch (RuntimeException e) {
+            call.fail("InvalidSessionRequest");
+            recordCall(call);
+            promise.reject("InvalidSessionRequest", e);
+            return;
+        }
+        final long end = cursorTime == NO_CURSOR ? (long) endDate : Math.min((long) endDate, cursorTime + 1);
+
+        final List<SessionInfo> page = new ArrayList<>();
+        final boolean[] hasMore = new boolean[1];
+        listSessions(start, end, SESSION_LIST_WINDOW, pageSize + cursorSkip + 1, priority)
+                .continueWithTask(executor, new Continuation<List<SessionInfo>, Task<SparseArray<List<Sample>>>>() {
+                    @Override
+                    public Task<SparseArray<List<Sample>>> then(@NonNull Task<List<SessionInfo>> task) throws Exception {
+                        int skipped = 0;
+                        for (SessionInfo session : task.getResult(Exception.class)) {
+                            final long sessionStart = session.startDate;
+                            if (cursorTime != NO_CURSOR && (sessionStart > cursorTime
+                                    || (sessionStart == cursorTime && skipped++ < cursorSkip))) {
+                                continue;
+                            }
+                            if (page.size() == pageSize) {
+                                hasMore[0] = true;
+                                break;
+                            }
+                            page.add(session);
+                        }
+                        if (page.isEmpty() || kinds.length == 0) {
+                            return Tasks.forResult(null);
+                        }
+
+                        long dataStart = Long.MAX_VALUE;
+                        long dataEnd = 0;
+                        final long now = System.currentTimeMillis();
+                        for (SessionInfo session : page) {
+                            dataStart = Math.min(dataStart, session.startDate);
+                            dataEnd = Math.max(dataEnd, session.isActive() ? now : session.endDate);
+                        }
+                        return readAggregates(context, kinds, new TimeRange(dataStart, Math.max(dataStart + 1, dataEnd)),
+                                Interval.parse("session"), priority, null);
+                    }
+                }).continueWith(executor, new Continuation<SparseArray<List<Sample>>, WritableMap>() {
+                    @Override
+                    public WritableMap then(@NonNull Task<SparseArray<List<Sample>>> task) throws Exception {
+                        final SparseArray<List<Sample>> buckets = task.getResult(Exception.class);
+                        final long processStart = System.nanoTime();
+                        List<SessionSummary> summaries = new ArrayList<>();
+                        for (SessionInfo session : page) {
+                            summaries.add(new SessionSummary(session));
+                        }
+                        if (buckets != null) {
+                            for (int kind : kinds) {
+                                for (Sample bucket : buckets.get(kind)) {
+                                    SessionSummary summary = findSession(summaries, bucket);
+                                    if (summary != null) {
+                                        summary.add(kind, bucket);
+                                    }
+                                }
+                                call.add(MetricsStore.BUCKETS, buckets.get(kind).size());
+                            }
+                        }
+
+                        WritableMap result = Arguments.createMap();
+                        result.putArray("sessions", processSessions(kinds, summaries));
+                        if (hasMore[0]) {
+                            final long lastStart = page.get(page.size() - 1).startDate;
+                            int sameStart = 0;
+                            for (SessionInfo session : page) {
+                                if (session.startDate == lastStart) {
+                                    sameStart++;
+                                }
+                            }
+                            final int skip = lastStart == cursorTime ? cursorSkip + sameStart : sameStart;
+                            result.putString("cursor", lastStart + ":" + skip);
+                        } else {
+                            result.putNull("cursor");
+                        }
+                        call.put(MetricsStore.ENTRIES, summaries.size());
+                        call.put(MetricsStore.PROCESS, CallMetrics.since(processStart));
+                        return result;
+                    }
+                }).addOnSuccessListener(executor, new OnSuccessListener<WritableMap>() {
+                    @Override
+                    public void onSuccess(WritableMap result) {
+                        measurePayload(call, result);
+                        promise.resolve(result);
+                        recordCall(call);
+                    }
+                }).addOnFailureListener(executor, new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        recordFailure(call, e);
+                        promise.reject(e);
+                    }
+                });
+    }
+
+    /**
+     * The session a bucket bucketed by session belongs to, by identifier since overlapping
+     * sessions can share a name. Sessions outside the page are not found.
+     */
+    private static SessionSummary findSession(List<SessionSummary> summaries, Sample bucket) {
+        if (bucket.sessionId == null) {
+            return null;
+        }
+        for (SessionSummary summary : summaries) {
+            if (bucket.sessionId.equals(summary.session.id)) {
+                return summary;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sessions starting in {@code [start, end)}, newest first, read in a window going back from
+     * {@code end} which doubles until it holds at least {@code limit} sessions or reaches
+     * {@code start}. Sessions starting before the window are left for a wider one, so the
+     * sessions returned are always the newest ones.
+     */
+    private Task<List<SessionInfo>> listSessions(final long start, final long end, final long window, final int limit, final int priority) {
+        final long windowStart = Math.max(start, end - window);
+        final TimeRange range = new TimeRange(windowStart, Math.max(windowStart + 1, end));
+        return submitRead(new TaskFactory<List<SessionInfo>>() {
+            @Override
+            public Task<List<SessionInfo>> create() {
+                return backend.readSessions(range, executor);
+            }
+        }, priority).continueWithTask(executor, new Continuation<List<SessionInfo>, Task<List<SessionInfo>>>() {
+            @Override
+            public Task<List<SessionInfo>> then(@NonNull Task<List<SessionInfo>> task) throws Exception {
+                List<SessionInfo> sessions = new ArrayList<>();
+                for (SessionInfo session : task.getResult(Exception.class)) {
+                    if (session.startDate >= windowStart && session.startDate < end) {
+                        sessions.add(session);
+                    }
+                }
+                if (sessions.size() < limit && windowStart > start) {
+                    return listSessions(start, end, window * 2, limit, priority);
+                }
+                Collections.sort(sessions, SESSION_ORDER);
+                return Tasks.forResult(sessions);
+            }
+        });
+    }
+
+    private static WritableArray processSessions(int[] kinds, List<SessionSummary> summaries) {
+        WritableArray array = Arguments.createArray();
+        for (SessionSummary summary : summaries) {
+            final SessionInfo session = summary.session;
+            WritableMap map = Arguments.createMap();
+            map.putString("id", session.id);
+            map.putString("name", session.name);
+            map.putString("description", session.description);
+            map.putString("activity", session.activity);
+            map.putString("appPackage", session.appPackage);
+            map.putString("startDate", SampleFormat.getDateFormat().format(session.startDate));
+            if (session.isActive()) {
+                map.putNull("endDate");
+            } else {
+                map.putString("endDate", SampleFormat.getDateFormat().format(session.endDate));
+            }
+            for (int kind : kinds) {
+                final String key = getSummaryKey(kind);
+                if (!summary.hasData(kind)) {
+                    map.putNull(key);
+                } else if (kind == HEART_RATE) {
+                    WritableMap heartRate = Arguments.createMap();
+                    heartRate.putDouble("quantity", summary.getQuantity(kind));
+                    heartRate.putDouble("min", summary.getMin(kind));
+                    heartRate.putDouble("max", summary.getMax(kind));
+                    map.putMap(key, heartRate);
+                } else {
+                    map.putDouble(key, summary.getQuantity(kind));
+                }
+            }
+            array.pushMap(map);
+        }
+        return array;
+    }
+
+    // Get the most recent weight
+    public void getWeight(Context context, final Promise promise) {
+        final TimeRange range = new TimeRange(1, System.currentTimeMillis());
+        final CallMetrics call = new CallMetrics("getWeight");
+        submitRead(new TaskFactory<List<Sample>>() {
+            @Override
+            public Task<List<Sample>> create() {
+                return backend.readRaw(WEIGHT, range, 1, executor);
+            }
+        }, RequestScheduler.INTERACTIVE)
+                .addOnSuccessListener(executor, new OnSuccessListener<List<Sample>>() {
+                    @Override
+                    public void onSuccess(List<Sample> weights) {
+                        WritableMap weightMap = Arguments.createMap();
+
+                        if (!weights.isEmpty()) {
+                            Sample result = weights.get(0);
+                            final double kilograms = result.quantity;
+
+                            // Build the response using the returned weight in Kilograms.
+                            weightMap.putDouble("kilograms",kilograms);
+                            weightMap.putDouble("grams",(kilograms * 1000));
+                            weightMap.putDouble("pounds", (kilograms * 2.20462262185));
+                            weightMap.putDouble("startDate", result.startDate);
+                            weightMap.putDouble("endDate", result.endDate);
+                        }
+                        // If weight was return the populated map, if not it will be empty.
+                        promise.resolve(weightMap);
+                        recordCall(call);
+                    }
+                })
+                .addOnFailureListener(executor, new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        recordFailure(call, e);
+                        promise.reject(e);
+                    }
+                });
+    }
+
+    public void saveActivity(Context context, String activity, double startDate, double endDate, final Promise promise) {
+        DataSource dataSource = new DataSource.Builder()
+            .setAppPackageName(context)
+            .setDataType(DataType.TYPE_ACTIVITY_SEGMENT)
+            .setStreamName("save_activity_" + activity.replace(".","_"))
+            .setType(DataSource.TYPE_RAW)
+            .build();
+
+        DataPoint dataPoint = DataPoint.builder(dataSource)
+                        .setTimeInterval((long) startDate, (long) endDate, TimeUnit.MILLISECONDS)
+                        .setActivityField(Field.FIELD_ACTIVITY, activity)
+                        .build();
+
+        final DataSet dataSet = DataSet.builder(dataSource).add(dataPoint).build();
+
+        final CallMetrics call = new CallMetrics("saveActivity");
+        submitWrite(new TaskFactory<Void>() {
+            @Override
+            public Task<Void> create() {
+                return backend.insert(dataSet);
+            }
+        })
+                .addOnCompleteListener(executor,
+                        new OnCompleteListener<Void>() {
+                            @Override
+                            public void onComplete(@NonNull Task<Void> task) {
+                                if (!task.isSuccessful()) {
+                                    call.fail(getErrorCode(task.getException()));
+                                }
+                                recordCall(call);
+                                if (task.isSuccessful()) {
+                                    for (int kind : ACTIVITY_AFFECTED_KINDS) {
+                                        bucketCache.invalidate(kind);
+                                    }
+                                    // Data has been inserted and can be read.
+                                    promise.resolve(true);
+                                } else {
+                                    Log.w(Manager.class.getName(), "Could not insert the activity", task.getException());
+                                    promise.reject("SaveActivityError",task.getException());
+                                }
+                            }
+                        });
+    }
+
+    public void saveActivities(Context context, ReadableArray activities, Promise promise) {
+        BulkInsert bulk = new BulkInsert(activities.size());
+        for (int i = 0; i < activities.size(); i++) {
+            try {
+                ReadableMap item = activities.getMap(i);
+                String activity = item.getString("activity");
+                DataSource dataSource = buildWriteDataSource(context, DataType.TYPE_ACTIVITY_SEGMENT, "save_activity_" + activity.replace(".","_"));
+                bulk.add(i, dataSource, DataPoint.builder(dataSource)
+                        .setTimeInterval((long) item.getDouble("startDate"), (long) item.getDouble("endDate"), TimeUnit.MILLISECONDS)
+                        .setActivityField(Field.FIELD_ACTIVITY, activity)
+                        .build());
+            } catch (RuntimeException e) {
+                bulk.fail(i, e.getMessage());
+            }
+        }
+        // Google Fit derives expended calories from activity segments, so cached calories go
+        // stale. Steps, distance and heart rate are recorded on their own and stay valid.
+        insertBulk(context, "saveActivities", bulk, ACTIVITY_AFFECTED_KINDS, promise);
+    }
+
+    public void saveSteps(Context context, ReadableArray steps, Promise promise) {
+        BulkInsert bulk = new BulkInsert(steps.size());
+        DataSource dataSource = buildWriteDataSource(context, DataType.TYPE_STEP_COUNT_DELTA, "save_steps");
+        for (int i = 0; i < steps.size(); i++) {
+            try {
+                ReadableMap item = steps.getMap(i);
+                bulk.add(i, dataSource, DataPoint.builder(dataSource)
+                        .setTimeInterval((long) item.getDouble("startDate"), (long) item.getDouble("endDate"), TimeUnit.MILLISECONDS)
+                        .setField(Field.FIELD_STEPS, item.getInt("quantity"))
+                        .build());
+            } catch (RuntimeException e) {
+                bulk.fail(i, e.getMessage());
+            }
+        }
+        insertBulk(context, "saveSteps", bulk, new int[]{ STEP }, promise);
+    }
+
+    public void saveHeartRates(Context context, ReadableArray heartRates, Promise promise) {
+        BulkInsert bulk = new BulkInsert(heartRates.size());
+        DataSource dataSource = buildWriteDataSource(context, DataType.TYPE_HEART_RATE_BPM, "save_heart_rate");
+        for (int i = 0; i < heartRates.size(); i++) {
+            try {
+                ReadableMap item = heartRates.getMap(i);
+                bulk.add(i, dataSource, DataPoint.builder(dataSource)
+                        .setTimestamp((long) item.getDouble("date"), TimeUnit.MILLISECONDS)
+                        .setField(Field.FIELD_BPM, (float) item.getDouble("quantity"))
+                        .build());
+            } catch (RuntimeException e) {
+                bulk.fail(i, e.getMessage());
+            }
+        }
+        insertBulk(context, "saveHeartRates", bulk, new int[]{ HEART_RATE }, promise);
+    }
+
+    public void saveWeights(Context context, ReadableArray weights, Promise promise) {
+        BulkInsert bulk = new BulkInsert(weights.size());
+        DataSource dataSource = buildWriteDataSource(context, DataType.TYPE_WEIGHT, "save_weight");
+        for (int i = 0; i < weights.size(); i++) {
+            try {
+                ReadableMap item = weights.getMap(i);
+                bulk.add(i, dataSource, DataPoint.builder(dataSource)
+                        .setTimestamp((long) item.getDouble("date"), TimeUnit.MILLISECONDS)
+                        .setField(Field.FIELD_WEIGHT, (float) item.getDouble("kilograms"))
+                        .build());
+            } catch (RuntimeException e) {
+                bulk.fail(i, e.getMessage());
+            }
+        }
+        // Weight is not cached as buckets, but Google Fit estimates the resting part of expended
+        // calories from the latest weight, so cached calories after it go stale.
+        insertBulk(context, "saveWeights", bulk, WEIGHT_AFFECTED_KINDS, promise);
+    }
+
+    private static DataSource buildWriteDataSource(Context context, DataType dataType, String streamName) {
+        return new DataSource.Builder()
+                .setAppPackageName(context)
+                .setDataType(dataType)
+                .setStreamName(streamName)
+                .setType(DataSource.TYPE_RAW)
+                .build();
+    }
+
+    /**
+     * Insert every batch through the shared read limiter and resolve with the outcome of each
+     * item, in input order. Cached buckets of {@code affectedKinds} are dropped once done.
+     */
+    private void insertBulk(final Context context, String operation, final BulkInsert bulk, final int[] affectedKinds, final Promise promise) {
+        final CallMetrics call = new CallMetrics(operation);
+        call.put(MetricsStore.ENTRIES, bulk.size());
+        List<Task<Void>> inserts = new ArrayList<>();
+        for (final BulkInsert.Batch batch : bulk.batches(MAX_POINTS_PER_DATASET)) {
+            inserts.add(submitWrite(new TaskFactory<Void>() {
+                @Override
+                public Task<Void> create() {
+                    return backend.insert(batch.dataSet);
+                }
+            }).addOnCompleteListener(executor, new OnCompleteListener<Void>() {
+                @Override
+                public void onComplete(@NonNull Task<Void> task) {
+                    for (int index : batch.indices) {
+                        if (task.isSuccessful()) {
+                            bulk.succeed(index);
+                        } else {
+                            bulk.fail(index, String.valueOf(task.getException()));
+                        }
+                    }
+                }
+            }));
+        }
+
+        Tasks.whenAllComplete(inserts)
+                .addOnCompleteListener(executor, new OnCompleteListener<List<Task<?>>>() {
+                    @Override
+                    public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                        for (int kind : affectedKinds) {
+                            bucketCache.invalidate(kind);
+                        }
+                        WritableArray results = Arguments.createArray();
+                        for (int i = 0; i < bulk.size(); i++) {
+                            WritableMap result = Arguments.createMap();
+                            result.putBoolean("success", bulk.isSuccessful(i));
+                            if (!bulk.isSuccessful(i)) {
+                                result.putString("error", bulk.getError(i));
+                            }
+                            results.pushMap(result);
+                            if (!bulk.isSuccessful(i)) {
+                                call.add(MetricsStore.FAILED_ENTRIES, 1);
+                            }
+                        }
+                        promise.resolve(results);
+                        recordCall(call);
+                    }
+                });
+    }
+
+    private static WritableArray processRawPoints(@Permission int kind, List<Sample> points) {
+        WritableArray array = Arguments.createArray();
+        for (Sample point : points) {
+            WritableMap map = Arguments.createMap();
+            map.putString("startDate", SampleFormat.getDateFormat().format(point.startDate));
+            map.putString("endDate", SampleFormat.getDateFormat().format(point.endDate));
+            if (kind == ACTIVITY) {
+                map.putString("activity", point.label);
+            } else {
+                map.putDouble("quantity", point.quantity);
+            }
+            array.pushMap(map);
+        }
+        return array;
+    }
+
+    private WritableArray processGoals(List<Goal> list, long today) {
+        WritableArray array = Arguments.createArray();
+        for (Goal goal : list) {
+            WritableMap map = Arguments.createMap();
+            map.putString("id", goal.id);
+            map.putInt("kind", goal.kind);
+            if (goal.type == Goal.HEART_RATE_ABOVE) {
+                map.putDouble("above", goal.threshold);
+                map.putDouble("sustainedMinutes", goal.sustained / (double) TimeUnit.MINUTES.toMillis(1));
+            } else {
+                map.putDouble("target", goal.threshold);
+                map.putDouble("value", todayStore.get(goal.kind, today));
+            }
+            map.putBoolean("reached", goals.isReached(goal, today));
+            array.pushMap(map);
+        }
+        return array;
+    }
+
+    private static WritableMap processGoalCrossing(GoalCrossing crossing) {
+        WritableMap map = Arguments.createMap();
+        map.putString("goalId", crossing.goal.id);
+        map.putInt("kind", crossing.goal.kind);
+        map.putString("state", crossing.state);
+        map.putDouble("value", crossing.value);
+        map.putDouble("threshold", crossing.goal.threshold);
+        map.putString("date", SampleFormat.getDateFormat().format(crossing.date));
+        return map;
+    }
+
+    private static WritableMap processCallMetrics(CallMetrics call) {
+        WritableMap map = Arguments.createMap();
+        map.putString("operation", call.operation);
+        for (Map.Entry<String, Long> value : call.getValues().entrySet()) {
+            map.putDouble(value.getKey(), value.getValue());
+        }
+        if (call.getError() != null) {
+            map.putString("error", call.getError());
+        }
+        return map;
+    }
+
+    private static WritableMap processMetrics(Map<String, OperationMetrics> operations) {
+        WritableMap map = Arguments.createMap();
+        for (Map.Entry<String, OperationMetrics> operation : operations.entrySet()) {
+            final OperationMetrics metrics = operation.getValue();
+            WritableMap operationMap = Arguments.createMap();
+            operationMap.putDouble("calls", metrics.calls);
+            operationMap.putDouble("errors", metrics.errors);
+            WritableMap errorCodes = Arguments.createMap();
+            for (Map.Entry<String, Long> errorCode : metrics.errorCodes.entrySet()) {
+                errorCodes.putDouble(errorCode.getKey(), errorCode.getValue());
+            }
+            operationMap.putMap("errorCodes", errorCodes);
+            for (Map.Entry<String, Histogram> histogram : metrics.histograms.entrySet()) {
+                final Histogram values = histogram.getValue();
+                WritableMap histogramMap = Arguments.createMap();
+                histogramMap.putDouble("count", values.getCount());
+                histogramMap.putDouble("mean", values.getMean());
+                histogramMap.putDouble("min", values.getMin());
+                histogramMap.putDouble("max", values.getMax());
+                histogramMap.putDouble("p50", values.getPercentile(0.5));
+                histogramMap.putDouble("p90", values.getPercentile(0.9));
+                histogramMap.putDouble("p99", values.getPercentile(0.99));
+                operationMap.putMap(histogram.getKey(), histogramMap);
+            }
+            map.putMap(operation.getKey(), operationMap);
+        }
+        return map;
+    }
+
+    private static WritableMap processLiveFrame(LiveFrame frame) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("frameId", frame.id);
+        map.putDouble("startDate", frame.startDate);
+        map.putDouble("endDate", frame.endDate);
+        map.putDouble("steps", frame.steps);
+        if (frame.heartRateCount > 0) {
+            WritableMap heartRate = Arguments.createMap();
+            heartRate.putDouble("quantity", frame.heartRate);
+            heartRate.putDouble("min", frame.heartRateMin);
+            heartRate.putDouble("max", frame.heartRateMax);
+            heartRate.putInt("count", frame.heartRateCount);
+            map.putMap("heartRate", heartRate);
+        }
+        map.putInt("mergedFrames", frame.mergedFrames);
+        return map;
+    }
+
+    private static String getSummaryKey(@Permission int kind) {
+        switch(kind){
+            case STEP:
+                return "steps";
+            case DISTANCE:
+                return "distance";
+            case CALORIES:
+                return "calories";
+            case HEART_RATE:
+                return "heartRate";
+            default:
+                throw new IllegalArgumentException("Unsupported history kind " + kind);
+        }
+    }
+
+    /**
+     * Group the samples of every metric by bucket start, keeping the order of {@code kinds}.
+     * Activity and session buckets start wherever their segment does.
+     */
+    private static TreeMap<Long, Sample[]> groupSummary(int[] kinds, SparseArray<List<Sample>> samples, long start, Interval interval) {
+        TreeMap<Long, Sample[]> buckets = new TreeMap<>();
+        for (int i = 0; i < kinds.length; i++) {
+            for (Sample sample : samples.get(kinds[i])) {
+                final long bucketStart = interval.isTime()
+                        ? start + ((sample.startDate - start) / interval.millis) * interval.millis
+                        : sample.startDate;
+                Sample[] bucket = buckets.get(bucketStart);
+                if (bucket == null) {
+                    bucket = new Sample[kinds.length];
+                    buckets.put(bucketStart, bucket);
+                }
+                bucket[i] = sample;
+            }
+        }
+        return buckets;
+    }
+
+    private static long getBucketEnd(long bucketStart, Sample[] bucket, long end, Interval interval) {
+        if (interval.isTime()) {
+            return Math.min(bucketStart + interval.millis, end);
+        }
+        long bucketEnd = bucketStart;
+        for (Sample sample : bucket) {
+            if (sample != null) {
+                bucketEnd = Math.max(bucketEnd, sample.endDate);
+            }
+        }
+        return bucketEnd;
+    }
+
+    private static String getBucketLabel(Sample[] bucket) {
+        for (Sample sample : bucket) {
+            if (sample != null && sample.label != null) {
+                return sample.label;
+            }
+        }
+        return null;
+    }
+
+    private static WritableArray processSummary(int[] kinds, SparseArray<List<Sample>> samples, long start, long end, Interval interval) {
+        WritableArray array = Arguments.createArray();
+        for (Map.Entry<Long, Sample[]> bucket : groupSummary(kinds, samples, start, interval).entrySet()) {
+            final long bucketStart = bucket.getKey();
+            WritableMap bucketMap = Arguments.createMap();
+            bucketMap.putString("startDate", SampleFormat.getDateFormat().format(bucketStart));
+            bucketMap.putString("endDate", SampleFormat.getDateFormat().format(getBucketEnd(bucketStart, bucket.getValue(), end, interval)));
+            final String label = getBucketLabel(bucket.getValue());
+            if (label != null) {
+                bucketMap.putString("label", label);
+            }
+            for (int i = 0; i < kinds.length; i++) {
+                Sample sample = bucket.getValue()[i];
+                if (sample == null) {
+                    continue;
+                }
+                WritableMap metricMap = Arguments.createMap();
+                metricMap.putDouble("quantity", sample.quantity);
+                if (kinds[i] == HEART_RATE) {
+                    metricMap.putDouble("min", sample.min);
+                    metricMap.putDouble("max", sample.max);
+                }
+                bucketMap.putMap(getSummaryKey(kinds[i]), metricMap);
+            }
+            array.pushMap(bucketMap);
+        }
+        return array;
+    }
+
+    /**
+     * JSON variant of {@link #processSummary}, with epoch millis bucket bounds.
+     */
+    private static JSONObject processSnapshot(int[] kinds, SparseArray<List<Sample>> samples, long start, long end, Interval interval) throws JSONException {
+        JSONArray buckets = new JSONArray();
+        for (Map.Entry<Long, Sample[]> bucket : groupSummary(kinds, samples, start, interval).entrySet()) {
+            JSONObject bucketJson = new JSONObject();
+            bucketJson.put("startDate", bucket.getKey());
+            bucketJson.put("endDate", getBucketEnd(bucket.getKey(), bucket.getValue(), end, interval));
+            for (int i = 0; i < kinds.length; i++) {
+                Sample sample = bucket.getValue()[i];
+                if (sample == null) {
+                    continue;
+                }
+                JSONObject metricJson = new JSONObject();
+                metricJson.put("quantity", sample.quantity);
+                if (kinds[i] == HEART_RATE) {
+                    metricJson.put("min", sample.min);
+                    metricJson.put("max", sample.max);
+                }
+                bucketJson.put(getSummaryKey(kinds[i]), metricJson);
+            }
+            buckets.put(bucketJson);
+        }
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("updatedAt", System.currentTimeMillis());
+        snapshot.put("startDate", start);
+        snapshot.put("endDate", end);
+        snapshot.put("bucketSize", interval.millis);
+        snapshot.put("buckets", buckets);
+        return snapshot;
+    }
+
+    /**
+     * Columnar variant of {@link #processSummary}: epoch millis columns for the bucket bounds and
+     * one column per metric field, with null where a bucket has no data for that metric.
+     */
+    private static WritableMap processSummaryColumns(int[] kinds, SparseArray<List<Sample>> samples, long start, long end, Interval interval) {
+        TreeMap<Long, Sample[]> buckets = groupSummary(kinds, samples, start, interval);
+        WritableMap columns = Arguments.createMap();
+
+        WritableArray startDates = Arguments.createArray();
+        WritableArray endDates = Arguments.createArray();
+        WritableArray labels = Arguments.createArray();
+        for (Map.Entry<Long, Sample[]> bucket : buckets.entrySet()) {
+            startDates.pushDouble(bucket.getKey());
+            endDates.pushDouble(getBucketEnd(bucket.getKey(), bucket.getValue(), end, interval));
+            labels.pushString(getBucketLabel(bucket.getValue()));
+        }
+        columns.putArray("startDate", startDates);
+        columns.putArray("endDate", endDates);
+        if (!interval.isTime()) {
+            columns.putArray("label", labels);
+        }
+
+        for (int i = 0; i < kinds.length; i++) {
+            final String key = getSummaryKey(kinds[i]);
+            WritableArray quantities = Arguments.createArray();
+            WritableArray mins = Arguments.createArray();
+            WritableArray maxs = Arguments.createArray();
+            for (Sample[] bucket : buckets.values()) {
+                if (bucket[i] == null) {
+                    quantities.pushNull();
+                    mins.pushNull();
+                    maxs.pushNull();
+                } else {
+                    quantities.pushDouble(bucket[i].quantity);
+                    mins.pushDouble(bucket[i].min);
+                    maxs.pushDouble(bucket[i].max);
+                }
+            }
+            columns.putArray(key, quantities);
+            if (kinds[i] == HEART_RATE) {
+                columns.putArray(key + "Min", mins);
+                columns.putArray(key + "Max", maxs);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Columnar variant of {@link #processSamples}: parallel arrays of epoch millis and values.
+     */
+    private static WritableMap processColumns(@Permission int kind, List<Sample> samples) {
+        WritableArray startDates = Arguments.createArray();
+        WritableArray endDates = Arguments.createArray();
+        WritableArray quantities = Arguments.createArray();
+        WritableArray mins = Arguments.createArray();
+        WritableArray maxs = Arguments.createArray();
+        WritableArray labels = Arguments.createArray();
+        boolean labelled = false;
+        for (Sample sample : samples) {
+            startDates.pushDouble(sample.startDate);
+            endDates.pushDouble(sample.endDate);
+            quantities.pushDouble(sample.quantity);
+            if (kind == HEART_RATE) {
+                mins.pushDouble(sample.min);
+                maxs.pushDouble(sample.max);
+            }
+            labels.pushString(sample.label);
+            labelled |= sample.label != null;
+        }
+
+        WritableMap columns = Arguments.createMap();
+        columns.putArray("startDate", startDates);
+        columns.putArray("endDate", endDates);
+        columns.putArray("quantity", quantities);
+        if (kind == HEART_RATE) {
+            columns.putArray("min", mins);
+            columns.putArray("max", maxs);
+        }
+        if (labelled) {
+            columns.putArray("label", labels);
+        }
+        return columns;
+    }
+
+    private static WritableArray processSamples(@Permission int kind, List<Sample> samples) {
+        BridgeRows rows = new BridgeRows();
+        SampleFormat.writeSamples(kind, samples, rows);
+        return rows.array;
+    }
+
+    private static class BridgeRows implements SampleFormat.RowWriter {
+        final WritableArray array = Arguments.createArray();
+        private WritableMap row;
+
+        @Override
+        public void beginRow() {
+            row = Arguments.createMap();
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            row.putString(key, value);
+        }
+
+        @Override
+        public void putDouble(String key, double value) {
+            row.putDouble(key, value);
+        }
+
+        @Override
+        public void endRow() {
+            array.pushMap(row);
+            row = null;
         }
     }
 }
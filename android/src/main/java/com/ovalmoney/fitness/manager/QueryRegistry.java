@@ -0,0 +1,150 @@
+package com.ovalmoney.fitness.manager;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.CancellationTokenSource;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnTokenCanceledListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Queries still running, by id, each with a {@link CancellationToken} cancelled by
+ * {@link #cancel(String)} or once its timeout expires.
+ */
+public class QueryRegistry {
+
+    private final static ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FitnessQueryTimeout");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public static class Query {
+        public final String id;
+        private final long timeout;
+        private final CancellationTokenSource source = new CancellationTokenSource();
+        private volatile boolean timedOut;
+        private volatile ScheduledFuture<?> timeoutFuture;
+
+        Query(String id, long timeout) {
+            this.id = id;
+            this.timeout = timeout;
+        }
+
+        public CancellationToken getToken() {
+            return source.getToken();
+        }
+
+        public boolean isCancelled() {
+            return source.getToken().isCancellationRequested();
+        }
+
+        /**
+         * The exception the query is rejected with once cancelled.
+         */
+        public Exception getCancellation() {
+            return timedOut
+                    ? new TimeoutException("Query " + id + " timed out after " + timeout + " ms")
+                    : new CancellationException("Query " + id + " was canceled");
+        }
+
+        /**
+         * Settle with {@code task}, or as soon as the query is cancelled or times out, whichever
+         * comes first. The shared reads behind it are cancelled once no other query waits for them.
+         */
+        public <T> Task<T> whileActive(Task<T> task, Executor executor) {
+            final TaskCompletionSource<T> result = new TaskCompletionSource<>();
+            getToken().onCanceledRequested(new OnTokenCanceledListener() {
+                @Override
+                public void onCanceled() {
+                    result.trySetException(getCancellation());
+                }
+            });
+            task.addOnCompleteListener(executor, new OnCompleteListener<T>() {
+                @Override
+                public void onComplete(@NonNull Task<T> completed) {
+                    if (completed.isSuccessful()) {
+                        result.trySetResult(completed.getResult());
+                    } else if (completed.getException() != null) {
+                        result.trySetException(completed.getException());
+                    } else {
+                        result.trySetException(getCancellation());
+                    }
+                }
+            });
+            return result.getTask();
+        }
+    }
+
+    private final Map<String, Query> running = new HashMap<>();
+
+    /**
+     * Register a query, replacing and cancelling a running one with the same id. A timeout of
+     * zero or less never expires.
+     */
+    public Query start(String id, long timeout) {
+        final Query query = new Query(id, timeout);
+        final Query replaced;
+        synchronized (this) {
+            replaced = running.put(id, query);
+        }
+        if (replaced != null) {
+            replaced.source.cancel();
+        }
+        if (timeout > 0) {
+            query.timeoutFuture = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    query.timedOut = true;
+                    query.source.cancel();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        return query;
+    }
+
+    /**
+     * Cancel the running query with this id, returning false if there is none.
+     */
+    public boolean cancel(String id) {
+        final Query query;
+        synchronized (this) {
+            query = running.remove(id);
+        }
+        if (query == null) {
+            return false;
+        }
+        query.source.cancel();
+        return true;
+    }
+
+    /**
+     * Forget a query once its promise has settled.
+     */
+    public void finish(Query query) {
+        synchronized (this) {
+            if (running.get(query.id) == query) {
+                running.remove(query.id);
+            }
+        }
+        if (query.timeoutFuture != null) {
+            query.timeoutFuture.cancel(false);
+        }
+    }
+}
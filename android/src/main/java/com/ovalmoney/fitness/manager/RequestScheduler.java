@@ -0,0 +1,324 @@
+package com.ovalmoney.fitness.manager;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.fitness.FitnessStatusCodes;
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start Google Fit calls in priority order, at most {@code maxConcurrent} at a time and no
+ * faster than a token bucket allows. Interactive calls always go first, and background calls
+ * leave one slot free for them. Calls failing with a transient error are retried after an
+ * exponential backoff with full jitter. Google Fit quotas are per app, so the whole process
+ * shares {@link #getInstance()}.
+ */
+public class RequestScheduler {
+
+    public final static int INTERACTIVE = 0;
+    public final static int BACKGROUND = 1;
+
+    private final static int DEFAULT_MAX_CONCURRENT = 3;
+    private final static double DEFAULT_PERMITS_PER_SECOND = 10;
+    private final static int DEFAULT_BURST = 20;
+    private final static long DEFAULT_RETRY_BASE_DELAY = 500;
+    private final static long DEFAULT_RETRY_MAX_DELAY = 30000;
+
+    private static RequestScheduler instance;
+
+    private final static ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FitnessRequestScheduler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Completions release their slot on the thread completing the call instead of hopping to the
+     * main thread, so a busy UI thread doesn't hold the queue back.
+     */
+    private final static Executor completionExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private class Request<T> {
+        final TaskFactory<T> factory;
+        final TaskCompletionSource<T> source = new TaskCompletionSource<>();
+        final int priority;
+        final int retries;
+        final CancellationToken token;
+        int attempt;
+
+        Request(TaskFactory<T> factory, int priority, int retries, CancellationToken token) {
+            this.factory = factory;
+            this.priority = priority;
+            this.retries = retries;
+            this.token = token;
+        }
+
+        boolean isCancelled() {
+            return token != null && token.isCancellationRequested();
+        }
+
+        void start() {
+            Task<T> task;
+            try {
+                task = factory.create();
+            } catch (RuntimeException e) {
+                finish(this);
+                source.setException(e);
+                return;
+            }
+            task.addOnCompleteListener(completionExecutor, new OnCompleteListener<T>() {
+                @Override
+                public void onComplete(@NonNull Task<T> completed) {
+                    finish(Request.this);
+                    if (completed.isSuccessful()) {
+                        source.setResult(completed.getResult());
+                    } else if (attempt < retries && !isCancelled() && isTransient(completed.getException())) {
+                        retry(Request.this);
+                    } else if (completed.getException() != null) {
+                        source.setException(completed.getException());
+                    } else {
+                        source.setException(new CancellationException());
+                    }
+                }
+            });
+        }
+    }
+
+    private final Queue<Request<?>> interactive = new ArrayDeque<>();
+    private final Queue<Request<?>> background = new ArrayDeque<>();
+    private final Random random = new Random();
+    private int running;
+    private int runningBackground;
+    private int maxConcurrent;
+    private double permits;
+    private double permitsPerSecond;
+    private int burst;
+    private long refilledAt = System.nanoTime();
+    private long retryBaseDelay;
+    private long retryMaxDelay;
+    private boolean dispatchScheduled;
+
+    public static synchronized RequestScheduler getInstance() {
+        if (instance == null) {
+            instance = new RequestScheduler(DEFAULT_MAX_CONCURRENT, DEFAULT_PERMITS_PER_SECOND, DEFAULT_BURST,
+                    DEFAULT_RETRY_BASE_DELAY, DEFAULT_RETRY_MAX_DELAY);
+        }
+        return instance;
+    }
+
+    public RequestScheduler(int maxConcurrent, double permitsPerSecond, int burst, long retryBaseDelay, long retryMaxDelay) {
+        this.maxConcurrent = maxConcurrent;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.permits = burst;
+        this.retryBaseDelay = retryBaseDelay;
+        this.retryMaxDelay = retryMaxDelay;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        synchronized (this) {
+            this.maxConcurrent = maxConcurrent;
+        }
+        dispatch();
+    }
+
+    /**
+     * A rate of zero or less disables the token bucket.
+     */
+    public void setPermitsPerSecond(double permitsPerSecond) {
+        synchronized (this) {
+            refill();
+            this.permitsPerSecond = permitsPerSecond;
+        }
+        dispatch();
+    }
+
+    public void setBurst(int burst) {
+        synchronized (this) {
+            refill();
+            this.burst = burst;
+            this.permits = Math.min(permits, burst);
+        }
+        dispatch();
+    }
+
+    public synchronized void setRetryBaseDelay(long retryBaseDelay) {
+        this.retryBaseDelay = retryBaseDelay;
+    }
+
+    public synchronized void setRetryMaxDelay(long retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+    }
+
+    /**
+     * @param retries how many times a transient failure is retried, 0 for calls which must not
+     *                run twice such as writes
+     * @param token   a call cancelled while queued or waiting for a retry fails without being
+     *                started again, null if it never cancels
+     */
+    public <T> Task<T> submit(TaskFactory<T> factory, int priority, int retries, CancellationToken token) {
+        final Request<T> request = new Request<>(factory, priority, retries, token);
+        enqueue(request);
+        return request.source.getTask();
+    }
+
+    private void enqueue(Request<?> request) {
+        synchronized (this) {
+            (request.priority == BACKGROUND ? background : interactive).add(request);
+        }
+        dispatch();
+    }
+
+    private void finish(Request<?> request) {
+        synchronized (this) {
+            running--;
+            if (request.priority == BACKGROUND) {
+                runningBackground--;
+            }
+        }
+        dispatch();
+    }
+
+    private void retry(final Request<?> request) {
+        final long ceiling;
+        synchronized (this) {
+            ceiling = Math.min(retryMaxDelay, retryBaseDelay << Math.min(request.attempt, 30));
+        }
+        request.attempt++;
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                enqueue(request);
+            }
+        }, (long) (random.nextDouble() * ceiling), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Quota, network and timeout errors are worth retrying, anything else fails the same again.
+     * Google Fit reports rate limiting and exhausted quotas as a transient error or as a failed
+     * call to its backend.
+     */
+    public static boolean isTransient(Exception e) {
+        if (e instanceof IOException) {
+            return true;
+        }
+        if (!(e instanceof ApiException)) {
+            return false;
+        }
+        switch (((ApiException) e).getStatusCode()) {
+            case CommonStatusCodes.NETWORK_ERROR:
+            case CommonStatusCodes.INTERNAL_ERROR:
+            case CommonStatusCodes.TIMEOUT:
+            case CommonStatusCodes.INTERRUPTED:
+            case CommonStatusCodes.API_NOT_CONNECTED:
+            case CommonStatusCodes.RECONNECTION_TIMED_OUT:
+            case CommonStatusCodes.RECONNECTION_TIMED_OUT_DURING_UPDATE:
+            case FitnessStatusCodes.TRANSIENT_ERROR:
+            case FitnessStatusCodes.API_EXCEPTION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        if (permitsPerSecond > 0) {
+            permits = Math.min(burst, permits + (now - refilledAt) / 1e9 * permitsPerSecond);
+        }
+        refilledAt = now;
+    }
+
+    private boolean hasPermit() {
+        return permitsPerSecond <= 0 || permits >= 1;
+    }
+
+    private Queue<Request<?>> nextQueue() {
+        if (running >= maxConcurrent) {
+            return null;
+        }
+        if (!interactive.isEmpty()) {
+            return interactive;
+        }
+        final int backgroundSlots = maxConcurrent > 1 ? maxConcurrent - 1 : 1;
+        if (!background.isEmpty() && runningBackground < backgroundSlots) {
+            return background;
+        }
+        return null;
+    }
+
+    private void dispatch() {
+        final List<Request<?>> started = new ArrayList<>();
+        final List<Request<?>> cancelled = new ArrayList<>();
+        synchronized (this) {
+            refill();
+            Queue<Request<?>> queue;
+            while ((queue = nextQueue()) != null) {
+                if (queue.peek().isCancelled()) {
+                    cancelled.add(queue.poll());
+                    continue;
+                }
+                if (!hasPermit()) {
+                    scheduleDispatch((long) Math.ceil((1 - permits) / permitsPerSecond * 1000));
+                    break;
+                }
+                if (permitsPerSecond > 0) {
+                    permits -= 1;
+                }
+                Request<?> request = queue.poll();
+                running++;
+                if (request.priority == BACKGROUND) {
+                    runningBackground++;
+                }
+                started.add(request);
+            }
+        }
+        for (Request<?> request : cancelled) {
+            request.source.setException(new CancellationException());
+        }
+        for (Request<?> request : started) {
+            request.start();
+        }
+    }
+
+    private void scheduleDispatch(long delay) {
+        if (dispatchScheduled) {
+            return;
+        }
+        dispatchScheduled = true;
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RequestScheduler.this) {
+                    dispatchScheduled = false;
+                }
+                dispatch();
+            }
+        }, Math.max(1, delay), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,41 @@
+package com.ovalmoney.fitness.manager;
+
+public class Sample {
+    public final long startDate;
+    public final long endDate;
+    public final double quantity;
+    public final double min;
+    public final double max;
+    public final String label;
+    /**
+     * Identifier of the session a bucket bucketed by session covers, null otherwise. Names don't
+     * identify sessions: overlapping sessions, e.g. from a phone and a watch, often share one.
+     */
+    public final String sessionId;
+
+    public Sample(long startDate, long endDate, double quantity) {
+        this(startDate, endDate, quantity, quantity, quantity);
+    }
+
+    public Sample(long startDate, long endDate, double quantity, String label) {
+        this(startDate, endDate, quantity, quantity, quantity, label);
+    }
+
+    public Sample(long startDate, long endDate, double quantity, double min, double max) {
+        this(startDate, endDate, quantity, min, max, null);
+    }
+
+    public Sample(long startDate, long endDate, double quantity, double min, double max, String label) {
+        this(startDate, endDate, quantity, min, max, label, null);
+    }
+
+    public Sample(long startDate, long endDate, double quantity, double min, double max, String label, String sessionId) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.quantity = quantity;
+        this.min = min;
+        this.max = max;
+        this.label = label;
+        this.sessionId = sessionId;
+    }
+}
@@ -0,0 +1,67 @@
+package com.ovalmoney.fitness.manager;
+
+import com.ovalmoney.fitness.permission.Permission;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+import static com.ovalmoney.fitness.permission.Permission.HEART_RATE;
+
+/**
+ * Conversion of samples into result rows, free of bridge classes so it also runs on the JVM.
+ * {@code Manager} writes the rows into bridge maps.
+ */
+public class SampleFormat {
+
+    private final static ThreadLocal<DateFormat> dateFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.getDefault());
+        }
+    };
+
+    /**
+     * Receives the fields of each converted sample.
+     */
+    public interface RowWriter {
+        void beginRow();
+
+        void putString(String key, String value);
+
+        void putDouble(String key, double value);
+
+        void endRow();
+    }
+
+    private SampleFormat() {}
+
+    /**
+     * The date format of every result, one instance per thread since it isn't thread-safe.
+     */
+    public static DateFormat getDateFormat() {
+        return dateFormat.get();
+    }
+
+    /**
+     * One row per sample with its dates, quantity and label, plus min and max for heart rate.
+     */
+    public static void writeSamples(@Permission int kind, List<Sample> samples, RowWriter rows) {
+        final DateFormat format = dateFormat.get();
+        for (Sample sample : samples) {
+            rows.beginRow();
+            rows.putString("startDate", format.format(sample.startDate));
+            rows.putString("endDate", format.format(sample.endDate));
+            rows.putDouble("quantity", sample.quantity);
+            if (kind == HEART_RATE) {
+                rows.putDouble("min", sample.min);
+                rows.putDouble("max", sample.max);
+            }
+            if (sample.label != null) {
+                rows.putString("label", sample.label);
+            }
+            rows.endRow();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.ovalmoney.fitness.manager;
+
+/**
+ * A session as listed by a {@code FitBackend}, free of Play Services types so any backend can
+ * return one.
+ */
+public class SessionInfo {
+    public final String id;
+    public final String name;
+    public final String description;
+    public final String activity;
+    public final String appPackage;
+    public final long startDate;
+    /**
+     * 0 while the session is running.
+     */
+    public final long endDate;
+
+    public SessionInfo(String id, String name, String description, String activity, String appPackage, long startDate, long endDate) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.activity = activity;
+        this.appPackage = appPackage;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public boolean isActive() {
+        return endDate == 0;
+    }
+}
@@ -0,0 +1,60 @@
+package com.ovalmoney.fitness.manager;
+
+import com.ovalmoney.fitness.permission.Permission;
+
+import static com.ovalmoney.fitness.permission.Permission.HEART_RATE;
+
+/**
+ * A session together with the aggregated buckets Google Fit returned for it, merged across
+ * data sources. Heart rate keeps a duration-weighted average with the lowest and highest
+ * sample, every other metric is added up.
+ */
+public class SessionSummary {
+
+    private final static int KINDS = Permission.WEIGHT + 1;
+
+    public final SessionInfo session;
+    private final double[] quantities = new double[KINDS];
+    private final double[] mins = new double[KINDS];
+    private final double[] maxs = new double[KINDS];
+    private final double[] weights = new double[KINDS];
+    private final boolean[] hasData = new boolean[KINDS];
+
+    public SessionSummary(SessionInfo session) {
+        this.session = session;
+    }
+
+    public void add(@Permission int kind, Sample bucket) {
+        if (!hasData[kind]) {
+            mins[kind] = bucket.min;
+            maxs[kind] = bucket.max;
+            hasData[kind] = true;
+        } else {
+            mins[kind] = Math.min(mins[kind], bucket.min);
+            maxs[kind] = Math.max(maxs[kind], bucket.max);
+        }
+        if (kind == HEART_RATE) {
+            final double duration = Math.max(1, bucket.endDate - bucket.startDate);
+            quantities[kind] += bucket.quantity * duration;
+            weights[kind] += duration;
+        } else {
+            quantities[kind] += bucket.quantity;
+        }
+    }
+
+    public boolean hasData(@Permission int kind) {
+        return hasData[kind];
+    }
+
+    public double getQuantity(@Permission int kind) {
+        return kind == HEART_RATE && weights[kind] > 0 ? quantities[kind] / weights[kind] : quantities[kind];
+    }
+
+    public double getMin(@Permission int kind) {
+        return mins[kind];
+    }
+
+    public double getMax(@Permission int kind) {
+        return maxs[kind];
+    }
+}
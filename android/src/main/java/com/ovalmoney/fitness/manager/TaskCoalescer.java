@@ -0,0 +1,116 @@
+package com.ovalmoney.fitness.manager;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.CancellationTokenSource;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnTokenCanceledListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * Share a single in-flight {@link Task} between identical requests, so concurrent callers
+ * attach to the running one instead of starting their own. The shared task is cancelled only
+ * once every caller attached to it has cancelled.
+ */
+public class TaskCoalescer<T> {
+
+    /**
+     * The shared task settles on whichever thread completes the underlying one, rather than
+     * waiting for the main thread.
+     */
+    private final static Executor completionExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private static class Shared<T> {
+        final TaskCompletionSource<T> result = new TaskCompletionSource<>();
+        final CancellationTokenSource source = new CancellationTokenSource();
+        int callers;
+    }
+
+    private final Map<String, Shared<T>> inFlight = new HashMap<>();
+
+    /**
+     * Only the lookup runs under the lock: the first caller registers a placeholder, then
+     * creates the task outside of it, so a slow {@code create} such as a cache read doesn't
+     * block callers of other keys or the completion of other tasks. A {@code create} throwing
+     * fails every caller attached meanwhile and is rethrown to the first one.
+     *
+     * @param token cancellation of this caller, or null if it never cancels
+     */
+    public Task<T> run(final String key, CancellationToken token, CancellableTaskFactory<T> factory) {
+        final Shared<T> shared;
+        final boolean first;
+        synchronized (this) {
+            Shared<T> running = inFlight.get(key);
+            first = running == null;
+            if (first) {
+                running = new Shared<>();
+                inFlight.put(key, running);
+            }
+            running.callers++;
+            shared = running;
+        }
+        if (token != null) {
+            token.onCanceledRequested(new OnTokenCanceledListener() {
+                @Override
+                public void onCanceled() {
+                    release(key, shared);
+                }
+            });
+        }
+        if (first) {
+            final Task<T> task;
+            try {
+                task = factory.create(shared.source.getToken());
+            } catch (RuntimeException e) {
+                remove(key, shared);
+                shared.result.setException(e);
+                throw e;
+            }
+            task.addOnCompleteListener(completionExecutor, new OnCompleteListener<T>() {
+                @Override
+                public void onComplete(@NonNull Task<T> completed) {
+                    remove(key, shared);
+                    if (completed.isSuccessful()) {
+                        shared.result.setResult(completed.getResult());
+                    } else if (completed.getException() != null) {
+                        shared.result.setException(completed.getException());
+                    } else {
+                        shared.result.setException(new CancellationException());
+                    }
+                }
+            });
+        }
+        return shared.result.getTask();
+    }
+
+    /**
+     * Cancel the shared task once nobody waits for it, and stop handing it to new callers.
+     */
+    private void release(String key, Shared<T> shared) {
+        synchronized (this) {
+            if (--shared.callers > 0) {
+                return;
+            }
+        }
+        remove(key, shared);
+        shared.source.cancel();
+    }
+
+    private synchronized void remove(String key, Shared<T> shared) {
+        if (inFlight.get(key) == shared) {
+            inFlight.remove(key);
+        }
+    }
+}
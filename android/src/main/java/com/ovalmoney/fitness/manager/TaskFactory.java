@@ -0,0 +1,7 @@
+package com.ovalmoney.fitness.manager;
+
+import com.google.android.gms.tasks.Task;
+
+public interface TaskFactory<T> {
+    Task<T> create();
+}
@@ -0,0 +1,11 @@
+package com.ovalmoney.fitness.manager;
+
+public class TimeRange {
+    public final long start;
+    public final long end;
+
+    public TimeRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+}
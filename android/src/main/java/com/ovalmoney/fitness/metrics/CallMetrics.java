@@ -0,0 +1,52 @@
+package com.ovalmoney.fitness.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measurements of a single call: phase durations in milliseconds and counts, plus the error
+ * code if it failed. Its total duration is taken when it is recorded.
+ */
+public class CallMetrics {
+
+    public final String operation;
+    private final long startedAt = System.nanoTime();
+    private final Map<String, Long> values = new LinkedHashMap<>();
+    private String error;
+
+    public CallMetrics(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Milliseconds elapsed since {@code nanoTime}, as returned by {@link System#nanoTime()}.
+     */
+    public static long since(long nanoTime) {
+        return (System.nanoTime() - nanoTime) / 1000000;
+    }
+
+    public synchronized void put(String name, long value) {
+        values.put(name, value);
+    }
+
+    public synchronized void add(String name, long value) {
+        final Long current = values.get(name);
+        values.put(name, current == null ? value : current + value);
+    }
+
+    public synchronized void fail(String code) {
+        this.error = code;
+    }
+
+    synchronized void finish() {
+        values.put(MetricsStore.TOTAL, since(startedAt));
+    }
+
+    public synchronized Map<String, Long> getValues() {
+        return new LinkedHashMap<>(values);
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+}
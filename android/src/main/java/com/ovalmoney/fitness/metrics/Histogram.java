@@ -0,0 +1,94 @@
+package com.ovalmoney.fitness.metrics;
+
+/**
+ * Fixed-size histogram over roughly logarithmic bounds (1, 2, 5, 10, 20, 50, ...), so recording
+ * any number of values costs the same memory. Percentiles are estimated from bucket bounds.
+ */
+public class Histogram {
+
+    private final static long[] BOUNDS = createBounds();
+
+    private final long[] counts;
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public Histogram() {
+        this.counts = new long[BOUNDS.length + 1];
+    }
+
+    private Histogram(Histogram other) {
+        this.counts = other.counts.clone();
+        this.count = other.count;
+        this.sum = other.sum;
+        this.min = other.min;
+        this.max = other.max;
+    }
+
+    private static long[] createBounds() {
+        final long[] bounds = new long[3 * 9];
+        long scale = 1;
+        for (int i = 0; i < bounds.length; i += 3) {
+            bounds[i] = scale;
+            bounds[i + 1] = 2 * scale;
+            bounds[i + 2] = 5 * scale;
+            scale *= 10;
+        }
+        return bounds;
+    }
+
+    public void record(long value) {
+        int index = 0;
+        while (index < BOUNDS.length && value > BOUNDS[index]) {
+            index++;
+        }
+        counts[index]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public Histogram copy() {
+        return new Histogram(this);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public long getMax() {
+        return count > 0 ? max : 0;
+    }
+
+    public double getMean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code quantile} (0 to 1) value, capped by the max.
+     */
+    public long getPercentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < BOUNDS.length ? Math.min(BOUNDS[i], max) : max;
+            }
+        }
+        return max;
+    }
+}
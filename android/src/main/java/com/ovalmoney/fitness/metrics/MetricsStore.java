@@ -0,0 +1,59 @@
+package com.ovalmoney.fitness.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory store of call measurements, one fixed-size {@link Histogram} per operation and
+ * measurement, so it stays bounded however many calls are recorded.
+ */
+public class MetricsStore {
+
+    public final static String TOTAL = "total";
+    public final static String QUEUE = "queue";
+    public final static String FETCH = "fetch";
+    public final static String PROCESS = "process";
+    public final static String BUCKETS = "buckets";
+    public final static String ENTRIES = "entries";
+    public final static String PAYLOAD_BYTES = "payloadBytes";
+    public final static String FAILED_ENTRIES = "failedEntries";
+    private final static String UNKNOWN_ERROR = "unknown";
+
+    private final Map<String, OperationMetrics> operations = new TreeMap<>();
+
+    private OperationMetrics get(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            metrics = new OperationMetrics();
+            operations.put(operation, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Close {@code call} and add its measurements to those of its operation.
+     */
+    public synchronized void record(CallMetrics call) {
+        call.finish();
+        final OperationMetrics metrics = get(call.operation);
+        metrics.calls++;
+        for (Map.Entry<String, Long> value : call.getValues().entrySet()) {
+            metrics.record(value.getKey(), value.getValue());
+        }
+        if (call.getError() != null) {
+            metrics.fail(call.getError().isEmpty() ? UNKNOWN_ERROR : call.getError());
+        }
+    }
+
+    public synchronized Map<String, OperationMetrics> snapshot() {
+        Map<String, OperationMetrics> snapshot = new TreeMap<>();
+        for (Map.Entry<String, OperationMetrics> operation : operations.entrySet()) {
+            snapshot.put(operation.getKey(), operation.getValue().copy());
+        }
+        return snapshot;
+    }
+
+    public synchronized void reset() {
+        operations.clear();
+    }
+}
@@ -0,0 +1,46 @@
+package com.ovalmoney.fitness.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregated measurements of every call of one operation.
+ */
+public class OperationMetrics {
+
+    private final static int MAX_ERROR_CODES = 16;
+    private final static String OTHER_ERROR = "other";
+
+    public long calls;
+    public long errors;
+    public final Map<String, Long> errorCodes = new TreeMap<>();
+    public final Map<String, Histogram> histograms = new TreeMap<>();
+
+    void record(String name, long value) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(name, histogram);
+        }
+        histogram.record(value);
+    }
+
+    void fail(String code) {
+        errors++;
+        final String key = errorCodes.containsKey(code) || errorCodes.size() < MAX_ERROR_CODES ? code : OTHER_ERROR;
+        final Long count = errorCodes.get(key);
+        errorCodes.put(key, count == null ? 1 : count + 1);
+    }
+
+    OperationMetrics copy() {
+        OperationMetrics copy = new OperationMetrics();
+        copy.calls = calls;
+        copy.errors = errors;
+        copy.errorCodes.putAll(errorCodes);
+        for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            copy.histograms.put(histogram.getKey(), histogram.getValue().copy());
+        }
+        return copy;
+    }
+}
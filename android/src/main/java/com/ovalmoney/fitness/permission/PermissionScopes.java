@@ -0,0 +1,81 @@
+package com.ovalmoney.fitness.permission;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Google Fit data types each permission kind is granted on, as plain keys, so the mapping runs
+ * without Play Services. {@code Manager} resolves the keys to data types.
+ */
+public class PermissionScopes {
+
+    public final static String STEP_COUNT_DELTA = "step_count.delta";
+    public final static String STEP_COUNT_CUMULATIVE = "step_count.cumulative";
+    public final static String DISTANCE_DELTA = "distance.delta";
+    public final static String CALORIES_EXPENDED = "calories.expended";
+    public final static String ACTIVITY_SEGMENT = "activity.segment";
+    public final static String HEART_RATE_BPM = "heart_rate.bpm";
+    public final static String WEIGHT = "weight";
+
+    private final static String[] NONE = new String[0];
+
+    public static class Scope {
+        public final String dataType;
+        public final int access;
+
+        Scope(String dataType, int access) {
+            this.dataType = dataType;
+            this.access = access;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Scope)) {
+                return false;
+            }
+            Scope scope = (Scope) other;
+            return access == scope.access && dataType.equals(scope.dataType);
+        }
+
+        @Override
+        public int hashCode() {
+            return dataType.hashCode() * 31 + access;
+        }
+    }
+
+    private PermissionScopes() {}
+
+    public static String[] getDataTypes(@Permission int kind) {
+        switch(kind){
+            case Permission.STEP:
+                return new String[]{ STEP_COUNT_DELTA, STEP_COUNT_CUMULATIVE };
+            case Permission.DISTANCE:
+                return new String[]{ DISTANCE_DELTA };
+            case Permission.CALORIES:
+                return new String[]{ CALORIES_EXPENDED };
+            case Permission.ACTIVITY:
+                return new String[]{ ACTIVITY_SEGMENT };
+            case Permission.HEART_RATE:
+                return new String[]{ HEART_RATE_BPM };
+            case Permission.WEIGHT:
+                return new String[]{ WEIGHT };
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * Every data type and access the requests need, in request order, each once.
+     */
+    public static List<Scope> resolve(List<Request> permissions) {
+        Set<Scope> scopes = new LinkedHashSet<>();
+        for (Request request : permissions) {
+            for (String dataType : getDataTypes(request.permissionKind)) {
+                scopes.add(new Scope(dataType, request.permissionAccess));
+            }
+        }
+        return new ArrayList<>(scopes);
+    }
+}
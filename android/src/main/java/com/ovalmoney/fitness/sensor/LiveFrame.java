@@ -0,0 +1,26 @@
+package com.ovalmoney.fitness.sensor;
+
+public class LiveFrame {
+    public final int id;
+    public final long startDate;
+    public final long endDate;
+    public final long steps;
+    public final int heartRateCount;
+    public final double heartRate;
+    public final double heartRateMin;
+    public final double heartRateMax;
+    public final int mergedFrames;
+
+    LiveFrame(int id, long startDate, long endDate, long steps, int heartRateCount,
+              double heartRate, double heartRateMin, double heartRateMax, int mergedFrames) {
+        this.id = id;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.steps = steps;
+        this.heartRateCount = heartRateCount;
+        this.heartRate = heartRate;
+        this.heartRateMin = heartRateMin;
+        this.heartRateMax = heartRateMax;
+        this.mergedFrames = mergedFrames;
+    }
+}
@@ -0,0 +1,159 @@
+package com.ovalmoney.fitness.sensor;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.fitness.SensorsClient;
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Field;
+import com.google.android.gms.fitness.request.OnDataPointListener;
+import com.google.android.gms.fitness.request.SensorRequest;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.ovalmoney.fitness.permission.Permission.HEART_RATE;
+import static com.ovalmoney.fitness.permission.Permission.STEP;
+
+/**
+ * Live step deltas and heart rate from the {@link SensorsClient}, coalesced natively into one
+ * frame per interval. When {@code maxPendingFrames} frames are waiting for an acknowledgement,
+ * new samples are merged into the next frame instead of being emitted; zero disables the limit.
+ */
+public class LiveStream implements OnDataPointListener {
+
+    public interface FrameListener {
+        void onFrame(LiveFrame frame);
+    }
+
+    private final static ThreadFactory threadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FitnessLiveStream");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final SensorsClient sensorsClient;
+    private final FrameListener listener;
+    private final long frameInterval;
+    private final int maxPendingFrames;
+
+    private ScheduledExecutorService scheduler;
+
+    private long frameStart;
+    private long steps;
+    private int heartRateCount;
+    private double heartRateSum;
+    private double heartRateMin;
+    private double heartRateMax;
+    private int mergedFrames;
+    private int lastFrameId;
+    private int lastAcknowledgedFrameId;
+
+    public LiveStream(SensorsClient sensorsClient, FrameListener listener, long frameInterval, int maxPendingFrames) {
+        this.sensorsClient = sensorsClient;
+        this.listener = listener;
+        this.frameInterval = frameInterval;
+        this.maxPendingFrames = maxPendingFrames;
+    }
+
+    public Task<Void> start(int[] kinds) {
+        List<Task<Void>> tasks = new ArrayList<>();
+        for (int kind : kinds) {
+            DataType dataType;
+            switch (kind) {
+                case STEP:
+                    dataType = DataType.TYPE_STEP_COUNT_DELTA;
+                    break;
+                case HEART_RATE:
+                    dataType = DataType.TYPE_HEART_RATE_BPM;
+                    break;
+                default:
+                    continue;
+            }
+            tasks.add(sensorsClient.add(new SensorRequest.Builder()
+                    .setDataType(dataType)
+                    .setSamplingRate(frameInterval, TimeUnit.MILLISECONDS)
+                    .build(), this));
+        }
+
+        synchronized (this) {
+            frameStart = System.currentTimeMillis();
+            scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (RuntimeException e) {
+                        // An exception would cancel every later frame while the sensors stay registered
+                        Log.w(LiveStream.class.getName(), "Could not emit a live frame", e);
+                    }
+                }
+            }, frameInterval, frameInterval, TimeUnit.MILLISECONDS);
+        }
+        return Tasks.whenAll(tasks);
+    }
+
+    public Task<Boolean> stop() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        return sensorsClient.remove(this);
+    }
+
+    public synchronized void acknowledge(int frameId) {
+        lastAcknowledgedFrameId = Math.max(lastAcknowledgedFrameId, frameId);
+    }
+
+    @Override
+    public void onDataPoint(@NonNull DataPoint dataPoint) {
+        final DataType dataType = dataPoint.getDataType();
+        synchronized (this) {
+            if (DataType.TYPE_STEP_COUNT_DELTA.equals(dataType)) {
+                steps += dataPoint.getValue(Field.FIELD_STEPS).asInt();
+            } else if (DataType.TYPE_HEART_RATE_BPM.equals(dataType)) {
+                final double bpm = dataPoint.getValue(Field.FIELD_BPM).asFloat();
+                heartRateMin = heartRateCount == 0 ? bpm : Math.min(heartRateMin, bpm);
+                heartRateMax = heartRateCount == 0 ? bpm : Math.max(heartRateMax, bpm);
+                heartRateSum += bpm;
+                heartRateCount++;
+            }
+        }
+    }
+
+    private void flush() {
+        LiveFrame frame;
+        synchronized (this) {
+            if (steps == 0 && heartRateCount == 0) {
+                return;
+            }
+            if (maxPendingFrames > 0 && lastFrameId - lastAcknowledgedFrameId >= maxPendingFrames) {
+                mergedFrames++;
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            frame = new LiveFrame(++lastFrameId, frameStart, now, steps, heartRateCount,
+                    heartRateCount > 0 ? heartRateSum / heartRateCount : 0, heartRateMin, heartRateMax, mergedFrames);
+            frameStart = now;
+            steps = 0;
+            heartRateCount = 0;
+            heartRateSum = 0;
+            mergedFrames = 0;
+        }
+        listener.onFrame(frame);
+    }
+}
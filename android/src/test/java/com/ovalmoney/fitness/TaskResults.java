@@ -0,0 +1,40 @@
+package com.ovalmoney.fitness;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Wait for tasks without {@code Tasks.await}, which needs a main looper to check it isn't
+ * called from the main thread.
+ */
+public class TaskResults {
+
+    public final static Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private TaskResults() {}
+
+    public static <T> Task<T> await(Task<T> task) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        task.addOnCompleteListener(DIRECT, new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> completed) {
+                done.countDown();
+            }
+        });
+        assertTrue("Task did not complete", done.await(5, TimeUnit.SECONDS));
+        return task;
+    }
+}
@@ -0,0 +1,149 @@
+package com.ovalmoney.fitness.aggregation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DownsampleTest {
+
+    private final static long MINUTE = 60 * 1000;
+    private final static double DELTA = 1e-9;
+
+    @Test
+    public void keepsShortSeries() {
+        SampleSeries series = series(new double[]{ 1, 2, 3, 4 });
+
+        assertSame(series, Downsample.lttb(series, 4));
+        assertSame(series, Downsample.lttb(series, 10));
+        assertSame(series, Downsample.envelope(series, 4, RollUp.SUM));
+    }
+
+    @Test
+    public void lttbKeepsFirstAndLastPoints() {
+        SampleSeries series = series(wave(1000));
+
+        SampleSeries reduced = Downsample.lttb(series, 50);
+
+        assertEquals(50, reduced.size);
+        assertEquals(series.startDates[0], reduced.startDates[0]);
+        assertEquals(series.startDates[series.size - 1], reduced.startDates[reduced.size - 1]);
+        for (int i = 1; i < reduced.size; i++) {
+            assertTrue(reduced.startDates[i] > reduced.startDates[i - 1]);
+        }
+    }
+
+    @Test
+    public void lttbKeepsSpikes() {
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 70;
+        }
+        values[417] = 180;
+        values[733] = 40;
+
+        SampleSeries reduced = Downsample.lttb(series(values), 20);
+
+        assertTrue(contains(reduced, 417 * MINUTE, 180));
+        assertTrue(contains(reduced, 733 * MINUTE, 40));
+    }
+
+    @Test
+    public void lttbReturnsPointsUnchanged() {
+        SampleSeries series = series(wave(500));
+
+        SampleSeries reduced = Downsample.lttb(series, 30);
+
+        for (int i = 0; i < reduced.size; i++) {
+            final int index = (int) (reduced.startDates[i] / MINUTE);
+            assertEquals(series.quantities[index], reduced.quantities[i], DELTA);
+            assertEquals(series.endDates[index], reduced.endDates[i]);
+        }
+    }
+
+    @Test
+    public void lttbBelowThreePointsKeepsTheEnds() {
+        SampleSeries series = series(wave(100));
+
+        SampleSeries two = Downsample.lttb(series, 2);
+        SampleSeries one = Downsample.lttb(series, 1);
+
+        assertEquals(2, two.size);
+        assertEquals(0, two.startDates[0]);
+        assertEquals(99 * MINUTE, two.startDates[1]);
+        assertEquals(1, one.size);
+        assertEquals(0, one.startDates[0]);
+    }
+
+    @Test
+    public void envelopeKeepsExtremesAndWeightedAverage() {
+        final long[] startDates = new long[]{ 0, MINUTE, 2 * MINUTE, 5 * MINUTE };
+        final long[] endDates = new long[]{ MINUTE, 2 * MINUTE, 5 * MINUTE, 6 * MINUTE };
+        SampleSeries series = new SampleSeries(startDates, endDates,
+                new double[]{ 60, 100, 80, 90 },
+                new double[]{ 55, 90, 50, 85 },
+                new double[]{ 65, 160, 110, 95 }, 4);
+
+        SampleSeries reduced = Downsample.envelope(series, 2, RollUp.AVERAGE);
+
+        assertEquals(2, reduced.size);
+        assertEquals(80, reduced.quantities[0], DELTA);
+        assertEquals(55, reduced.mins[0], DELTA);
+        assertEquals(160, reduced.maxs[0], DELTA);
+        assertEquals((80 * 3 + 90) / 4.0, reduced.quantities[1], DELTA);
+        assertEquals(50, reduced.mins[1], DELTA);
+        assertEquals(110, reduced.maxs[1], DELTA);
+        assertEquals(2 * MINUTE, reduced.startDates[1]);
+        assertEquals(6 * MINUTE, reduced.endDates[1]);
+    }
+
+    @Test
+    public void envelopeKeepsTheTotal() {
+        SampleSeries series = series(wave(1000));
+        double total = 0;
+        for (int i = 0; i < series.size; i++) {
+            total += series.quantities[i];
+        }
+
+        SampleSeries reduced = Downsample.envelope(series, 7, RollUp.SUM);
+
+        double reducedTotal = 0;
+        for (int i = 0; i < reduced.size; i++) {
+            reducedTotal += reduced.quantities[i];
+            assertEquals(reduced.quantities[i], reduced.maxs[i], DELTA);
+        }
+        assertEquals(7, reduced.size);
+        assertEquals(total, reducedTotal, 1e-6);
+        assertEquals(0, reduced.startDates[0]);
+        assertEquals(1000 * MINUTE, reduced.endDates[6]);
+    }
+
+    private static double[] wave(int size) {
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = 80 + 20 * Math.sin(i / 25.0);
+        }
+        return values;
+    }
+
+    private static SampleSeries series(double[] values) {
+        final int size = values.length;
+        final long[] startDates = new long[size];
+        final long[] endDates = new long[size];
+        for (int i = 0; i < size; i++) {
+            startDates[i] = i * MINUTE;
+            endDates[i] = (i + 1) * MINUTE;
+        }
+        return new SampleSeries(startDates, endDates, values.clone(), values.clone(), values.clone(), size);
+    }
+
+    private static boolean contains(SampleSeries series, long startDate, double quantity) {
+        for (int i = 0; i < series.size; i++) {
+            if (series.startDates[i] == startDate && series.quantities[i] == quantity) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,110 @@
+package com.ovalmoney.fitness.aggregation;
+
+import com.ovalmoney.fitness.manager.Sample;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class RollUpTest {
+
+    private final static long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private final static long HOUR = TimeUnit.HOURS.toMillis(1);
+    private final static double DELTA = 1e-9;
+
+    @Test
+    public void weightsHeartRateByDuration() {
+        SampleSeries fine = SampleSeries.fromSamples(Arrays.asList(
+                new Sample(0, 10 * MINUTE, 60, 55, 70),
+                new Sample(10 * MINUTE, HOUR, 120, 90, 150)));
+
+        SampleSeries hourly = RollUp.rollUp(fine, 0, HOUR, HOUR, RollUp.AVERAGE);
+
+        assertEquals(1, hourly.size);
+        assertEquals((60 * 10 + 120 * 50) / 60.0, hourly.quantities[0], DELTA);
+        assertEquals(55, hourly.mins[0], DELTA);
+        assertEquals(150, hourly.maxs[0], DELTA);
+    }
+
+    @Test
+    public void weightsInstantSamplesAsOneMillisecond() {
+        SampleSeries fine = SampleSeries.fromSamples(Arrays.asList(
+                new Sample(0, 0, 60),
+                new Sample(MINUTE, MINUTE, 90)));
+
+        SampleSeries hourly = RollUp.rollUp(fine, 0, HOUR, HOUR, RollUp.AVERAGE);
+
+        assertEquals(75, hourly.quantities[0], DELTA);
+    }
+
+    @Test
+    public void averagesEachBucketSeparately() {
+        SampleSeries fine = SampleSeries.fromSamples(Arrays.asList(
+                new Sample(0, HOUR, 60),
+                new Sample(HOUR, 2 * HOUR, 80),
+                new Sample(2 * HOUR, 3 * HOUR, 100),
+                new Sample(3 * HOUR, 4 * HOUR, 140)));
+
+        SampleSeries twoHours = RollUp.rollUp(fine, 0, 4 * HOUR, 2 * HOUR, RollUp.AVERAGE);
+
+        assertEquals(2, twoHours.size);
+        assertEquals(70, twoHours.quantities[0], DELTA);
+        assertEquals(120, twoHours.quantities[1], DELTA);
+        assertEquals(100, twoHours.mins[1], DELTA);
+        assertEquals(140, twoHours.maxs[1], DELTA);
+    }
+
+    @Test
+    public void sumsTotals() {
+        SampleSeries fine = SampleSeries.fromSamples(Arrays.asList(
+                new Sample(0, HOUR, 100),
+                new Sample(HOUR, 2 * HOUR, 250),
+                new Sample(3 * HOUR, 4 * HOUR, 50)));
+
+        SampleSeries twoHours = RollUp.rollUp(fine, 0, 4 * HOUR, 2 * HOUR, RollUp.SUM);
+
+        assertEquals(2, twoHours.size);
+        assertEquals(350, twoHours.quantities[0], DELTA);
+        assertEquals(350, twoHours.maxs[0], DELTA);
+        assertEquals(50, twoHours.quantities[1], DELTA);
+        assertEquals(2 * HOUR, twoHours.startDates[1]);
+        assertEquals(4 * HOUR, twoHours.endDates[1]);
+    }
+
+    @Test
+    public void cutsBucketsToTheRange() {
+        SampleSeries fine = SampleSeries.fromSamples(Arrays.asList(
+                new Sample(0, HOUR, 100),
+                new Sample(HOUR, 90 * MINUTE, 20)));
+
+        SampleSeries daily = RollUp.rollUp(fine, 0, 90 * MINUTE, TimeUnit.DAYS.toMillis(1), RollUp.SUM);
+
+        assertEquals(1, daily.size);
+        assertEquals(90 * MINUTE, daily.endDates[0]);
+        assertEquals(120, daily.quantities[0], DELTA);
+    }
+
+    @Test
+    public void rollsUpToCalendarMonths() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        final long january = 1577836800000L;
+        final long february = 1580515200000L;
+        final long march = 1583020800000L;
+        SampleSeries fine = SampleSeries.fromSamples(Arrays.asList(
+                new Sample(january, january + HOUR, 10),
+                new Sample(february - HOUR, february, 20),
+                new Sample(february, february + HOUR, 5)));
+
+        SampleSeries monthly = RollUp.rollUpByMonth(fine, january, march, 1, utc, RollUp.SUM);
+
+        assertEquals(2, monthly.size);
+        assertEquals(30, monthly.quantities[0], DELTA);
+        assertEquals(february, monthly.endDates[0]);
+        assertEquals(5, monthly.quantities[1], DELTA);
+        assertEquals(march, monthly.endDates[1]);
+    }
+}
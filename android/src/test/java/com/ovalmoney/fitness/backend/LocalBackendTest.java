@@ -0,0 +1,176 @@
+package com.ovalmoney.fitness.backend;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.tasks.Task;
+import com.ovalmoney.fitness.manager.Interval;
+import com.ovalmoney.fitness.manager.Sample;
+import com.ovalmoney.fitness.manager.TimeRange;
+import com.ovalmoney.fitness.permission.Permission;
+
+import org.json.JSONException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.ovalmoney.fitness.TaskResults.DIRECT;
+import static com.ovalmoney.fitness.TaskResults.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LocalBackendTest {
+
+    private final static long HOUR = TimeUnit.HOURS.toMillis(1);
+    private final static long DAY = TimeUnit.DAYS.toMillis(1);
+    private final static double DELTA = 1e-9;
+    private final static int[] KINDS = new int[]{ Permission.STEP, Permission.HEART_RATE };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generatesTheSameDataForTheSameSeed() throws InterruptedException {
+        TimeRange range = new TimeRange(10 * DAY, 12 * DAY);
+        Interval hour = Interval.parse("hour");
+
+        SparseArray<List<Sample>> first = read(new LocalBackend(null, 0, 0, 0, 42), KINDS, range, hour);
+        SparseArray<List<Sample>> again = read(new LocalBackend(null, 5, 5, 0, 42), KINDS, range, hour);
+
+        for (int kind : KINDS) {
+            List<Sample> samples = first.get(kind);
+            assertFalse(samples.isEmpty());
+            assertTrue(samples.size() <= 48);
+            assertSameSamples(samples, again.get(kind));
+        }
+    }
+
+    @Test
+    public void generatesBucketsWithinTheRange() throws InterruptedException {
+        TimeRange range = new TimeRange(DAY, DAY + 3 * HOUR + HOUR / 2);
+
+        List<Sample> steps = read(new LocalBackend(null, 0, 0, 0, 7), KINDS, range, Interval.parse("hour")).get(Permission.STEP);
+
+        for (Sample sample : steps) {
+            assertEquals(0, (sample.startDate - DAY) % HOUR);
+            assertTrue(sample.startDate >= range.start);
+            assertTrue(sample.endDate <= range.end);
+        }
+    }
+
+    @Test
+    public void replaysRecordingRolledUp() throws InterruptedException {
+        SparseArray<List<Sample>> recorded = new SparseArray<>();
+        recorded.put(Permission.STEP, Arrays.asList(
+                new Sample(0, 30 * 60 * 1000, 100),
+                new Sample(30 * 60 * 1000, HOUR, 50),
+                new Sample(HOUR, 2 * HOUR, 300),
+                new Sample(5 * HOUR, 6 * HOUR, 1000)));
+        recorded.put(Permission.HEART_RATE, Arrays.asList(
+                new Sample(0, 15 * 60 * 1000, 60, 50, 70),
+                new Sample(15 * 60 * 1000, HOUR, 100, 80, 140)));
+
+        SparseArray<List<Sample>> samples = read(new LocalBackend(recorded, 0, 0, 0, 0), KINDS,
+                new TimeRange(0, 4 * HOUR), Interval.parse("2 hours"));
+
+        List<Sample> steps = samples.get(Permission.STEP);
+        assertEquals(1, steps.size());
+        assertEquals(450, steps.get(0).quantity, DELTA);
+        assertEquals(2 * HOUR, steps.get(0).endDate);
+        Sample heartRate = samples.get(Permission.HEART_RATE).get(0);
+        assertEquals((60 * 15 + 100 * 45) / 60.0, heartRate.quantity, DELTA);
+        assertEquals(50, heartRate.min, DELTA);
+        assertEquals(140, heartRate.max, DELTA);
+    }
+
+    @Test
+    public void readsRecordingFiles() throws IOException, JSONException {
+        File file = folder.newFile("recording.json");
+        OutputStream output = new FileOutputStream(file);
+        output.write(("{\"0\": [{\"startDate\": 3600000, \"endDate\": 7200000, \"quantity\": 20, \"label\": \"walk\"},"
+                + " {\"startDate\": 0, \"endDate\": 3600000, \"quantity\": 10}],"
+                + " \"4\": [{\"startDate\": 0, \"endDate\": 60000, \"quantity\": 80, \"min\": 70, \"max\": 95}]}").getBytes("UTF-8"));
+        output.close();
+
+        SparseArray<List<Sample>> recorded = LocalBackend.readRecording(file);
+
+        List<Sample> steps = recorded.get(Permission.STEP);
+        assertEquals(2, steps.size());
+        assertEquals(0, steps.get(0).startDate);
+        assertEquals(10, steps.get(0).min, DELTA);
+        assertNull(steps.get(0).label);
+        assertEquals("walk", steps.get(1).label);
+        Sample heartRate = recorded.get(Permission.HEART_RATE).get(0);
+        assertEquals(70, heartRate.min, DELTA);
+        assertEquals(95, heartRate.max, DELTA);
+    }
+
+    @Test
+    public void readRawKeepsTheNewestSamples() throws InterruptedException {
+        TimeRange range = new TimeRange(0, DAY);
+        LocalBackend backend = new LocalBackend(null, 0, 0, 0, 3);
+
+        List<Sample> all = await(backend.readRaw(Permission.STEP, range, Integer.MAX_VALUE, DIRECT)).getResult();
+        List<Sample> newest = await(backend.readRaw(Permission.STEP, range, 5, DIRECT)).getResult();
+
+        assertEquals(5, newest.size());
+        assertSameSamples(all.subList(all.size() - 5, all.size()), newest);
+    }
+
+    @Test
+    public void generatesOneWeightADay() throws InterruptedException {
+        LocalBackend backend = new LocalBackend(null, 0, 0, 0, 3);
+
+        List<Sample> weights = await(backend.readRaw(Permission.WEIGHT, new TimeRange(HOUR, 3 * DAY + HOUR), 10, DIRECT)).getResult();
+
+        assertEquals(3, weights.size());
+        assertEquals(DAY, weights.get(0).startDate);
+        assertEquals(3 * DAY, weights.get(2).startDate);
+    }
+
+    @Test
+    public void failsAtTheConfiguredRate() throws InterruptedException {
+        LocalBackend backend = new LocalBackend(null, 0, 0, 1, 0);
+
+        Task<SparseArray<List<Sample>>> task = await(backend.readAggregates(KINDS, new TimeRange(0, DAY), Interval.parse("hour"), DIRECT));
+
+        assertFalse(task.isSuccessful());
+        assertTrue(task.getException() instanceof IOException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedKinds() {
+        new LocalBackend(null, 0, 0, 0, 0).readAggregates(new int[]{ Permission.WEIGHT }, new TimeRange(0, DAY), Interval.parse("day"), DIRECT);
+    }
+
+    private static SparseArray<List<Sample>> read(LocalBackend backend, int[] kinds, TimeRange range, Interval interval) throws InterruptedException {
+        Task<SparseArray<List<Sample>>> task = await(backend.readAggregates(kinds, range, interval, DIRECT));
+        assertTrue(task.isSuccessful());
+        return task.getResult();
+    }
+
+    private static void assertSameSamples(List<Sample> expected, List<Sample> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).startDate, actual.get(i).startDate);
+            assertEquals(expected.get(i).endDate, actual.get(i).endDate);
+            assertEquals(expected.get(i).quantity, actual.get(i).quantity, DELTA);
+            assertEquals(expected.get(i).min, actual.get(i).min, DELTA);
+            assertEquals(expected.get(i).max, actual.get(i).max, DELTA);
+        }
+    }
+}
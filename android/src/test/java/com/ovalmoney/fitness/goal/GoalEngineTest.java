@@ -0,0 +1,146 @@
+package com.ovalmoney.fitness.goal;
+
+import com.ovalmoney.fitness.permission.Permission;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GoalEngineTest {
+
+    private final static long DAY = TimeUnit.DAYS.toMillis(1);
+    private final static long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private final Goal steps = Goal.dailyTotal("steps", Permission.STEP, 10000);
+    private final Goal heartRate = Goal.heartRateAbove("cardio", 140, 10 * MINUTE);
+    private GoalEngine engine;
+
+    @Before
+    public void setUp() {
+        engine = new GoalEngine();
+        engine.setGoals(Arrays.asList(steps, heartRate));
+    }
+
+    @Test
+    public void dailyGoalIsReachedOncePerDay() {
+        assertTrue(engine.onDailyTotal(Permission.STEP, DAY, 9999, DAY + 1).isEmpty());
+
+        List<GoalCrossing> crossings = engine.onDailyTotal(Permission.STEP, DAY, 10000, DAY + 2);
+
+        assertEquals(1, crossings.size());
+        assertSame(steps, crossings.get(0).goal);
+        assertEquals(GoalCrossing.REACHED, crossings.get(0).state);
+        assertEquals(10000, crossings.get(0).value, 0);
+        assertEquals(DAY + 2, crossings.get(0).date);
+        assertTrue(engine.isReached(steps, DAY));
+        assertTrue(engine.onDailyTotal(Permission.STEP, DAY, 12000, DAY + 3).isEmpty());
+
+        assertFalse(engine.isReached(steps, 2 * DAY));
+        assertEquals(1, engine.onDailyTotal(Permission.STEP, 2 * DAY, 10500, 2 * DAY + 1).size());
+    }
+
+    @Test
+    public void dailyGoalIgnoresOtherKindsAndPastDays() {
+        assertTrue(engine.onDailyTotal(Permission.DISTANCE, DAY, 20000, DAY + 1).isEmpty());
+
+        engine.onDailyTotal(Permission.STEP, 2 * DAY, 10000, 2 * DAY + 1);
+
+        assertTrue(engine.onDailyTotal(Permission.STEP, DAY, 10000, 2 * DAY + 2).isEmpty());
+    }
+
+    @Test
+    public void heartRateGoesAboveOnceSustained() {
+        assertTrue(engine.onHeartRate(0, 5 * MINUTE, 150).isEmpty());
+
+        List<GoalCrossing> crossings = engine.onHeartRate(5 * MINUTE, 10 * MINUTE, 145);
+
+        assertEquals(1, crossings.size());
+        assertEquals(GoalCrossing.ABOVE, crossings.get(0).state);
+        assertEquals(10 * MINUTE, crossings.get(0).date);
+        assertTrue(engine.isReached(heartRate, 0));
+        assertTrue(engine.onHeartRate(10 * MINUTE, 15 * MINUTE, 160).isEmpty());
+    }
+
+    @Test
+    public void heartRateGoesBelowAsSoonAsItDrops() {
+        engine.onHeartRate(0, 10 * MINUTE, 150);
+
+        List<GoalCrossing> crossings = engine.onHeartRate(10 * MINUTE, 11 * MINUTE, 120);
+
+        assertEquals(1, crossings.size());
+        assertEquals(GoalCrossing.BELOW, crossings.get(0).state);
+        assertFalse(engine.isReached(heartRate, 0));
+        assertTrue(engine.onHeartRate(11 * MINUTE, 12 * MINUTE, 110).isEmpty());
+    }
+
+    @Test
+    public void heartRateDipRestartsTheStreak() {
+        engine.onHeartRate(0, 6 * MINUTE, 150);
+        engine.onHeartRate(6 * MINUTE, 7 * MINUTE, 130);
+
+        assertTrue(engine.onHeartRate(7 * MINUTE, 12 * MINUTE, 150).isEmpty());
+        assertEquals(1, engine.onHeartRate(12 * MINUTE, 17 * MINUTE, 150).size());
+    }
+
+    @Test
+    public void heartRateGapRestartsTheStreak() {
+        engine.onHeartRate(0, 6 * MINUTE, 150);
+
+        assertTrue(engine.onHeartRate(20 * MINUTE, 25 * MINUTE, 150).isEmpty());
+        assertEquals(1, engine.onHeartRate(25 * MINUTE, 30 * MINUTE, 150).size());
+    }
+
+    @Test
+    public void heartRateIgnoresOlderValues() {
+        engine.onHeartRate(0, 10 * MINUTE, 150);
+
+        assertTrue(engine.onHeartRate(2 * MINUTE, 3 * MINUTE, 100).isEmpty());
+        assertTrue(engine.isReached(heartRate, 0));
+    }
+
+    @Test
+    public void unchangedGoalsKeepTheirState() {
+        engine.onDailyTotal(Permission.STEP, DAY, 10000, DAY + 1);
+        engine.onHeartRate(0, 10 * MINUTE, 150);
+
+        engine.setGoals(Arrays.asList(Goal.dailyTotal("steps", Permission.STEP, 10000),
+                Goal.heartRateAbove("cardio", 140, 10 * MINUTE)));
+
+        assertTrue(engine.onDailyTotal(Permission.STEP, DAY, 11000, DAY + 2).isEmpty());
+        assertTrue(engine.onHeartRate(10 * MINUTE, 15 * MINUTE, 150).isEmpty());
+    }
+
+    @Test
+    public void changedGoalsStartOver() {
+        engine.onDailyTotal(Permission.STEP, DAY, 10000, DAY + 1);
+
+        Goal lowered = Goal.dailyTotal("steps", Permission.STEP, 8000);
+        engine.setGoals(Collections.singletonList(lowered));
+
+        assertFalse(engine.isReached(lowered, DAY));
+        assertEquals(1, engine.onDailyTotal(Permission.STEP, DAY, 10000, DAY + 2).size());
+    }
+
+    @Test
+    public void reachedDaysAreRestoredForKnownGoalsOnly() {
+        engine.onDailyTotal(Permission.STEP, DAY, 10000, DAY + 1);
+        GoalEngine restored = new GoalEngine();
+        restored.setGoals(Collections.singletonList(steps));
+
+        restored.restoreReachedDays(engine.getReachedDays());
+        restored.restoreReachedDays(Collections.singletonMap("removed", DAY));
+
+        assertTrue(restored.isReached(steps, DAY));
+        assertEquals(1, restored.getReachedDays().size());
+        assertTrue(restored.onDailyTotal(Permission.STEP, DAY, 10000, DAY + 2).isEmpty());
+    }
+}
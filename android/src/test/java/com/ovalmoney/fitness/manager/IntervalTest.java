@@ -0,0 +1,99 @@
+package com.ovalmoney.fitness.manager;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IntervalTest {
+
+    @Test
+    public void emptyIsOneDay() {
+        assertTime(TimeUnit.DAYS.toMillis(1), null);
+        assertTime(TimeUnit.DAYS.toMillis(1), "");
+        assertTime(TimeUnit.DAYS.toMillis(1), "  ");
+    }
+
+    @Test
+    public void parsesEveryUnit() {
+        assertTime(TimeUnit.MINUTES.toMillis(1), "m");
+        assertTime(TimeUnit.MINUTES.toMillis(15), "15 minutes");
+        assertTime(TimeUnit.MINUTES.toMillis(30), "30min");
+        assertTime(TimeUnit.HOURS.toMillis(1), "hour");
+        assertTime(TimeUnit.HOURS.toMillis(6), "6h");
+        assertTime(TimeUnit.DAYS.toMillis(1), "days");
+        assertTime(TimeUnit.DAYS.toMillis(2), "2d");
+        assertTime(TimeUnit.DAYS.toMillis(7), "week");
+        assertTime(TimeUnit.DAYS.toMillis(14), "2 weeks");
+    }
+
+    @Test
+    public void ignoresCaseAndSurroundingSpaces() {
+        assertTime(TimeUnit.HOURS.toMillis(2), "  2 Hours ");
+    }
+
+    @Test
+    public void parsesMonths() {
+        Interval month = Interval.parse("month");
+        assertTrue(month.isMonth());
+        assertEquals(1, month.months);
+        assertEquals(3, Interval.parse("3mo").months);
+        assertEquals(12, Interval.parse("12 months").months);
+    }
+
+    @Test
+    public void parsesActivitiesAndSessions() {
+        assertEquals(Interval.ACTIVITY_SEGMENT, Interval.parse("activity").mode);
+        assertEquals(Interval.ACTIVITY_SEGMENT, Interval.parse("activities").mode);
+        assertEquals(Interval.SESSION, Interval.parse("session").mode);
+        assertEquals(Interval.SESSION, Interval.parse("sessions").mode);
+    }
+
+    @Test
+    public void acceptsTheLongestBucket() {
+        assertTime(TimeUnit.DAYS.toMillis(366), "366 days");
+        assertTime(TimeUnit.HOURS.toMillis(366 * 24), "8784 hours");
+    }
+
+    @Test
+    public void rejectsUnknownUnits() {
+        assertInvalid("fortnight");
+        assertInvalid("2 years");
+        assertInvalid("-1 day");
+        assertInvalid("1.5 hours");
+    }
+
+    @Test
+    public void rejectsZeroCounts() {
+        assertInvalid("0 hours");
+        assertInvalid("0mo");
+    }
+
+    @Test
+    public void rejectsCountsWhichWouldOverflow() {
+        assertInvalid("367 days");
+        assertInvalid("53 weeks");
+        assertInvalid("13 months");
+        assertInvalid("999999999 weeks");
+        assertInvalid("9999999999 minutes");
+        assertInvalid("99999999999999999999 minutes");
+    }
+
+    private static void assertTime(long millis, String value) {
+        Interval interval = Interval.parse(value);
+        assertTrue(interval.isTime());
+        assertEquals(millis, interval.millis);
+    }
+
+    private static void assertInvalid(String value) {
+        try {
+            Interval.parse(value);
+            fail("Expected \"" + value + "\" to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.ovalmoney.fitness.manager;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+import static com.ovalmoney.fitness.TaskResults.DIRECT;
+import static com.ovalmoney.fitness.TaskResults.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryRegistryTest {
+
+    @Test
+    public void cancelsRunningQueries() {
+        QueryRegistry queries = new QueryRegistry();
+        QueryRegistry.Query query = queries.start("steps", 0);
+
+        assertTrue(queries.cancel("steps"));
+
+        assertTrue(query.isCancelled());
+        assertTrue(query.getCancellation() instanceof CancellationException);
+        assertFalse(queries.cancel("steps"));
+        assertFalse(queries.cancel("unknown"));
+    }
+
+    @Test
+    public void replacesQueriesWithTheSameId() {
+        QueryRegistry queries = new QueryRegistry();
+        QueryRegistry.Query first = queries.start("steps", 0);
+        QueryRegistry.Query second = queries.start("steps", 0);
+
+        assertTrue(first.isCancelled());
+        assertFalse(second.isCancelled());
+
+        queries.finish(first);
+        assertTrue(queries.cancel("steps"));
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void finishedQueriesCanNoLongerBeCancelled() {
+        QueryRegistry queries = new QueryRegistry();
+        QueryRegistry.Query query = queries.start("steps", 0);
+
+        queries.finish(query);
+
+        assertFalse(queries.cancel("steps"));
+        assertFalse(query.isCancelled());
+    }
+
+    @Test
+    public void timesOut() throws InterruptedException {
+        QueryRegistry queries = new QueryRegistry();
+        QueryRegistry.Query query = queries.start("steps", 20);
+        Task<List<Sample>> pending = new TaskCompletionSource<List<Sample>>().getTask();
+
+        Task<List<Sample>> task = await(query.whileActive(pending, DIRECT));
+
+        assertTrue(query.isCancelled());
+        assertTrue(task.getException() instanceof TimeoutException);
+    }
+
+    @Test
+    public void finishingStopsTheTimeout() throws InterruptedException {
+        QueryRegistry queries = new QueryRegistry();
+        QueryRegistry.Query query = queries.start("steps", 20);
+
+        queries.finish(query);
+        Thread.sleep(100);
+
+        assertFalse(query.isCancelled());
+    }
+
+    @Test
+    public void settlesAsSoonAsCancelled() throws InterruptedException {
+        QueryRegistry queries = new QueryRegistry();
+        QueryRegistry.Query query = queries.start("steps", 0);
+        TaskCompletionSource<List<Sample>> read = new TaskCompletionSource<>();
+        Task<List<Sample>> task = query.whileActive(read.getTask(), DIRECT);
+
+        queries.cancel("steps");
+        read.setResult(Collections.<Sample>emptyList());
+
+        await(task);
+        assertTrue(task.getException() instanceof CancellationException);
+    }
+
+    @Test
+    public void settlesWithEmptyResults() throws InterruptedException {
+        QueryRegistry queries = new QueryRegistry();
+        QueryRegistry.Query query = queries.start("steps", 0);
+        TaskCompletionSource<List<Sample>> read = new TaskCompletionSource<>();
+        Task<List<Sample>> task = query.whileActive(read.getTask(), DIRECT);
+
+        read.setResult(Collections.<Sample>emptyList());
+
+        await(task);
+        assertTrue(task.isSuccessful());
+        assertEquals(0, task.getResult().size());
+    }
+
+    @Test
+    public void settlesWithFailures() throws InterruptedException {
+        QueryRegistry queries = new QueryRegistry();
+        QueryRegistry.Query query = queries.start("steps", 0);
+        TaskCompletionSource<List<Sample>> read = new TaskCompletionSource<>();
+        Task<List<Sample>> task = query.whileActive(read.getTask(), DIRECT);
+
+        read.setException(new IllegalStateException("denied"));
+
+        await(task);
+        assertTrue(task.getException() instanceof IllegalStateException);
+        assertFalse(query.isCancelled());
+    }
+}
@@ -0,0 +1,167 @@
+package com.ovalmoney.fitness.manager;
+
+import com.google.android.gms.tasks.CancellationTokenSource;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ovalmoney.fitness.TaskResults.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestSchedulerTest {
+
+    /**
+     * Records the order calls start in and completes them on demand.
+     */
+    private static class Calls {
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final List<TaskCompletionSource<String>> sources = Collections.synchronizedList(new ArrayList<TaskCompletionSource<String>>());
+
+        TaskFactory<String> pending(final String name) {
+            return new TaskFactory<String>() {
+                @Override
+                public Task<String> create() {
+                    TaskCompletionSource<String> source = new TaskCompletionSource<>();
+                    started.add(name);
+                    sources.add(source);
+                    return source.getTask();
+                }
+            };
+        }
+
+        void complete(int index) {
+            sources.get(index).setResult(started.get(index));
+        }
+    }
+
+    @Test
+    public void startsInteractiveCallsFirst() {
+        RequestScheduler scheduler = new RequestScheduler(1, 0, 0, 1, 1);
+        Calls calls = new Calls();
+
+        scheduler.submit(calls.pending("first"), RequestScheduler.INTERACTIVE, 0, null);
+        scheduler.submit(calls.pending("background"), RequestScheduler.BACKGROUND, 0, null);
+        scheduler.submit(calls.pending("interactive"), RequestScheduler.INTERACTIVE, 0, null);
+        assertEquals(Collections.singletonList("first"), calls.started);
+
+        calls.complete(0);
+        assertEquals(2, calls.started.size());
+        assertEquals("interactive", calls.started.get(1));
+
+        calls.complete(1);
+        assertEquals(3, calls.started.size());
+        assertEquals("background", calls.started.get(2));
+    }
+
+    @Test
+    public void backgroundCallsLeaveASlotFree() {
+        RequestScheduler scheduler = new RequestScheduler(2, 0, 0, 1, 1);
+        Calls calls = new Calls();
+
+        scheduler.submit(calls.pending("background 1"), RequestScheduler.BACKGROUND, 0, null);
+        scheduler.submit(calls.pending("background 2"), RequestScheduler.BACKGROUND, 0, null);
+        assertEquals(1, calls.started.size());
+
+        scheduler.submit(calls.pending("interactive"), RequestScheduler.INTERACTIVE, 0, null);
+        assertEquals(2, calls.started.size());
+        assertEquals("interactive", calls.started.get(1));
+
+        calls.complete(0);
+        assertEquals(3, calls.started.size());
+        assertEquals("background 2", calls.started.get(2));
+    }
+
+    @Test
+    public void retriesTransientFailures() throws InterruptedException {
+        RequestScheduler scheduler = new RequestScheduler(1, 0, 0, 1, 1);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Task<String> task = scheduler.submit(new TaskFactory<String>() {
+            @Override
+            public Task<String> create() {
+                TaskCompletionSource<String> source = new TaskCompletionSource<>();
+                if (attempts.incrementAndGet() < 3) {
+                    source.setException(new IOException("offline"));
+                } else {
+                    source.setResult("done");
+                }
+                return source.getTask();
+            }
+        }, RequestScheduler.INTERACTIVE, 2, null);
+
+        await(task);
+        assertTrue(task.isSuccessful());
+        assertEquals("done", task.getResult());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void failsOnceRetriesAreExhausted() throws InterruptedException {
+        RequestScheduler scheduler = new RequestScheduler(1, 0, 0, 1, 1);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Task<String> task = scheduler.submit(failing(attempts, new IOException("offline")), RequestScheduler.INTERACTIVE, 2, null);
+
+        await(task);
+        assertFalse(task.isSuccessful());
+        assertTrue(task.getException() instanceof IOException);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryOtherFailures() throws InterruptedException {
+        RequestScheduler scheduler = new RequestScheduler(1, 0, 0, 1, 1);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Task<String> task = scheduler.submit(failing(attempts, new IllegalStateException("denied")), RequestScheduler.INTERACTIVE, 2, null);
+
+        await(task);
+        assertTrue(task.getException() instanceof IllegalStateException);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void doesNotStartCancelledCalls() throws InterruptedException {
+        RequestScheduler scheduler = new RequestScheduler(1, 0, 0, 1, 1);
+        Calls calls = new Calls();
+        CancellationTokenSource cancellation = new CancellationTokenSource();
+
+        scheduler.submit(calls.pending("first"), RequestScheduler.INTERACTIVE, 0, null);
+        Task<String> cancelled = scheduler.submit(calls.pending("cancelled"), RequestScheduler.INTERACTIVE, 0, cancellation.getToken());
+        cancellation.cancel();
+        calls.complete(0);
+
+        await(cancelled);
+        assertTrue(cancelled.getException() instanceof CancellationException);
+        assertEquals(Collections.singletonList("first"), calls.started);
+    }
+
+    @Test
+    public void recognisesTransientErrors() {
+        assertTrue(RequestScheduler.isTransient(new IOException()));
+        assertFalse(RequestScheduler.isTransient(new IllegalStateException()));
+        assertFalse(RequestScheduler.isTransient(null));
+    }
+
+    private static TaskFactory<String> failing(final AtomicInteger attempts, final Exception error) {
+        return new TaskFactory<String>() {
+            @Override
+            public Task<String> create() {
+                attempts.incrementAndGet();
+                TaskCompletionSource<String> source = new TaskCompletionSource<>();
+                source.setException(error);
+                return source.getTask();
+            }
+        };
+    }
+}
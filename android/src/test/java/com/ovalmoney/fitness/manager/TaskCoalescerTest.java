@@ -0,0 +1,180 @@
+package com.ovalmoney.fitness.manager;
+
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.CancellationTokenSource;
+import com.google.android.gms.tasks.OnTokenCanceledListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.ovalmoney.fitness.TaskResults.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TaskCoalescerTest {
+
+    /**
+     * Creates pending reads which fail once their token is cancelled, as scheduled reads do.
+     */
+    private static class Reads implements CancellableTaskFactory<List<Sample>> {
+        final List<TaskCompletionSource<List<Sample>>> sources = new ArrayList<>();
+        final List<CancellationToken> tokens = new ArrayList<>();
+
+        @Override
+        public Task<List<Sample>> create(CancellationToken token) {
+            final TaskCompletionSource<List<Sample>> source = new TaskCompletionSource<>();
+            token.onCanceledRequested(new OnTokenCanceledListener() {
+                @Override
+                public void onCanceled() {
+                    source.trySetException(new CancellationException());
+                }
+            });
+            sources.add(source);
+            tokens.add(token);
+            return source.getTask();
+        }
+    }
+
+    private final TaskCoalescer<List<Sample>> coalescer = new TaskCoalescer<>();
+
+    @Test
+    public void sharesIdenticalReads() {
+        Reads reads = new Reads();
+
+        Task<List<Sample>> first = coalescer.run("steps", null, reads);
+        Task<List<Sample>> second = coalescer.run("steps", null, reads);
+        coalescer.run("distance", null, reads);
+
+        assertSame(first, second);
+        assertEquals(2, reads.sources.size());
+    }
+
+    @Test
+    public void startsAgainOnceSettled() throws InterruptedException {
+        Reads reads = new Reads();
+        Task<List<Sample>> first = coalescer.run("steps", null, reads);
+
+        reads.sources.get(0).setResult(Collections.<Sample>emptyList());
+        await(first);
+        Task<List<Sample>> second = coalescer.run("steps", null, reads);
+
+        assertNotSame(first, second);
+        assertEquals(2, reads.sources.size());
+    }
+
+    @Test
+    public void settlesEveryCallerWithEmptyResults() throws InterruptedException {
+        Reads reads = new Reads();
+        Task<List<Sample>> first = coalescer.run("steps", null, reads);
+        Task<List<Sample>> second = coalescer.run("steps", null, reads);
+
+        reads.sources.get(0).setResult(Collections.<Sample>emptyList());
+
+        assertTrue(await(first).isSuccessful());
+        assertTrue(await(second).isSuccessful());
+        assertTrue(first.getResult().isEmpty());
+    }
+
+    @Test
+    public void cancelsOnlyOnceEveryCallerCancelled() throws InterruptedException {
+        Reads reads = new Reads();
+        CancellationTokenSource firstCaller = new CancellationTokenSource();
+        CancellationTokenSource secondCaller = new CancellationTokenSource();
+        Task<List<Sample>> task = coalescer.run("steps", firstCaller.getToken(), reads);
+        coalescer.run("steps", secondCaller.getToken(), reads);
+
+        firstCaller.cancel();
+        assertFalse(reads.tokens.get(0).isCancellationRequested());
+        assertFalse(task.isComplete());
+
+        secondCaller.cancel();
+        assertTrue(reads.tokens.get(0).isCancellationRequested());
+        assertTrue(await(task).getException() instanceof CancellationException);
+    }
+
+    @Test
+    public void callersWithoutTokenKeepTheReadAlive() {
+        Reads reads = new Reads();
+        CancellationTokenSource caller = new CancellationTokenSource();
+        coalescer.run("steps", caller.getToken(), reads);
+        coalescer.run("steps", null, reads);
+
+        caller.cancel();
+
+        assertFalse(reads.tokens.get(0).isCancellationRequested());
+    }
+
+    @Test
+    public void cancelledReadsAreNotHandedToNewCallers() {
+        Reads reads = new Reads();
+        CancellationTokenSource caller = new CancellationTokenSource();
+        Task<List<Sample>> cancelled = coalescer.run("steps", caller.getToken(), reads);
+
+        caller.cancel();
+        Task<List<Sample>> next = coalescer.run("steps", null, reads);
+
+        assertNotSame(cancelled, next);
+        assertEquals(2, reads.sources.size());
+    }
+
+    @Test
+    public void failsCallersAttachedWhileCreateThrows() throws InterruptedException {
+        final AtomicReference<Task<List<Sample>>> attached = new AtomicReference<>();
+        final IllegalStateException error = new IllegalStateException("no account");
+
+        try {
+            coalescer.run("steps", null, new CancellableTaskFactory<List<Sample>>() {
+                @Override
+                public Task<List<Sample>> create(CancellationToken token) {
+                    attached.set(coalescer.run("steps", null, new Reads()));
+                    throw error;
+                }
+            });
+            fail("Expected create to throw");
+        } catch (IllegalStateException e) {
+            assertSame(error, e);
+        }
+
+        assertSame(error, await(attached.get()).getException());
+    }
+
+    @Test
+    public void createsOutsideTheLock() throws InterruptedException {
+        final Reads reads = new Reads();
+        final AtomicReference<Thread> other = new AtomicReference<>();
+
+        coalescer.run("steps", null, new CancellableTaskFactory<List<Sample>>() {
+            @Override
+            public Task<List<Sample>> create(CancellationToken token) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        coalescer.run("distance", null, reads);
+                    }
+                });
+                thread.start();
+                try {
+                    thread.join(TimeUnit.SECONDS.toMillis(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                other.set(thread);
+                return reads.create(token);
+            }
+        });
+
+        assertFalse("Another key waited for a create in progress", other.get().isAlive());
+    }
+}
@@ -0,0 +1,90 @@
+package com.ovalmoney.fitness.benchmark;
+
+import com.ovalmoney.fitness.manager.Sample;
+import com.ovalmoney.fitness.manager.SampleFormat;
+import com.ovalmoney.fitness.permission.Permission;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting a year of hourly buckets into result rows, the part of processSamples which
+ * doesn't depend on the bridge. Rows go to a blackhole instead of bridge maps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversionBenchmark {
+
+    private List<Sample> steps;
+    private List<Sample> distance;
+    private List<Sample> heartRates;
+
+    private static class BlackholeRows implements SampleFormat.RowWriter {
+        private final Blackhole blackhole;
+
+        BlackholeRows(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void beginRow() {
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void putDouble(String key, double value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void endRow() {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        steps = Fixtures.hourlySteps(Fixtures.HOURS_PER_YEAR);
+        distance = Fixtures.hourlyDistance(Fixtures.HOURS_PER_YEAR);
+        heartRates = Fixtures.heartRates(Fixtures.HOURS_PER_YEAR, Fixtures.HOUR);
+    }
+
+    @Benchmark
+    public void processStep(Blackhole blackhole) {
+        SampleFormat.writeSamples(Permission.STEP, steps, new BlackholeRows(blackhole));
+    }
+
+    @Benchmark
+    public void processDistance(Blackhole blackhole) {
+        SampleFormat.writeSamples(Permission.DISTANCE, distance, new BlackholeRows(blackhole));
+    }
+
+    @Benchmark
+    public void processHeartRate(Blackhole blackhole) {
+        SampleFormat.writeSamples(Permission.HEART_RATE, heartRates, new BlackholeRows(blackhole));
+    }
+
+    /**
+     * The date formatting alone, with the format every result uses.
+     */
+    @Benchmark
+    public void formatDates(Blackhole blackhole) {
+        for (Sample sample : steps) {
+            blackhole.consume(SampleFormat.getDateFormat().format(sample.startDate));
+            blackhole.consume(SampleFormat.getDateFormat().format(sample.endDate));
+        }
+    }
+}
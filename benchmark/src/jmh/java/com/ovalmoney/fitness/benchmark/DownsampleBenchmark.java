@@ -0,0 +1,52 @@
+package com.ovalmoney.fitness.benchmark;
+
+import com.ovalmoney.fitness.aggregation.Downsample;
+import com.ovalmoney.fitness.aggregation.RollUp;
+import com.ovalmoney.fitness.aggregation.SampleSeries;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reducing dense heart rate series to chart size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DownsampleBenchmark {
+
+    /**
+     * A day at one bucket every 5 seconds, and a week at one per minute.
+     */
+    @Param({ "17280", "10080" })
+    public int size;
+
+    @Param({ "300" })
+    public int maxPoints;
+
+    private SampleSeries heartRates;
+
+    @Setup
+    public void setUp() {
+        final long step = size == 17280 ? TimeUnit.SECONDS.toMillis(5) : TimeUnit.MINUTES.toMillis(1);
+        heartRates = SampleSeries.fromSamples(Fixtures.heartRates(size, step));
+    }
+
+    @Benchmark
+    public SampleSeries lttb() {
+        return Downsample.lttb(heartRates, maxPoints);
+    }
+
+    @Benchmark
+    public SampleSeries envelope() {
+        return Downsample.envelope(heartRates, maxPoints, RollUp.AVERAGE);
+    }
+}
@@ -0,0 +1,72 @@
+package com.ovalmoney.fitness.benchmark;
+
+import com.ovalmoney.fitness.manager.Sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic series shaped like what Google Fit returns, with a fixed seed so runs compare.
+ */
+final class Fixtures {
+
+    final static long START = 1546300800000L;
+    final static long HOUR = TimeUnit.HOURS.toMillis(1);
+    final static long DAY = TimeUnit.DAYS.toMillis(1);
+    final static long WEEK = TimeUnit.DAYS.toMillis(7);
+    final static int HOURS_PER_YEAR = 24 * 365;
+
+    private Fixtures() {}
+
+    /**
+     * A year of hourly step buckets, with the empty night buckets Google Fit leaves out.
+     */
+    static List<Sample> hourlySteps(int hours) {
+        final Random random = new Random(42);
+        List<Sample> samples = new ArrayList<>(hours);
+        for (int i = 0; i < hours; i++) {
+            final int hourOfDay = i % 24;
+            if (hourOfDay < 7) {
+                continue;
+            }
+            final long start = START + i * HOUR;
+            samples.add(new Sample(start, start + HOUR, random.nextInt(2000)));
+        }
+        return samples;
+    }
+
+    /**
+     * A year of hourly distance buckets in meters, empty at night like the steps.
+     */
+    static List<Sample> hourlyDistance(int hours) {
+        final Random random = new Random(42);
+        List<Sample> samples = new ArrayList<>(hours);
+        for (int i = 0; i < hours; i++) {
+            final int hourOfDay = i % 24;
+            if (hourOfDay < 7) {
+                continue;
+            }
+            final long start = START + i * HOUR;
+            samples.add(new Sample(start, start + HOUR, random.nextDouble() * 1500));
+        }
+        return samples;
+    }
+
+    /**
+     * Heart rate buckets every {@code stepMillis}, with min and max around a drifting average.
+     */
+    static List<Sample> heartRates(int count, long stepMillis) {
+        final Random random = new Random(42);
+        List<Sample> samples = new ArrayList<>(count);
+        double average = 70;
+        for (int i = 0; i < count; i++) {
+            average = Math.max(45, Math.min(180, average + random.nextGaussian() * 2));
+            final double spread = random.nextDouble() * 10;
+            final long start = START + i * stepMillis;
+            samples.add(new Sample(start, start + stepMillis, average, average - spread, average + spread));
+        }
+        return samples;
+    }
+}
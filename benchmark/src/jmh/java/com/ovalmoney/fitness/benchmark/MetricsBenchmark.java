@@ -0,0 +1,33 @@
+package com.ovalmoney.fitness.benchmark;
+
+import com.ovalmoney.fitness.metrics.CallMetrics;
+import com.ovalmoney.fitness.metrics.MetricsStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead the instrumentation adds to every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    private final MetricsStore store = new MetricsStore();
+
+    @Benchmark
+    public void recordCall() {
+        CallMetrics call = new CallMetrics("getSteps");
+        call.put(MetricsStore.BUCKETS, 8760);
+        call.put(MetricsStore.ENTRIES, 300);
+        call.put(MetricsStore.PROCESS, 12);
+        store.record(call);
+    }
+}
@@ -0,0 +1,46 @@
+package com.ovalmoney.fitness.benchmark;
+
+import com.ovalmoney.fitness.permission.Permission;
+import com.ovalmoney.fitness.permission.PermissionScopes;
+import com.ovalmoney.fitness.permission.Request;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving permission requests into the data types addPermissionToFitnessOptions adds, for
+ * read and write access to every kind. Adding them to the Play Services builder isn't covered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermissionBenchmark {
+
+    private final static int READ = 0;
+    private final static int WRITE = 1;
+
+    private List<Request> requests;
+
+    @Setup
+    public void setUp() {
+        requests = new ArrayList<>();
+        for (int kind = Permission.STEP; kind <= Permission.WEIGHT; kind++) {
+            requests.add(new Request(kind, READ));
+            requests.add(new Request(kind, WRITE));
+        }
+    }
+
+    @Benchmark
+    public List<PermissionScopes.Scope> addPermissionToFitnessOptions() {
+        return PermissionScopes.resolve(requests);
+    }
+}
@@ -0,0 +1,61 @@
+package com.ovalmoney.fitness.benchmark;
+
+import com.ovalmoney.fitness.aggregation.RollUp;
+import com.ovalmoney.fitness.aggregation.SampleSeries;
+import com.ovalmoney.fitness.manager.Sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deriving day and week views from a year of hourly buckets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RollUpBenchmark {
+
+    private List<Sample> steps;
+    private SampleSeries stepSeries;
+    private SampleSeries heartRateSeries;
+
+    @Setup
+    public void setUp() {
+        steps = Fixtures.hourlySteps(Fixtures.HOURS_PER_YEAR);
+        stepSeries = SampleSeries.fromSamples(steps);
+        heartRateSeries = SampleSeries.fromSamples(Fixtures.heartRates(Fixtures.HOURS_PER_YEAR, Fixtures.HOUR));
+    }
+
+    @Benchmark
+    public SampleSeries toSeries() {
+        return SampleSeries.fromSamples(steps);
+    }
+
+    @Benchmark
+    public List<Sample> toSamples() {
+        return stepSeries.toSamples();
+    }
+
+    @Benchmark
+    public SampleSeries stepsByDay() {
+        return RollUp.rollUp(stepSeries, Fixtures.START, Fixtures.START + Fixtures.HOURS_PER_YEAR * Fixtures.HOUR, Fixtures.DAY, RollUp.SUM);
+    }
+
+    @Benchmark
+    public SampleSeries stepsByWeek() {
+        return RollUp.rollUp(stepSeries, Fixtures.START, Fixtures.START + Fixtures.HOURS_PER_YEAR * Fixtures.HOUR, Fixtures.WEEK, RollUp.SUM);
+    }
+
+    @Benchmark
+    public SampleSeries heartRateByDay() {
+        return RollUp.rollUp(heartRateSeries, Fixtures.START, Fixtures.START + Fixtures.HOURS_PER_YEAR * Fixtures.HOUR, Fixtures.DAY, RollUp.AVERAGE);
+    }
+}
@@ -1,4 +1,12 @@
-import { NativeModules } from "react-native";
+import {
+  AppRegistry,
+  DeviceEventEmitter,
+  NativeModules,
+  Platform,
+} from "react-native";
+
+let lastQueryId = 0;
+let liveSubscription = null;
 
 /**
  * Get native getStep with parsed Dates
@@ -6,11 +14,13 @@ import { NativeModules } from "react-native";
  * @param endDate
  * @returns {*}
  */
-const getSteps = ({ startDate, endDate, interval = "days" }) =>
-  NativeModules.Fitness.getSteps(
+const getSteps = ({ startDate, endDate, interval = "days", ...options }) =>
+  callHistory(
+    "getSteps",
     parseDate(startDate),
     parseDate(endDate),
-    interval
+    interval,
+    options
   );
 
 /**
@@ -19,11 +29,13 @@ const getSteps = ({ startDate, endDate, interval = "days" }) =>
  * @param endDate
  * @returns {*}
  */
-const getDistance = ({ startDate, endDate, interval = "days" }) =>
-  NativeModules.Fitness.getDistance(
+const getDistance = ({ startDate, endDate, interval = "days", ...options }) =>
+  callHistory(
+    "getDistance",
     parseDate(startDate),
     parseDate(endDate),
-    interval
+    interval,
+    options
   );
 
 /**
@@ -33,11 +45,13 @@ const getDistance = ({ startDate, endDate, interval = "days" }) =>
  * @param interval
  * @returns {*}
  */
-const getCalories = ({ startDate, endDate, interval = "days" }) =>
-  NativeModules.Fitness.getCalories(
+const getCalories = ({ startDate, endDate, interval = "days", ...options }) =>
+  callHistory(
+    "getCalories",
     parseDate(startDate),
     parseDate(endDate),
-    interval
+    interval,
+    options
   );
 
 /**
@@ -47,13 +61,377 @@ const getCalories = ({ startDate, endDate, interval = "days" }) =>
  * @param interval
  * @returns {*}
  */
-const getHeartRate = ({ startDate, endDate, interval = "days" }) =>
-  NativeModules.Fitness.getHeartRate(
+const getHeartRate = ({ startDate, endDate, interval = "days", ...options }) =>
+  callHistory(
+    "getHeartRate",
+    parseDate(startDate),
+    parseDate(endDate),
+    interval,
+    options
+  );
+
+/**
+ * Call a native history getter. On Android, passing `onPage` streams the
+ * result in pages of `pageSize` entries instead of resolving one array.
+ * Other platforms reject `onPage` and `queryId` rather than drop them, as
+ * the caller would wait for pages or a cancellation which never come.
+ * @param method: native method name
+ * @param startDate
+ * @param endDate
+ * @param interval
+ * @param options
+ * @returns {*}
+ */
+const callHistory = (method, startDate, endDate, interval, options) => {
+  if (Platform.OS !== "android") {
+    const androidOption = ["onPage", "queryId"].find(
+      key => options[key] !== undefined
+    );
+    return androidOption
+      ? Promise.reject(
+          new Error(`${androidOption} is only available on Android`)
+        )
+      : NativeModules.Fitness[method](startDate, endDate, interval);
+  }
+  const { onPage, ...nativeOptions } = options;
+  if (!onPage) {
+    return NativeModules.Fitness[method](
+      startDate,
+      endDate,
+      interval,
+      nativeOptions
+    );
+  }
+
+  const queryId = nativeOptions.queryId || String(++lastQueryId);
+  const subscription = DeviceEventEmitter.addListener(
+    NativeModules.Fitness.Events.HistoryPage,
+    page => page.queryId === queryId && onPage(page.data, page.page)
+  );
+  return NativeModules.Fitness[method](startDate, endDate, interval, {
+    ...nativeOptions,
+    stream: true,
+    queryId,
+  }).finally(() => subscription.remove());
+};
+
+/**
+ * Get native getSummary with parsed Dates
+ * @param startDate
+ * @param endDate
+ * @param interval
+ * @param metrics: Array of PermissionKind values
+ * @returns {*}
+ */
+const getSummary = ({
+  startDate,
+  endDate,
+  interval = "days",
+  metrics,
+  ...options
+}) =>
+  NativeModules.Fitness.getSummary(
     parseDate(startDate),
     parseDate(endDate),
-    interval
+    interval,
+    metrics,
+    options
   );
 
+/**
+ * Get native getRollUps with parsed Dates (Android only)
+ * @param kind: PermissionKind value
+ * @param startDate
+ * @param endDate
+ * @param interval: granularity read from Google Fit
+ * @param intervals: coarser granularities derived from it
+ * @returns {*}
+ */
+const getRollUps = ({
+  kind,
+  startDate,
+  endDate,
+  interval = "hour",
+  intervals,
+  ...options
+}) =>
+  NativeModules.Fitness.getRollUps(
+    kind,
+    parseDate(startDate),
+    parseDate(endDate),
+    interval,
+    intervals,
+    options
+  );
+
+/**
+ * Export history straight to a file with parsed Dates (Android only). Only
+ * the path of the file is returned, `onProgress` receives
+ * { queryId, progress, endDate, rows } after every chunk.
+ * @param startDate
+ * @param endDate
+ * @param interval
+ * @param metrics: Array of PermissionKind values
+ * @param format: "ndjson" or "csv"
+ * @param gzip
+ * @param onProgress
+ * @returns {*}
+ */
+const exportHistory = ({
+  startDate,
+  endDate,
+  interval = "hour",
+  metrics,
+  onProgress,
+  ...options
+}) => {
+  const queryId = options.queryId || String(++lastQueryId);
+  const subscription =
+    onProgress &&
+    DeviceEventEmitter.addListener(
+      NativeModules.Fitness.Events.ExportProgress,
+      progress => progress.queryId === queryId && onProgress(progress)
+    );
+  return NativeModules.Fitness.exportHistory(
+    parseDate(startDate),
+    parseDate(endDate),
+    interval,
+    metrics,
+    { ...options, queryId }
+  ).finally(() => subscription && subscription.remove());
+};
+
+/**
+ * Get native syncSince with parsed Dates (Android only)
+ * @param kind: PermissionKind value
+ * @param interval
+ * @param token: token returned by the previous sync, if any
+ * @param startDate: where the first sync starts when no token is given
+ * @param syncId: caller whose watermark is used, "default" if not given
+ * @returns {*}
+ */
+const syncSince = ({
+  kind,
+  interval = "days",
+  token = null,
+  startDate,
+  ...options
+}) =>
+  NativeModules.Fitness.syncSince(
+    kind,
+    interval,
+    token,
+    startDate ? { ...options, startDate: parseDate(startDate) } : options
+  );
+
+/**
+ * Get native readSamples with parsed Dates (Android only)
+ * @param kind: PermissionKind value
+ * @param startDate
+ * @param endDate
+ * @param pageSize
+ * @param cursor: cursor returned by the previous page, if any
+ * @returns {*}
+ */
+const readSamples = ({ kind, startDate, endDate, ...options }) =>
+  NativeModules.Fitness.readSamples(
+    kind,
+    parseDate(startDate),
+    parseDate(endDate),
+    options
+  );
+
+/**
+ * Get native readSessions with parsed Dates (Android only)
+ * @param startDate
+ * @param endDate
+ * @param metrics: Array of PermissionKind values totalled per session
+ * @param pageSize
+ * @param cursor: cursor returned by the previous page, if any
+ * @returns {*}
+ */
+const readSessions = ({
+  startDate,
+  endDate,
+  metrics = [
+    NativeModules.Fitness.PermissionKind.Step,
+    NativeModules.Fitness.PermissionKind.Distance,
+    NativeModules.Fitness.PermissionKind.Calories,
+    NativeModules.Fitness.PermissionKind.HeartRate,
+  ],
+  ...options
+}) =>
+  NativeModules.Fitness.readSessions(
+    parseDate(startDate),
+    parseDate(endDate),
+    metrics,
+    options
+  );
+
+/**
+ * Parse the given date keys of every item of a bulk write
+ * @param items
+ * @param keys: names of the date keys
+ * @returns {*}
+ */
+const parseItemDates = (items, keys) =>
+  items.map(item =>
+    keys.reduce(
+      (parsed, key) => ({ ...parsed, [key]: parseDate(item[key]) }),
+      item
+    )
+  );
+
+/**
+ * Get native saveActivities with parsed Dates (Android only)
+ * @param activities: Array of { activity, startDate, endDate }
+ * @returns {*}
+ */
+const saveActivities = activities =>
+  NativeModules.Fitness.saveActivities(
+    parseItemDates(activities, ["startDate", "endDate"])
+  );
+
+/**
+ * Get native saveSteps with parsed Dates (Android only)
+ * @param steps: Array of { startDate, endDate, quantity }
+ * @returns {*}
+ */
+const saveSteps = steps =>
+  NativeModules.Fitness.saveSteps(
+    parseItemDates(steps, ["startDate", "endDate"])
+  );
+
+/**
+ * Get native saveHeartRates with parsed Dates (Android only)
+ * @param heartRates: Array of { date, quantity }
+ * @returns {*}
+ */
+const saveHeartRates = heartRates =>
+  NativeModules.Fitness.saveHeartRates(parseItemDates(heartRates, ["date"]));
+
+/**
+ * Get native saveWeights with parsed Dates (Android only)
+ * @param weights: Array of { date, kilograms }
+ * @returns {*}
+ */
+const saveWeights = weights =>
+  NativeModules.Fitness.saveWeights(parseItemDates(weights, ["date"]));
+
+/**
+ * Start native live updates (Android only). Each frame is passed to `onFrame`
+ * and acknowledged once it returns, so the native side merges samples into
+ * the next frame while JS is busy.
+ * @param kinds: Array of PermissionKind values among Step and HeartRate
+ * @param interval: frame interval in milliseconds
+ * @param maxPendingFrames: unacknowledged frames allowed before merging
+ * @param onFrame
+ * @returns {*}
+ */
+const startLiveUpdates = ({ kinds, onFrame, ...options }) => {
+  removeLiveSubscription();
+  liveSubscription = DeviceEventEmitter.addListener(
+    NativeModules.Fitness.Events.LiveFrame,
+    frame => {
+      onFrame(frame);
+      NativeModules.Fitness.acknowledgeLiveFrame(frame.frameId);
+    }
+  );
+  return NativeModules.Fitness.startLiveUpdates(kinds, options);
+};
+
+/**
+ * Stop native live updates (Android only)
+ * @returns {*}
+ */
+const stopLiveUpdates = () => {
+  removeLiveSubscription();
+  return NativeModules.Fitness.stopLiveUpdates();
+};
+
+const removeLiveSubscription = () => {
+  if (liveSubscription) {
+    liveSubscription.remove();
+    liveSubscription = null;
+  }
+};
+
+/**
+ * Listen to the goal crossings evaluated natively (Android only)
+ * @param listener: receives { goalId, kind, state, value, threshold, date }
+ * @returns {*} subscription to remove
+ */
+const onGoal = listener =>
+  DeviceEventEmitter.addListener(NativeModules.Fitness.Events.Goal, listener);
+
+/**
+ * Schedule native pre-aggregation (Android only). A periodic job reads the
+ * last `days` days in `interval` buckets and stores them locally.
+ * @param kinds: Array of PermissionKind values, steps, distance, calories and heart rate by default
+ * @param period: minutes between runs, at least 15
+ * @param days
+ * @param interval
+ * @param headless: pass every result to the task registered with registerPreAggregationTask
+ * @param requiresCharging
+ * @returns {*}
+ */
+const schedulePreAggregation = ({ kinds = [], ...options } = {}) =>
+  NativeModules.Fitness.schedulePreAggregation(kinds, options);
+
+/**
+ * Register the headless task receiving pre-aggregated summaries (Android only).
+ * Must be called from the app entry point, outside of any component.
+ * @param task: async function receiving the stored summary
+ */
+const registerPreAggregationTask = task =>
+  AppRegistry.registerHeadlessTask(
+    NativeModules.Fitness.Tasks.PreAggregation,
+    () => task
+  );
+
+/**
+ * Wrap a helper calling native methods only Android has, so other platforms
+ * get a clear rejection instead of "undefined is not a function"
+ * @param name: helper name used in the error
+ * @param helper
+ * @returns {*}
+ */
+const androidOnly = (name, helper) => (...args) =>
+  Platform.OS === "android"
+    ? helper(...args)
+    : Promise.reject(new Error(`${name} is only available on Android`));
+
+/**
+ * Same as androidOnly for helpers which don't return a promise, throwing
+ * the error instead
+ * @param name: helper name used in the error
+ * @param helper
+ * @returns {*}
+ */
+const androidOnlySync = (name, helper) => (...args) => {
+  if (Platform.OS !== "android") {
+    throw new Error(`${name} is only available on Android`);
+  }
+  return helper(...args);
+};
+
+/**
+ * Wrap the native method of the given name with androidOnly, looking it up on
+ * each call since other platforms don't define it
+ * @param name: native method name
+ * @returns {*}
+ */
+const androidNative = name =>
+  androidOnly(name, (...args) => NativeModules.Fitness[name](...args));
+
+/**
+ * Same as androidNative for synchronous native methods
+ * @param name: native method name
+ * @returns {*}
+ */
+const androidNativeSync = name =>
+  androidOnlySync(name, (...args) => NativeModules.Fitness[name](...args));
+
 /**
  * Check if valid date and parse it
  * @param date: Date to parse
@@ -76,4 +454,40 @@ export default {
   getDistance,
   getCalories,
   getHeartRate,
+  getSummary: androidOnly("getSummary", getSummary),
+  getRollUps: androidOnly("getRollUps", getRollUps),
+  exportHistory: androidOnly("exportHistory", exportHistory),
+  syncSince: androidOnly("syncSince", syncSince),
+  readSamples: androidOnly("readSamples", readSamples),
+  readSessions: androidOnly("readSessions", readSessions),
+  saveActivities: androidOnly("saveActivities", saveActivities),
+  saveSteps: androidOnly("saveSteps", saveSteps),
+  saveHeartRates: androidOnly("saveHeartRates", saveHeartRates),
+  saveWeights: androidOnly("saveWeights", saveWeights),
+  startLiveUpdates: androidOnly("startLiveUpdates", startLiveUpdates),
+  stopLiveUpdates: androidOnly("stopLiveUpdates", stopLiveUpdates),
+  onGoal: androidOnlySync("onGoal", onGoal),
+  schedulePreAggregation: androidOnly(
+    "schedulePreAggregation",
+    schedulePreAggregation
+  ),
+  registerPreAggregationTask: androidOnlySync(
+    "registerPreAggregationTask",
+    registerPreAggregationTask
+  ),
+  configure: androidNative("configure"),
+  cancel: androidNative("cancel"),
+  getToday: androidNativeSync("getToday"),
+  getTodaySteps: androidNativeSync("getTodaySteps"),
+  getTodayDistance: androidNativeSync("getTodayDistance"),
+  getTodayCalories: androidNativeSync("getTodayCalories"),
+  refreshToday: androidNative("refreshToday"),
+  setGoals: androidNative("setGoals"),
+  getGoals: androidNative("getGoals"),
+  invalidateCache: androidNative("invalidateCache"),
+  getMetrics: androidNative("getMetrics"),
+  resetMetrics: androidNative("resetMetrics"),
+  cancelPreAggregation: androidNative("cancelPreAggregation"),
+  getPreAggregated: androidNative("getPreAggregated"),
+  acknowledgeLiveFrame: androidNativeSync("acknowledgeLiveFrame"),
 };